@@ -0,0 +1,54 @@
+package edu.courses.middleware.chatservice;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A ChangeBatch answers a follower registry's request for the changes after
+ * the last one it applied. A follower that has fallen further behind than the
+ * primary's change log reaches is sent a snapshot instead: a registration for
+ * every entity currently registered, which replaces the follower's copy.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ChangeBatch implements Serializable {
+	private static final long serialVersionUID = -2288180950361829449L;
+
+	/** Whether the changes are a snapshot of the whole directory. */
+	private boolean snapshot;
+
+	/** The changes, oldest first. */
+	private List<RegistryChange> changes;
+
+	/** The change stream position the batch brings the follower to. */
+	private long lastSeq;
+
+	/** The primary's latest change stream position. */
+	private long headSeq;
+
+	public ChangeBatch(boolean snapshot, List<RegistryChange> changes,
+			long lastSeq, long headSeq) {
+		this.snapshot = snapshot;
+		this.changes = changes;
+		this.lastSeq = lastSeq;
+		this.headSeq = headSeq;
+	}
+
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	public List<RegistryChange> getChanges() {
+		return changes;
+	}
+
+	public long getLastSeq() {
+		return lastSeq;
+	}
+
+	public long getHeadSeq() {
+		return headSeq;
+	}
+
+}
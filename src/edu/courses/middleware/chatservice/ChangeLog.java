@@ -0,0 +1,73 @@
+package edu.courses.middleware.chatservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.courses.middleware.chatservice.entities.IEntity;
+
+/**
+ * A ChangeLog keeps the ChatRegistry's most recent changes, numbered in the
+ * order they were made, for follower registries to tail. Older changes are
+ * overwritten as new ones arrive.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class ChangeLog {
+	/** The changes, indexed by sequence number modulo the capacity. */
+	private RegistryChange[] changes;
+
+	/** The last change's sequence number (0 if there has been none). */
+	private long head;
+
+	ChangeLog(int capacity) {
+		changes = new RegistryChange[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Records a change.
+	 * 
+	 * @param registered
+	 *            whether the entity was registered or deregistered.
+	 * @param name
+	 *            the entity's name.
+	 * @param id
+	 *            the entity's ID.
+	 * @param entity
+	 *            the registered entity or null.
+	 * @return the change's sequence number.
+	 */
+	synchronized long append(boolean registered, String name, int id,
+			IEntity entity) {
+		head++;
+		changes[(int) (head % changes.length)] = new RegistryChange(head,
+				registered, name, id, entity);
+		return head;
+	}
+
+	/**
+	 * Returns the changes made after a sequence number.
+	 * 
+	 * @param afterSeq
+	 *            the last change already known.
+	 * @param max
+	 *            the most changes returned.
+	 * @return the changes, oldest first, or null if some have been
+	 *         overwritten.
+	 */
+	synchronized List<RegistryChange> since(long afterSeq, int max) {
+		if (afterSeq < head - changes.length || afterSeq > head)
+			return null;
+
+		int n = (int) Math.min(max, head - afterSeq);
+		List<RegistryChange> since = new ArrayList<RegistryChange>(n);
+		for (long seq = afterSeq + 1; seq <= afterSeq + n; seq++)
+			since.add(changes[(int) (seq % changes.length)]);
+		return since;
+	}
+
+	synchronized long getHead() {
+		return head;
+	}
+
+}
@@ -1,21 +1,60 @@
 package edu.courses.middleware.chatservice;
 
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
+import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import edu.courses.middleware.chatservice.concurrent.ChatExecutors;
+import edu.courses.middleware.chatservice.concurrent.CircuitOpenException;
+import edu.courses.middleware.chatservice.concurrent.RemoteCallGuard;
 import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
 import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
 import edu.courses.middleware.chatservice.entities.ChatRoom;
 import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.DeliveryFilter;
 import edu.courses.middleware.chatservice.entities.IChatClient;
 import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.IEntity;
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.entities.TalkResult;
+import edu.courses.middleware.chatservice.metrics.MetricsHttpServer;
+import edu.courses.middleware.chatservice.metrics.MetricsRegistry;
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.TraceContext;
+import edu.courses.middleware.chatservice.tracing.Tracer;
+import edu.courses.middleware.chatservice.search.SearchHit;
 import edu.courses.middleware.chatservice.ui.ChatMessage;
+import edu.courses.middleware.chatservice.ui.ChatMessageListener;
 import edu.courses.middleware.chatservice.ui.UIHandler;
 import edu.courses.middleware.chatservice.ui.UIHandlerDelegate;
+import edu.courses.middleware.chatservice.util.SequenceWindow;
 
 /**
  * A ChatProvider creates and hosts chat service entities (chat clients, chat
@@ -24,19 +63,47 @@ import edu.courses.middleware.chatservice.ui.UIHandlerDelegate;
  * A ChatProvider interacts with a ChatRegistry instance through a remote
  * IChatRegistry handle obtained from the Java RMI registry. Note that a
  * ChatProvider takes as an input argument the hostname of the machine on which
- * the ChatRegistry is running.
+ * the ChatRegistry is running, and optionally the hostname of a machine running
+ * a follower ChatRegistry, in which case directory reads go to the follower
+ * and writes to the primary (see RegistryRouter).
+ * 
+ * A ChatProvider may also be created without a command line interface (see
+ * HeadlessChatProvider), in which case delivered messages are only passed to
+ * its registered ChatMessageListeners. Listeners are notified in delivery
+ * order on a thread of their own, not the chat room's callback, so a listener
+ * may talk without holding up the chat room.
+ * 
+ * Calls to joined chat rooms and direct message recipients go through a
+ * RemoteCallGuard, so a chat room that stops responding is timed out instead
+ * of hanging the command line interface. Only a chat room that can no longer
+ * be reached is cleaned up (and deregistered), a slow one is left alone.
  * 
  * @author Jonas Michel
  * 
  */
 public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 		ChatClientDelegate {
-	/** The UI handler. */
+	/** The UI handler (null if the provider is headless). */
 	private UIHandler uiHandler;
 
+	/** Notified of every delivered chat message. */
+	private List<ChatMessageListener> listeners;
+
+	/** The messages not yet passed to the listeners, in delivery order. */
+	private Queue<ChatMessage> listenerQueue;
+
+	/** Whether or not a task is passing messages to the listeners. */
+	private AtomicBoolean notifying;
+
+	/** Passes messages to the listeners off the RMI callback threads. */
+	private Executor listenerExecutor;
+
 	/** The chat service's registry. */
 	private IChatRegistry chatRegistry;
 
+	/** Resolves the entity IDs carried by delivered envelopes. */
+	private NameTable names;
+
 	/** The chat provider's representative chat client. */
 	private IChatClient chatClient;
 
@@ -46,21 +113,93 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 	/** Holds the chat rooms joined by the chat provider. */
 	private Map<String, IChatRoom> joinedChatRooms;
 
+	/** Caches the chat clients direct messages have been sent to. */
+	private Map<String, IChatClient> directClients;
+
+	/** Publishes joined chat rooms' messages to reactive subscribers. */
+	private Map<String, RoomPublisher> publishers;
+
+	/** The last sequence number talked with in each joined chat room. */
+	private Map<String, AtomicLong> talkSeqs;
+
+	/** The sequence numbers received from each joined chat room. */
+	private Map<String, SequenceWindow> received;
+
+	/** Bounds the calls to joined chat rooms and direct message recipients. */
+	private RemoteCallGuard guard;
+
+	/** The system property holding the number of times talk is retried. */
+	public static final String TALK_RETRIES_PROPERTY = "chatservice.talk.retries";
+
+	/** The delay before talk is first retried in milliseconds. */
+	private static final long TALK_RETRY_DELAY = 50;
+
+	/** The number of recent sequence numbers remembered per chat room. */
+	private static final int RECEIVE_WINDOW = 1024;
+
+	/** The system property holding the shutdown deadline in milliseconds. */
+	public static final String SHUTDOWN_TIMEOUT_PROPERTY = "chatservice.shutdown.timeout";
+
+	/** The default shutdown deadline in milliseconds. */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
+	public ChatProvider(IChatRegistry chatRegistry) {
+		this.chatRegistry = chatRegistry;
+		names = new NameTable(chatRegistry);
+
+		hostedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
+		joinedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
+		directClients = new ConcurrentHashMap<String, IChatClient>();
+		publishers = new ConcurrentHashMap<String, RoomPublisher>();
+		talkSeqs = new ConcurrentHashMap<String, AtomicLong>();
+		received = new ConcurrentHashMap<String, SequenceWindow>();
+		guard = new RemoteCallGuard("provider");
+		listeners = new CopyOnWriteArrayList<ChatMessageListener>();
+		listenerQueue = new ConcurrentLinkedQueue<ChatMessage>();
+		notifying = new AtomicBoolean();
+		listenerExecutor = ChatExecutors.newExecutor("chatservice-listeners",
+				1);
+	}
+
 	public ChatProvider(String host) {
+		this(host, null);
+	}
+
+	public ChatProvider(String host, String replicaHost) {
+		this(lookupChatRegistry(host, replicaHost));
+
+		// kick off the UI handler
+		uiHandler = new UIHandler(this);
+		uiHandler.start();
+	}
+
+	/**
+	 * Obtains a ChatRegistry stub from the Java RMI registry on the given
+	 * host, exiting if it can't be found.
+	 * 
+	 * @param host
+	 *            the hostname of the machine running the ChatRegistry.
+	 * @param replicaHost
+	 *            the hostname of the machine running a follower ChatRegistry
+	 *            or null.
+	 * @return the chat service's registry.
+	 */
+	private static IChatRegistry lookupChatRegistry(String host,
+			String replicaHost) {
 		try {
 			// locate the remote RMI registry
 			Registry registry = LocateRegistry.getRegistry(host);
 
 			// obtain a chat service registry stub
-			chatRegistry = (IChatRegistry) registry
+			IChatRegistry primary = (IChatRegistry) registry
 					.lookup(ChatRegistry.CHAT_REGISTRY_URL);
+			if (replicaHost == null)
+				return primary;
 
-			hostedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
-			joinedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
-
-			// kick off the UI handler
-			uiHandler = new UIHandler(this);
-			uiHandler.start();
+			// read from the follower, write to the primary
+			IChatRegistry follower = (IChatRegistry) LocateRegistry
+					.getRegistry(replicaHost).lookup(ChatRegistry.REPLICA_URL);
+			return new RegistryRouter(primary, follower);
 
 		} catch (RemoteException e) {
 			// TODO Auto-generated catch block
@@ -71,6 +210,276 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 			e.printStackTrace();
 			System.exit(1);
 		}
+
+		return null;
+	}
+
+	/**
+	 * Registers a listener to be notified of delivered chat messages.
+	 * 
+	 * @param listener
+	 *            the listener.
+	 */
+	public void addMessageListener(ChatMessageListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stops notifying a listener of delivered chat messages.
+	 * 
+	 * @param listener
+	 *            the listener.
+	 */
+	public void removeMessageListener(ChatMessageListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Creates a publisher of a joined chat room's messages. The chat room
+	 * sends only as many messages as the publisher's subscriber requests, so
+	 * backpressure also applies to the provider's UI and listeners. A new
+	 * publisher completes any earlier publisher of the same chat room.
+	 * 
+	 * @param name
+	 *            the chat room's name.
+	 * @param executor
+	 *            runs the subscriber and the demand requests.
+	 * @return the publisher or null if the chat room hasn't been joined.
+	 */
+	public RoomPublisher getPublisher(String name, Executor executor) {
+		IChatRoom chatRoom = joinedChatRooms.get(name);
+		if (chatRoom == null)
+			return null;
+
+		RoomPublisher publisher = new RoomPublisher(name, chatRoom,
+				chatClient, executor);
+		RoomPublisher previous = publishers.put(name, publisher);
+		if (previous != null)
+			previous.complete();
+
+		return publisher;
+	}
+
+	/**
+	 * Returns the number of gaps detected in a joined chat room's messages.
+	 * Every message names the one the chat room sent before it, a gap is a
+	 * message whose predecessor never arrived first. A failed delivery
+	 * retransmitted later opens a gap that its retransmission fills.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 * @return the number of gaps detected since the chat room was joined.
+	 */
+	public long getGaps(String name) {
+		SequenceWindow window = received.get(name);
+		return window == null ? 0 : window.getGaps();
+	}
+
+	/**
+	 * Forgets a joined chat room, completing its publisher.
+	 * 
+	 * @param name
+	 *            the chat room's name.
+	 */
+	private void forgetJoinedChatRoom(String name) {
+		IChatRoom chatRoom = joinedChatRooms.remove(name);
+		if (chatRoom != null)
+			guard.forget(chatRoom);
+		talkSeqs.remove(name);
+		received.remove(name);
+
+		RoomPublisher publisher = publishers.remove(name);
+		if (publisher != null)
+			publisher.complete();
+	}
+
+	/**
+	 * Hands a delivered chat message to the UI and any listeners.
+	 * 
+	 * @param message
+	 *            the chat message.
+	 */
+	private void dispatch(ChatMessage message) {
+		if (uiHandler != null)
+			uiHandler.deliver(message);
+
+		// a listener may talk, which mustn't hold up the chat room's delivery
+		// to this client
+		if (listeners.isEmpty())
+			return;
+		listenerQueue.add(message);
+		notifyListeners();
+	}
+
+	/**
+	 * Starts passing queued messages to the listeners, one at a time and in
+	 * order, unless a task already is.
+	 */
+	private void notifyListeners() {
+		if (!notifying.compareAndSet(false, true))
+			return;
+
+		listenerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				ChatMessage message;
+				while ((message = listenerQueue.poll()) != null) {
+					for (ChatMessageListener listener : listeners) {
+						try {
+							listener.deliver(message);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+
+				notifying.set(false);
+
+				// a message may have arrived after the queue was found empty
+				if (!listenerQueue.isEmpty())
+					notifyListeners();
+			}
+		});
+	}
+
+	/**
+	 * Leaves all joined chat rooms, closes all hosted chat rooms and
+	 * deregisters the chat client, without exiting. Waits at most
+	 * chatservice.shutdown.timeout milliseconds.
+	 * 
+	 * @return describes which steps completed.
+	 */
+	public ShutdownReport shutdown() {
+		return shutdown(Long.getLong(SHUTDOWN_TIMEOUT_PROPERTY,
+				DEFAULT_SHUTDOWN_TIMEOUT));
+	}
+
+	/**
+	 * Leaves all joined chat rooms, closes all hosted chat rooms and
+	 * deregisters the chat client, without exiting. The steps run
+	 * concurrently, so a single unresponsive chat room only delays its own
+	 * step, and the steps still running when the deadline passes are
+	 * abandoned. Finally the hosted chat rooms and the chat client are
+	 * unexported.
+	 * 
+	 * @param timeout
+	 *            the deadline in milliseconds.
+	 * @return describes which steps completed.
+	 */
+	public ShutdownReport shutdown(long timeout) {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+		ExecutorService workers = ChatExecutors.newExecutor(
+				"chatservice-shutdown", 0);
+		Map<String, Future<?>> steps = new LinkedHashMap<String, Future<?>>();
+
+		// leave all joined chat rooms
+		for (final Map.Entry<String, IChatRoom> entry : joinedChatRooms
+				.entrySet()) {
+			steps.put("leave " + entry.getKey(),
+					workers.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws RemoteException {
+							entry.getValue().leave(chatClient);
+							forgetJoinedChatRoom(entry.getKey());
+							return null;
+						}
+					}));
+		}
+
+		// close all hosted chat rooms
+		final List<IEntity> departing = new ArrayList<IEntity>();
+		for (final Map.Entry<String, IChatRoom> entry : hostedChatRooms
+				.entrySet()) {
+			steps.put("empty " + entry.getKey(),
+					workers.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws RemoteException {
+							entry.getValue().empty();
+							return null;
+						}
+					}));
+			departing.add(entry.getValue());
+		}
+
+		// deregister the chat rooms and our chat client in one call (a chat
+		// room left by its last participant may already have deregistered)
+		if (chatClient != null)
+			departing.add(chatClient);
+		if (!departing.isEmpty()) {
+			steps.put("deregister", workers.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws RemoteException {
+					chatRegistry.deregisterAll(departing);
+					return null;
+				}
+			}));
+		}
+
+		// wait for every step under the one deadline
+		ShutdownReport report = new ShutdownReport();
+		for (Map.Entry<String, Future<?>> step : steps.entrySet()) {
+			try {
+				step.getValue().get(Math.max(0, deadline - System.nanoTime()),
+						TimeUnit.NANOSECONDS);
+				report.completed(step.getKey());
+
+			} catch (TimeoutException e) {
+				report.unfinished(step.getKey());
+
+			} catch (ExecutionException e) {
+				report.failed(step.getKey(), e.getCause().toString());
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				report.unfinished(step.getKey());
+			}
+		}
+		workers.shutdownNow();
+
+		// stop serving remote calls, even those still in progress
+		for (IChatRoom room : hostedChatRooms.values())
+			unexport(room);
+		hostedChatRooms.clear();
+		if (chatClient != null) {
+			unexport(chatClient);
+			MetricsRegistry.unregister(guardMetricsName());
+		}
+
+		report.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System
+				.nanoTime() - start));
+		return report;
+	}
+
+	/**
+	 * Stops a locally hosted entity from accepting remote calls.
+	 * 
+	 * @param entity
+	 *            the entity.
+	 */
+	private static void unexport(Remote entity) {
+		try {
+			UnicastRemoteObject.unexportObject(entity, true);
+		} catch (NoSuchObjectException e) {
+			// the entity was never exported or is already unexported
+		}
+	}
+
+	/**
+	 * Returns the JMX object name of the guard's metrics, which is named after
+	 * the chat client.
+	 * 
+	 * @return the object name.
+	 */
+	private ObjectName guardMetricsName() {
+		try {
+			return MetricsRegistry.objectName("RemoteCalls", "provider/"
+					+ chatClient.getName());
+		} catch (RemoteException e) {
+			// the chat client is local
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
@@ -95,50 +504,53 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 		}
 
 		// leave the chat room
-		joinedChatRooms.remove(name);
+		forgetJoinedChatRoom(name);
+	}
+
+	/**
+	 * Returns whether or not a failed call shows that the remote object is
+	 * gone, rather than slow or failing fast behind an open circuit breaker.
+	 * 
+	 * @param e
+	 *            the call's failure.
+	 * @return true if the remote object can't be reached or isn't exported.
+	 */
+	private static boolean isDead(RemoteException e) {
+		return e instanceof ConnectException
+				|| e instanceof ConnectIOException
+				|| e instanceof NoSuchObjectException
+				|| e instanceof UnknownHostException;
 	}
 
 	/* UIHandlerDelegate Interface Implementation */
 
 	@Override
 	public void quit() {
-		try {
-			// leave all joined chat rooms
-			for (Map.Entry<String, IChatRoom> entry : joinedChatRooms
-					.entrySet()) {
-				entry.getValue().leave(chatClient);
-			}
-
-			// close all hosted chat rooms
-			for (Map.Entry<String, IChatRoom> entry : hostedChatRooms
-					.entrySet()) {
-				entry.getValue().empty();
-				chatRegistry.deregister(entry.getValue());
-				hostedChatRooms.remove(entry.getKey());
-			}
-
-			// deregister our chat client
-			chatRegistry.deregister(chatClient);
-
-			System.out.println("Goodbye");
-			System.exit(0);
-
-		} catch (RemoteException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		ShutdownReport report = shutdown();
+		if (!report.isClean()) {
+			System.out.println(report);
 			System.exit(1);
 		}
 
+		System.out.println("Goodbye");
+		System.exit(0);
 	}
 
 	@Override
 	public boolean registerChatClient(String name) {
 		try {
 			// create the chat client
-			chatClient = new ChatClient(name, this);
+			ChatClient client = new ChatClient(name, this);
+			chatClient = client;
 
 			// attempt to register the chat client with the chat registry
-			return chatRegistry.register(chatClient);
+			int id = chatRegistry.register(client);
+			if (id == 0)
+				return false;
+			client.setId(id);
+
+			MetricsRegistry.register(guardMetricsName(), guard.getMetrics());
+			return true;
 
 		} catch (RemoteException e) {
 			// TODO Auto-generated catch block
@@ -151,13 +563,14 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 	public boolean registerChatRoom(String name) {
 		try {
 			// create a new chat room
-			IChatRoom chatRoom = new ChatRoom(name, this);
+			ChatRoom chatRoom = new ChatRoom(name, this);
 
 			// attempt to register it with the chat service's registry
-			boolean success = chatRegistry.register(chatRoom);
+			int id = chatRegistry.register(chatRoom);
 
-			if (!success)
+			if (id == 0)
 				return false;
+			chatRoom.setId(id);
 
 			// keep track that we're hosting this chat room
 			hostedChatRooms.put(name, chatRoom);
@@ -183,7 +596,7 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 			// leave the chat room if necessary
 			if (joinedChatRooms.containsKey(name)) {
 				chatRoom.leave(chatClient);
-				joinedChatRooms.remove(name);
+				forgetJoinedChatRoom(name);
 			}
 
 			// notify all participants that the chat room is closing
@@ -232,6 +645,19 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 		}
 	}
 
+	@Override
+	public RoomPage findChatRooms(String pattern, RoomOrder order,
+			String cursor, int limit) {
+		try {
+			return chatRegistry.findChatRooms(pattern, order, cursor, limit);
+
+		} catch (RemoteException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			return null;
+		}
+	}
+
 	@Override
 	public Map<String, IChatRoom> getHostedChatRooms() {
 		return hostedChatRooms;
@@ -244,15 +670,34 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 
 	@Override
 	public boolean joinChatRoom(String name) {
+		return joinChatRoom(name, DeliveryFilter.ALL);
+	}
+
+	/**
+	 * Joins a chat room, receiving only the messages accepted by a filter.
+	 * 
+	 * @param name
+	 *            a chat room's name.
+	 * @param filter
+	 *            selects the messages delivered to the chat client.
+	 * @return true if successful, false otherwise.
+	 */
+	public boolean joinChatRoom(String name, final DeliveryFilter filter) {
 		try {
 			// retrieve the remote chat room
-			IChatRoom chatRoom = chatRegistry.getChatRooms().get(name);
+			final IChatRoom chatRoom = chatRegistry.getChatRooms().get(name);
 
 			if (chatRoom == null)
 				return false;
 
 			// attempt to join the chat room
-			boolean success = chatRoom.join(chatClient);
+			boolean success = guard.call(chatRoom,
+					new RemoteCallGuard.Call<Boolean>() {
+						@Override
+						public Boolean call() throws RemoteException {
+							return chatRoom.join(chatClient, filter);
+						}
+					});
 
 			if (!success)
 				return false;
@@ -270,37 +715,208 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 	}
 
 	@Override
-	public boolean talkChatRoom(String name, String message) {
+	public TalkResult talkChatRoom(String name, final String message) {
+		final IChatRoom chatRoom = joinedChatRooms.get(name);
+		if (chatRoom == null)
+			return TalkResult.NOT_JOINED;
+
+		// the chat room acknowledges a retry it has already accepted, so a
+		// failed call is retried with the same sequence number
+		AtomicLong seqs = talkSeqs.get(name);
+		if (seqs == null) {
+			AtomicLong created = new AtomicLong();
+			seqs = talkSeqs.putIfAbsent(name, created);
+			if (seqs == null)
+				seqs = created;
+		}
+		final long seq = seqs.incrementAndGet();
+		int retries = Integer.getInteger(TALK_RETRIES_PROPERTY, 2);
+
+		Span span = Tracer.startTrace("provider.talk");
+		if (span != null)
+			span.setAttribute("chat.room", name);
+		final TraceContext trace = span == null ? null : span.context();
+		try {
+			for (int attempt = 0;; attempt++) {
+				try {
+					return guard.call(chatRoom,
+							new RemoteCallGuard.Call<TalkResult>() {
+								@Override
+								public TalkResult call() throws RemoteException {
+									return chatRoom.talk(chatClient, message,
+											seq, trace);
+								}
+							});
+
+				} catch (RemoteException e) {
+					// an open breaker won't let a retry through
+					if (!(e instanceof CircuitOpenException)
+							&& attempt < retries && backOff(attempt))
+						continue;
+
+					if (span != null)
+						span.setError();
+
+					// the chat room has died unexpectedly, clean it up, but
+					// leave a slow one alone
+					if (isDead(e))
+						cleanupDeadJoinedChatRoom(name);
+
+					return TalkResult.ROOM_UNAVAILABLE;
+				}
+			}
+
+		} finally {
+			if (span != null)
+				span.end();
+		}
+	}
+
+	/**
+	 * Waits before retrying a remote call.
+	 * 
+	 * @param attempt
+	 *            the number of attempts that have failed before this one.
+	 * @return false if the wait was interrupted.
+	 */
+	private static boolean backOff(int attempt) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(TALK_RETRY_DELAY << attempt);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public boolean filterChatRoom(String name, final DeliveryFilter filter) {
 		try {
-			if (!joinedChatRooms.containsKey(name))
+			final IChatRoom chatRoom = joinedChatRooms.get(name);
+			if (chatRoom == null)
 				return false;
 
-			return joinedChatRooms.get(name).talk(chatClient, message);
+			return guard.call(chatRoom, new RemoteCallGuard.Call<Boolean>() {
+				@Override
+				public Boolean call() throws RemoteException {
+					return chatRoom.setFilter(chatClient, filter);
+				}
+			});
 
 		} catch (RemoteException e) {
 			// the chat room has died unexpectedly, clean it up
-			cleanupDeadJoinedChatRoom(name);
+			if (isDead(e))
+				cleanupDeadJoinedChatRoom(name);
 
-			return true;
+			return false;
 		}
 	}
 
+	@Override
+	public List<SearchHit> searchChatRoom(String name, final String query,
+			final int limit) {
+		try {
+			final IChatRoom chatRoom = joinedChatRooms.get(name);
+			if (chatRoom == null)
+				return null;
+
+			return guard.call(chatRoom,
+					new RemoteCallGuard.Call<List<SearchHit>>() {
+						@Override
+						public List<SearchHit> call() throws RemoteException {
+							return chatRoom.search(query, limit);
+						}
+					});
+
+		} catch (RemoteException e) {
+			// the chat room has died unexpectedly, clean it up
+			if (isDead(e))
+				cleanupDeadJoinedChatRoom(name);
+
+			return null;
+		}
+	}
+
+	@Override
+	public boolean sendDirectMessage(String name, String message) {
+		if (chatClient == null)
+			return false;
+
+		boolean delivered = false;
+		Span span = Tracer.startTrace("provider.direct");
+		try {
+			final ChatEnvelope envelope = ChatEnvelope.direct(chatClient.getName(),
+					chatClient.getId(), message, span == null ? null : span.context());
+
+			// a cached chat client may be stale, so look it up again once
+			for (int attempt = 0; attempt < 2 && !delivered; attempt++) {
+				IChatClient cached = directClients.get(name);
+				if (cached == null) {
+					cached = chatRegistry.lookupChatClient(name);
+					if (cached == null)
+						break;
+
+					directClients.put(name, cached);
+				}
+
+				final IChatClient recipient = cached;
+				try {
+					guard.call(recipient, new RemoteCallGuard.Call<Void>() {
+						@Override
+						public Void call() throws RemoteException {
+							recipient.deliver(envelope);
+							return null;
+						}
+					});
+					delivered = true;
+				} catch (RemoteException e) {
+					directClients.remove(name);
+					guard.forget(recipient);
+				}
+			}
+
+		} catch (RemoteException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+
+		} finally {
+			if (span != null) {
+				if (!delivered)
+					span.setError();
+				span.end();
+			}
+		}
+
+		return delivered;
+	}
+
 	@Override
 	public boolean leaveChatRoom(String name) {
 		try {
-			if (!joinedChatRooms.containsKey(name))
+			final IChatRoom chatRoom = joinedChatRooms.get(name);
+			if (chatRoom == null)
 				return false;
 
-			boolean success = joinedChatRooms.get(name).leave(chatClient);
+			boolean success = guard.call(chatRoom,
+					new RemoteCallGuard.Call<Boolean>() {
+						@Override
+						public Boolean call() throws RemoteException {
+							return chatRoom.leave(chatClient);
+						}
+					});
 
 			if (!success)
 				return false;
 
-			joinedChatRooms.remove(name);
+			forgetJoinedChatRoom(name);
 
 			return true;
 
 		} catch (RemoteException e) {
+			// a slow chat room still has us as a participant
+			if (!isDead(e))
+				return false;
+
 			// the chat room has died unexpectedly, clean it up
 			cleanupDeadJoinedChatRoom(name);
 
@@ -339,27 +955,67 @@ public class ChatProvider implements UIHandlerDelegate, ChatRoomDelegate,
 	/* ChatClientDelegate Interface Implementation */
 
 	@Override
-	public void deliver(String room, String sender, String message) {
-		uiHandler.deliver(new ChatMessage(room, sender, message));
+	public void deliver(ChatEnvelope envelope) {
+		String sender = names.resolve(envelope.getSenderId(),
+				envelope.getSender());
+
+		// direct messages are shown under the sender's name
+		String room = envelope.isDirect() ? "@" + sender : names.resolve(
+				envelope.getRoomId(), envelope.getRoom());
+
+		// a retransmitted message may already have been delivered
+		if (envelope.getSeq() > 0) {
+			SequenceWindow window = received.get(room);
+			if (window == null) {
+				SequenceWindow created = new SequenceWindow(RECEIVE_WINDOW);
+				window = received.putIfAbsent(room, created);
+				if (window == null)
+					window = created;
+			}
+			if (!window.accept(envelope.getSeq(), envelope.getPrevious()))
+				return;
+		}
+
+		RoomPublisher publisher = publishers.get(room);
+
+		// a message only the UI sees is pooled, the UI recycles it
+		if (uiHandler != null && listeners.isEmpty() && publisher == null) {
+			uiHandler.deliver(ChatMessage.obtain(room, sender,
+					envelope.getMessage(), envelope.getPriority(),
+					Tracer.current()));
+			return;
+		}
+
+		ChatMessage message = new ChatMessage(room, sender,
+				envelope.getMessage(), envelope.getPriority(),
+				Tracer.current());
+		dispatch(message);
+
+		if (publisher != null)
+			publisher.publish(message);
 	}
 
 	@Override
 	public void closed(String name) {
 		// alert the user that the chat room has closed
-		uiHandler.deliver(new ChatMessage(name, "admin",
-				"(this chat room has been closed)"));
+		dispatch(new ChatMessage(name, "admin",
+				"(this chat room has been closed)", MessagePriority.CONTROL,
+				null));
 
 		// remove this chat room from our map of joined rooms
-		joinedChatRooms.remove(name);
+		forgetJoinedChatRoom(name);
 	}
 
 	public static void main(String[] args) {
-		if (args.length != 1) {
+		if (args.length != 1 && args.length != 2) {
 			System.err.println("Please provide the hostname of the machine "
-					+ "running the ChatRegistry (e.g., localhost)");
+					+ "running the ChatRegistry (e.g., localhost) and "
+					+ "optionally of one running a follower ChatRegistry");
 			System.exit(1);
 		}
 
-		new ChatProvider(args[0]);
+		MetricsHttpServer.startFromSystemProperties();
+
+		new ChatProvider(args[0], args.length == 2 ? args[1] : null);
 	}
 }
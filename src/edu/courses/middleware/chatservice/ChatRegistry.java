@@ -5,12 +5,40 @@ import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.courses.middleware.chatservice.concurrent.BroadcastScope;
+import edu.courses.middleware.chatservice.concurrent.ChatExecutors;
+import edu.courses.middleware.chatservice.entities.IChatClient;
 import edu.courses.middleware.chatservice.entities.IChatRoom;
 import edu.courses.middleware.chatservice.entities.IEntity;
+import edu.courses.middleware.chatservice.logging.EventLog;
+import edu.courses.middleware.chatservice.logging.Level;
+import edu.courses.middleware.chatservice.metrics.ChatRegistryMetrics;
+import edu.courses.middleware.chatservice.metrics.Gauge;
+import edu.courses.middleware.chatservice.metrics.MetricsHttpServer;
+import edu.courses.middleware.chatservice.metrics.MetricsRegistry;
+import edu.courses.middleware.chatservice.util.IntObjectMap;
 
 /**
  * The ChatRegistry acts as a "meta" registry, an application-specific adapter
@@ -18,6 +46,31 @@ import edu.courses.middleware.chatservice.entities.IEntity;
  * 
  * The ChatRegistry uses a locally running RMI registry. 
  * 
+ * Entity info is cached in an InfoCache. Batched requests (registerAll,
+ * deregisterAll and getInfoAll) process their entities in parallel on the
+ * registry's own threads, so a provider pays a single round trip for them.
+ * 
+ * Every registered entity is assigned a numeric ID, which chat envelopes
+ * carry in place of the entity's name. IDs aren't reused.
+ * 
+ * The registered chat rooms are also kept in a RoomIndex, which
+ * findChatRooms searches by name prefix or glob pattern a page at a time. The
+ * chat rooms' participant and message counts, by which pages may be ranked,
+ * are refreshed when a ranked search reaches them and they are older than
+ * chatservice.rooms.maxage milliseconds (10000 by default), at most
+ * chatservice.rooms.budget of them per search (100 by default, the stalest
+ * first), so chat rooms nobody ranks are never polled.
+ * 
+ * Every registration and deregistration is numbered and kept in a ChangeLog
+ * of the last chatservice.registry.changelog changes (4096 by default). A
+ * ChatRegistry created with a primary is a read-only follower: it tails the
+ * primary's change stream every chatservice.replica.interval milliseconds
+ * (100 by default) and serves reads from its own copy of the directory, while
+ * writes are passed on to the primary. A follower that hasn't caught up with
+ * the primary for chatservice.replica.maxlag milliseconds (5000 by default)
+ * refuses reads with a ReplicaLagException, so the reads it serves are never
+ * staler than that.
+ * 
  * @author Jonas Michel
  * 
  */
@@ -25,77 +78,401 @@ public class ChatRegistry extends UnicastRemoteObject implements IChatRegistry {
 	private static final long serialVersionUID = -4824956501661514974L;
 
 	/** Holds registered chat entities. */
-	private Map<String, IEntity> entities;
+	private ConcurrentMap<String, IEntity> entities;
+
+	/**
+	 * The entities' names by ID, kept after they deregister since IDs are
+	 * never reused.
+	 */
+	private IntObjectMap<String> namesById;
+
+	/** The registered entities' IDs by name (guarded by namesById). */
+	private Map<String, Integer> idsByName;
+
+	/** The next entity ID to assign. */
+	private AtomicInteger nextId;
+
+	/** Caches registered entities' info. */
+	private InfoCache infoCache;
+
+	/** Queries entities on behalf of batched requests. */
+	private ExecutorService executor;
+
+	/** The number of platform threads querying entities. */
+	private static final int FAN_OUT_THREADS = 16;
+
+	/** The chat registry's metrics. */
+	private ChatRegistryMetrics metrics;
+
+	/** The chat registry's event log. */
+	private static final EventLog log = EventLog.getLog(ChatRegistry.class);
 
 	/** The chat registry's global URL. */
 	public static final String CHAT_REGISTRY_URL = "ChatRegistry";
 
+	/** A follower chat registry's global URL. */
+	public static final String REPLICA_URL = "ChatRegistryReplica";
+
+	/** The system property holding the change log's capacity. */
+	public static final String CHANGE_LOG_PROPERTY = "chatservice.registry.changelog";
+
+	/** The system property holding a follower's polling interval. */
+	public static final String REPLICA_INTERVAL_PROPERTY = "chatservice.replica.interval";
+
+	/** The system property holding a follower's lag bound. */
+	public static final String REPLICA_MAX_LAG_PROPERTY = "chatservice.replica.maxlag";
+
+	/** The system property holding the chat room statistics' largest age. */
+	public static final String ROOMS_MAX_AGE_PROPERTY = "chatservice.rooms.maxage";
+
+	/** The system property holding the most chat rooms a search refreshes. */
+	public static final String ROOMS_BUDGET_PROPERTY = "chatservice.rooms.budget";
+
+	/** The most chat rooms on a page. */
+	public static final int MAX_ROOM_PAGE = 500;
+
+	/** The most changes a follower requests at once. */
+	private static final int CHANGE_BATCH = 512;
+
+	/** Numbers the registrations and deregistrations (null on a follower). */
+	private ChangeLog changes;
+
+	/** The primary a follower tails (null on the primary). */
+	private IChatRegistry primary;
+
+	/** The last change a follower has applied. */
+	private volatile long appliedSeq;
+
+	/** The primary's last change as last seen by a follower. */
+	private volatile long headSeq;
+
+	/** When a follower last caught up with the primary. */
+	private volatile long syncedAt;
+
+	/** The longest a follower may go without catching up and still serve. */
+	private long maxLag;
+
+	/** Tails the primary's change stream. */
+	private ScheduledExecutorService follower;
+
+	/** The chat rooms, sorted by name. */
+	private RoomIndex roomIndex;
+
+	/** How old a chat room's statistics may be before a ranked page. */
+	private long roomsMaxAge;
+
+	/** The most chat rooms a ranked search refreshes. */
+	private int roomsBudget;
+
 	public ChatRegistry() throws RemoteException {
+		this(null);
+	}
+
+	/**
+	 * Creates a chat registry, which is a follower if it is given a primary.
+	 * 
+	 * @param primary
+	 *            the primary chat registry to follow or null.
+	 */
+	public ChatRegistry(IChatRegistry primary) throws RemoteException {
 		super();
 
-		entities = new HashMap<String, IEntity>();
+		this.primary = primary;
+		entities = new ConcurrentHashMap<String, IEntity>();
+		namesById = new IntObjectMap<String>();
+		idsByName = new HashMap<String, Integer>();
+		nextId = new AtomicInteger();
+		roomIndex = new RoomIndex();
+		roomsMaxAge = Long.getLong(ROOMS_MAX_AGE_PROPERTY, 10000);
+		roomsBudget = Integer.getInteger(ROOMS_BUDGET_PROPERTY, 100);
+		if (primary == null)
+			changes = new ChangeLog(Integer.getInteger(CHANGE_LOG_PROPERTY,
+					4096));
+		maxLag = Long.getLong(REPLICA_MAX_LAG_PROPERTY, 5000);
+
+		// publish the chat registry's metrics
+		metrics = new ChatRegistryMetrics(new Gauge() {
+			@Override
+			public long getValue() {
+				return entities.size();
+			}
+		}, new Gauge() {
+			@Override
+			public long getValue() {
+				return Math.max(0, headSeq - appliedSeq);
+			}
+		}, new Gauge() {
+			@Override
+			public long getValue() {
+				return isFollower() ? System.currentTimeMillis() - syncedAt
+						: 0;
+			}
+		});
+		MetricsRegistry.register(MetricsRegistry.objectName("ChatRegistry",
+				isFollower() ? "replica" : null), metrics);
+
+		infoCache = new InfoCache(metrics);
+		executor = ChatExecutors.newExecutor("chatservice-registry",
+				FAN_OUT_THREADS);
 
 		// configure the RMI security manager
 		System.setSecurityManager(new RMISecurityManager());
 		try {
-			Naming.rebind(CHAT_REGISTRY_URL, this);
+			Naming.rebind(isFollower() ? REPLICA_URL : CHAT_REGISTRY_URL, this);
 		} catch (MalformedURLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 			System.exit(1);
 		}
+
+		if (isFollower())
+			follow();
+	}
+
+	/**
+	 * Refreshes the statistics of the stalest roomsBudget chat rooms matching
+	 * a pattern that are older than roomsMaxAge, so that a ranked page is
+	 * mostly made from fresh ones. The rest are ranked by their stale
+	 * statistics, and a chat room that fails to refresh isn't tried again
+	 * until roomsMaxAge has passed.
+	 * 
+	 * @param pattern
+	 *            a name prefix or glob pattern.
+	 */
+	private void refreshRooms(String pattern) {
+		long before = System.currentTimeMillis() - roomsMaxAge;
+
+		// start loading every stale chat room's info before waiting for any
+		Map<String, CompletableFuture<Map<String, String>>> pending = new HashMap<String, CompletableFuture<Map<String, String>>>();
+		for (String name : roomIndex.stale(pattern, before, roomsBudget)) {
+			IEntity entity = entities.get(name);
+			if (entity instanceof IChatRoom)
+				pending.put(name, infoCache.get(name, entity, executor));
+		}
+
+		for (Map.Entry<String, CompletableFuture<Map<String, String>>> entry : pending
+				.entrySet()) {
+			try {
+				roomIndex.update(entry.getKey(), entry.getValue().join());
+			} catch (CompletionException e) {
+				// getChatRooms evicts chat rooms that have died
+				roomIndex.failed(entry.getKey());
+			}
+		}
+
+		log.debug("chat_rooms.refresh", "pattern", pattern, "count", pending
+				.size());
+	}
+
+	/**
+	 * Returns whether or not this chat registry is a follower.
+	 * 
+	 * @return true if it follows a primary.
+	 */
+	public boolean isFollower() {
+		return primary != null;
+	}
+
+	/**
+	 * Starts tailing the primary's change stream.
+	 */
+	private void follow() {
+		// the follower serves nothing until it has first caught up
+		syncedAt = System.currentTimeMillis() - maxLag - 1;
+
+		follower = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "chatservice-replica");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		follower.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				sync();
+			}
+		}, 0, Long.getLong(REPLICA_INTERVAL_PROPERTY, 100),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Applies the primary's changes until the follower has caught up.
+	 */
+	private void sync() {
+		try {
+			ChangeBatch batch;
+			do {
+				batch = primary.getChanges(appliedSeq, CHANGE_BATCH);
+				apply(batch);
+			} while (batch.getLastSeq() < batch.getHeadSeq());
+
+			syncedAt = System.currentTimeMillis();
+
+		} catch (RemoteException e) {
+			log.warn("replica.sync.failed", "applied", appliedSeq, "error", e);
+		}
+	}
+
+	/**
+	 * Applies a batch of the primary's changes to the follower's directory.
+	 * 
+	 * @param batch
+	 *            the changes.
+	 */
+	private void apply(ChangeBatch batch) {
+		synchronized (namesById) {
+			if (batch.isSnapshot()) {
+				log.info("replica.snapshot", "applied", appliedSeq, "head",
+						batch.getHeadSeq());
+
+				// the snapshot replaces every registration, names stay
+				roomIndex.clear();
+				idsByName.clear();
+				for (Map.Entry<String, IEntity> entry : entities.entrySet()) {
+					if (entry.getValue() instanceof IChatRoom)
+						metrics.rooms.add(-1);
+					infoCache.invalidate(entry.getKey());
+				}
+				entities.clear();
+				metrics.snapshots.inc();
+			}
+
+			for (RegistryChange change : batch.getChanges()) {
+				String name = change.getName();
+				IEntity removed = null;
+
+				if (change.isRegistered()) {
+					removed = entities.put(name, change.getEntity());
+					Integer id = idsByName.put(name, change.getId());
+					if (id != null)
+						roomIndex.remove(name, id);
+					namesById.put(change.getId(), name);
+					if (change.getEntity() instanceof IChatRoom) {
+						roomIndex.add(name, change.getId());
+						metrics.rooms.inc();
+					}
+
+				} else {
+					// a deregistration only removes the registration it ended
+					namesById.put(change.getId(), name);
+					Integer id = idsByName.get(name);
+					if (id != null && id == change.getId()) {
+						idsByName.remove(name);
+						roomIndex.remove(name, id);
+						removed = entities.remove(name);
+					}
+				}
+
+				if (removed instanceof IChatRoom)
+					metrics.rooms.add(-1);
+				infoCache.invalidate(name);
+				if (!batch.isSnapshot())
+					metrics.appliedChanges.inc();
+			}
+
+			appliedSeq = batch.getLastSeq();
+			headSeq = batch.getHeadSeq();
+		}
+	}
+
+	/**
+	 * Refuses a follower's read if the follower is too far behind.
+	 * 
+	 * @throws ReplicaLagException
+	 *             the follower hasn't caught up within its lag bound.
+	 */
+	private void checkLag() throws ReplicaLagException {
+		if (!isFollower())
+			return;
+
+		long lag = System.currentTimeMillis() - syncedAt;
+		if (lag > maxLag) {
+			metrics.staleReads.inc();
+			throw new ReplicaLagException(lag);
+		}
 	}
 
 	/* IChatRegistry Interface Implementation */
 
 	@Override
-	public boolean register(IEntity entity) throws RemoteException {
-		String name = entity.getName();
+	public int register(IEntity entity) throws RemoteException {
+		// a follower is read-only
+		if (isFollower())
+			return primary.register(entity);
 
-		System.out.println("Attempting to register entity [" + name + "]");
+		String name = entity.getName();
 
-		if (entities.containsKey(name)) {
-			System.out.println("Entity [" + name + "] already exists");
+		log.debug("entity.register", "name", name);
 
+		// claim the name atomically, batched registrations run concurrently
+		IEntity existing;
+		while ((existing = entities.putIfAbsent(name, entity)) != null) {
 			try {
 				// check if this entity is still alive
-				entities.get(name).getName();
+				existing.getName();
 
-				System.out.println("Entity [" + name + "] is still alive");
+				log.info("entity.register.rejected", "name", name, "reason",
+						"name in use");
 
 				// yup, it's there
-				return false;
+				metrics.rejectedRegistrations.inc();
+				return 0;
 
 			} catch (RemoteException e) {
-				// the entity has died, release its resources
-				System.out.println("Entity [" + name
-						+ "] has died, releasing its resources");
+				// the entity has died, take over its name
+				if (!entities.replace(name, existing, entity))
+					continue;
+
+				log.warn("entity.dead", "name", name);
 
-				deregister(entity);
+				releaseId(name);
+				metrics.deregistrations.inc();
+				metrics.deadEntityEvictions.inc();
+				if (existing instanceof IChatRoom)
+					metrics.rooms.add(-1);
+				break;
 			}
 		}
 
-		System.out.println("Attempting to bind entity [" + name + "]");
-
+		int id = nextId.incrementAndGet();
 		try {
 			// bind the entity name to the remote entity object
 			Naming.rebind(name, entity);
 		} catch (MalformedURLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return false;
+			log.error("entity.bind.failed", "name", name, e);
+			entities.remove(name, entity);
+			return 0;
+		} catch (RemoteException e) {
+			entities.remove(name, entity);
+			throw e;
+		}
+
+		synchronized (namesById) {
+			namesById.put(id, name);
+			idsByName.put(name, id);
+			changes.append(true, name, id, entity);
+			if (entity instanceof IChatRoom)
+				roomIndex.add(name, id);
 		}
 
-		// keep track of the registry in the chat service
-		entities.put(name, entity);
+		infoCache.invalidate(name);
 
-		System.out.println("Entity successfully registered [" + name + "]");
+		metrics.registrations.inc();
+		if (entity instanceof IChatRoom)
+			metrics.rooms.inc();
 
-		return true;
+		log.info("entity.registered", "name", name, "id", id);
+
+		return id;
 	}
 
 	@Override
 	public boolean deregister(IEntity entity) throws RemoteException {
+		if (isFollower())
+			return primary.deregister(entity);
+
 		String name = null;
 		try {
 			name = entity.getName();
@@ -111,81 +488,380 @@ public class ChatRegistry extends UnicastRemoteObject implements IChatRegistry {
 
 		}
 
-		System.out.println("Attempting to deregister entity [" + name + "]");
+		log.debug("entity.deregister", "name", name);
 
 		if (name == null || !entities.containsKey(name)) {
-			System.out.println("There is no registered entity [" + name + "]");
+			log.info("entity.deregister.rejected", "name", name, "reason",
+					"not registered");
 			return false;
 		}
 
-		System.out.println("Attempting to unbind entity [" + name + "]");
-
 		try {
 			// unbind the entity name from the remote enity object
 			Naming.unbind(name);
 		} catch (MalformedURLException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error("entity.unbind.failed", "name", name, e);
 			return false;
 
 		} catch (NotBoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			log.error("entity.unbind.failed", "name", name, e);
 			return false;
 		}
 
-		// remove the registry from the chat service
-		entities.remove(name);
+		// remove the registry from the chat service, releasing its ID while
+		// it still holds the name
+		releaseId(name);
+		IEntity removed = entities.remove(name);
+		infoCache.invalidate(name);
 
-		System.out.println("Entity successfully deregistered [" + name + "]");
+		metrics.deregistrations.inc();
+		if (removed instanceof IChatRoom)
+			metrics.rooms.add(-1);
+
+		log.info("entity.deregistered", "name", name);
 
 		return true;
 	}
 
+	/**
+	 * Forgets the ID of an entity that is no longer registered. The ID keeps
+	 * resolving to the entity's name.
+	 * 
+	 * @param name
+	 *            the entity's name.
+	 */
+	private void releaseId(String name) {
+		synchronized (namesById) {
+			Integer id = idsByName.remove(name);
+			if (id != null) {
+				roomIndex.remove(name, id);
+				changes.append(false, name, id, null);
+			}
+		}
+	}
+
+	@Override
+	public int[] registerAll(List<IEntity> batch) throws RemoteException {
+		if (isFollower())
+			return primary.registerAll(batch);
+
+		long start = System.nanoTime();
+		try {
+			return applyAll(batch, true);
+		} finally {
+			metrics.registerAll.recordSince(start);
+		}
+	}
+
+	@Override
+	public boolean[] deregisterAll(List<IEntity> batch) throws RemoteException {
+		if (isFollower())
+			return primary.deregisterAll(batch);
+
+		long start = System.nanoTime();
+		try {
+			int[] results = applyAll(batch, false);
+			boolean[] deregistered = new boolean[results.length];
+			for (int i = 0; i < results.length; i++)
+				deregistered[i] = results[i] != 0;
+			return deregistered;
+		} finally {
+			metrics.deregisterAll.recordSince(start);
+		}
+	}
+
+	/**
+	 * Registers or deregisters a batch of entities in parallel on the
+	 * registry's threads.
+	 * 
+	 * @param batch
+	 *            the entities.
+	 * @param registering
+	 *            true to register the entities, false to deregister them.
+	 * @return each registered entity's ID (or 1 for each deregistered entity),
+	 *         0 for each entity that wasn't, in batch order.
+	 */
+	private int[] applyAll(List<IEntity> batch, final boolean registering) {
+		List<Future<Integer>> pending = new ArrayList<Future<Integer>>(
+				batch.size());
+		for (final IEntity entity : batch) {
+			pending.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws RemoteException {
+					if (registering)
+						return register(entity);
+					return deregister(entity) ? 1 : 0;
+				}
+			}));
+		}
+
+		int[] results = new int[batch.size()];
+		int succeeded = 0;
+		for (int i = 0; i < results.length; i++) {
+			try {
+				results[i] = pending.get(i).get();
+				if (results[i] != 0)
+					succeeded++;
+
+			} catch (ExecutionException e) {
+				// the entity has died, so it can't be (de)registered
+				log.warn("entity.batch.failed", "registering", registering,
+						"error", e.getCause());
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		log.info(registering ? "entity.register.batch"
+				: "entity.deregister.batch", "requested", batch.size(),
+				"succeeded", succeeded);
+
+		return results;
+	}
+
 	@Override
 	public Map<String, String> getInfo(String name) throws RemoteException {
-		System.out.println("Getting info for entity [" + name + "]");
+		checkLag();
 
-		if (!entities.containsKey(name))
-			return null;
+		long start = System.nanoTime();
+		try {
+			IEntity entity = entities.get(name);
+
+			log.debug("entity.info", "name", name, "found", entity != null);
+
+			if (entity == null)
+				return null;
 
-		System.out.println("Returning info for entity [" + name + "]");
+			Map<String, String> info = infoCache.get(name, entity, null).join();
+			if (entity instanceof IChatRoom)
+				roomIndex.update(name, info);
 
-		return entities.get(name).getInfo();
+			return info;
+
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RemoteException)
+				throw (RemoteException) e.getCause();
+			throw e;
+
+		} finally {
+			metrics.getInfo.recordSince(start);
+		}
+	}
+
+	@Override
+	public Map<String, Map<String, String>> getInfoAll(Collection<String> names)
+			throws RemoteException {
+		checkLag();
+
+		long start = System.nanoTime();
+
+		// start loading every entity's info before waiting for any
+		Map<String, CompletableFuture<Map<String, String>>> pending = new HashMap<String, CompletableFuture<Map<String, String>>>();
+		for (String name : names) {
+			IEntity entity = entities.get(name);
+			if (entity != null)
+				pending.put(name, infoCache.get(name, entity, executor));
+		}
+
+		Map<String, Map<String, String>> infos = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, CompletableFuture<Map<String, String>>> entry : pending
+				.entrySet()) {
+			try {
+				Map<String, String> info = entry.getValue().join();
+				if (entities.get(entry.getKey()) instanceof IChatRoom)
+					roomIndex.update(entry.getKey(), info);
+				infos.put(entry.getKey(), info);
+			} catch (CompletionException e) {
+				log.warn("entity.info.failed", "name", entry.getKey());
+			}
+		}
+
+		log.debug("entity.info.batch", "requested", names.size(), "found",
+				infos.size());
+
+		metrics.getInfoAll.recordSince(start);
+		return infos;
 	}
 
 	@Override
 	public Map<String, IChatRoom> getChatRooms() throws RemoteException {
-		Map<String, IChatRoom> chatRooms = new HashMap<String, IChatRoom>();
+		checkLag();
 
-		System.out.println("Building map of current chat rooms");
+		long start = System.nanoTime();
+		final Map<String, IChatRoom> chatRooms = new ConcurrentHashMap<String, IChatRoom>();
 
-		for (IEntity entity : entities.values()) {
+		// probe every chat room's liveness concurrently
+		BroadcastScope probes = new BroadcastScope(ChatExecutors.fanOut());
+		for (final IEntity entity : entities.values()) {
 			if (!(entity instanceof IChatRoom))
 				continue;
 
+			probes.fork(new Runnable() {
+				@Override
+				public void run() {
+					probe(entity, chatRooms);
+				}
+			});
+		}
+		probes.join();
+
+		if (log.isEnabled(Level.DEBUG))
+			log.debug("chat_rooms.list", "count", chatRooms.size());
+
+		metrics.getChatRooms.recordSince(start);
+		return chatRooms;
+	}
+
+	@Override
+	public RoomPage findChatRooms(String pattern, RoomOrder order,
+			String cursor, int limit) throws RemoteException {
+		checkLag();
+
+		long start = System.nanoTime();
+		try {
+			// only the chat rooms a ranked page reaches are refreshed
+			if (order != null && order != RoomOrder.NAME)
+				refreshRooms(pattern);
+
+			RoomPage page = roomIndex.find(pattern, order, cursor,
+					Math.min(limit, MAX_ROOM_PAGE));
+
+			log.debug("chat_rooms.find", "pattern", pattern, "count", page
+					.getRooms().size());
+
+			return page;
+
+		} finally {
+			metrics.findChatRooms.recordSince(start);
+		}
+	}
+
+	/**
+	 * Adds a live chat room to a map of chat rooms, deregistering it if it
+	 * has died.
+	 * 
+	 * @param entity
+	 *            the chat room.
+	 * @param chatRooms
+	 *            receives the chat room if it is alive.
+	 */
+	private void probe(IEntity entity, Map<String, IChatRoom> chatRooms) {
+		try {
+			chatRooms.put(entity.getName(), (IChatRoom) entity);
+		} catch (RemoteException e) {
+			log.warn("entity.dead", "entity", entity);
+
 			try {
-				chatRooms.put(entity.getName(), (IChatRoom) entity);
-			} catch (RemoteException e) {
-				System.out
-						.println("Deregistering a chat room that died unexpectedly");
+				if (deregister(entity))
+					metrics.deadEntityEvictions.inc();
+			} catch (RemoteException ignored) {
+				// deregister only fails remotely through getName, which has
+				// already failed
+			}
+		}
+	}
+
+	@Override
+	public IChatClient lookupChatClient(String name) throws RemoteException {
+		checkLag();
+
+		long start = System.nanoTime();
+		try {
+			IEntity entity = entities.get(name);
+
+			log.debug("chat_client.lookup", "name", name, "found",
+					entity instanceof IChatClient);
+
+			if (!(entity instanceof IChatClient))
+				return null;
+
+			return (IChatClient) entity;
 
-				deregister(entity);
+		} finally {
+			metrics.lookupChatClient.recordSince(start);
+		}
+	}
+
+	@Override
+	public String lookupName(int id) throws RemoteException {
+		checkLag();
+
+		long start = System.nanoTime();
+		try {
+			String name;
+			synchronized (namesById) {
+				name = namesById.get(id);
 			}
+
+			log.debug("entity.lookup_name", "id", id, "found", name != null);
+
+			return name;
+
+		} finally {
+			metrics.lookupName.recordSince(start);
 		}
+	}
 
-		System.out.println("Returning list of current chat rooms:");
-		System.out.println(chatRooms.toString());
+	@Override
+	public ChangeBatch getChanges(long afterSeq, int max)
+			throws RemoteException {
+		// followers of a follower tail the primary
+		if (isFollower())
+			return primary.getChanges(afterSeq, max);
 
-		return chatRooms;
+		long start = System.nanoTime();
+		try {
+			synchronized (namesById) {
+				long head = changes.getHead();
+				List<RegistryChange> since = changes.since(afterSeq, max);
+				if (since != null)
+					return new ChangeBatch(false, since, afterSeq
+							+ since.size(), head);
+
+				// the follower is further behind than the log reaches, send
+				// it the whole directory
+				List<RegistryChange> snapshot = new ArrayList<RegistryChange>(
+						idsByName.size());
+				for (Map.Entry<String, Integer> entry : idsByName.entrySet()) {
+					IEntity entity = entities.get(entry.getKey());
+					if (entity != null)
+						snapshot.add(new RegistryChange(head, true, entry
+								.getKey(), entry.getValue(), entity));
+				}
+
+				log.info("registry.snapshot", "after", afterSeq, "entities",
+						snapshot.size());
+
+				return new ChangeBatch(true, snapshot, head, head);
+			}
+
+		} finally {
+			metrics.getChanges.recordSince(start);
+		}
 	}
 
 	public static void main(String[] args) {
+		MetricsHttpServer.startFromSystemProperties();
+
 		try {
-			new ChatRegistry();
+			if (args.length == 0) {
+				new ChatRegistry();
+				return;
+			}
+
+			// follow the primary chat registry on the given host
+			Registry registry = LocateRegistry.getRegistry(args[0]);
+			new ChatRegistry((IChatRegistry) registry
+					.lookup(CHAT_REGISTRY_URL));
+
 		} catch (RemoteException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} catch (NotBoundException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 	}
 
@@ -0,0 +1,379 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+import edu.courses.middleware.chatservice.concurrent.ChatExecutors;
+import edu.courses.middleware.chatservice.entities.DeliveryFilter;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.TalkResult;
+import edu.courses.middleware.chatservice.search.SearchHit;
+import edu.courses.middleware.chatservice.ui.ChatMessage;
+import edu.courses.middleware.chatservice.ui.ChatMessageListener;
+
+/**
+ * A HeadlessChatProvider is a programmatic front end to a ChatProvider that
+ * has no command line interface. Every operation is carried out on a worker
+ * thread and returns a CompletableFuture immediately, so services and tests
+ * can drive many chat clients concurrently from a single process. Delivered
+ * messages are received by subscribing a ChatMessageListener.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class HeadlessChatProvider {
+	/** The message queue capacity of a default subscription. */
+	public static final int DEFAULT_SUBSCRIPTION_CAPACITY = 1024;
+
+	/** The underlying chat provider. */
+	private ChatProvider provider;
+
+	/** Runs the provider's remote calls and subscribers. */
+	private ExecutorService executor;
+
+	public HeadlessChatProvider(IChatRegistry chatRegistry) {
+		provider = new ChatProvider(chatRegistry);
+
+		executor = ChatExecutors.newExecutor("chatservice-provider", 0);
+	}
+
+	/**
+	 * Creates a headless provider connected to the ChatRegistry running on the
+	 * given host.
+	 * 
+	 * @param host
+	 *            the hostname of the machine running the ChatRegistry.
+	 * @return a new headless provider.
+	 * @throws RemoteException
+	 * @throws NotBoundException
+	 */
+	public static HeadlessChatProvider connect(String host)
+			throws RemoteException, NotBoundException {
+		Registry registry = LocateRegistry.getRegistry(host);
+
+		return new HeadlessChatProvider((IChatRegistry) registry
+				.lookup(ChatRegistry.CHAT_REGISTRY_URL));
+	}
+
+	/**
+	 * Creates a headless provider that reads from the follower ChatRegistry
+	 * running on one host and writes to the ChatRegistry running on another.
+	 * 
+	 * @param host
+	 *            the hostname of the machine running the ChatRegistry.
+	 * @param replicaHost
+	 *            the hostname of the machine running the follower.
+	 * @return a new headless provider.
+	 * @throws RemoteException
+	 * @throws NotBoundException
+	 */
+	public static HeadlessChatProvider connect(String host, String replicaHost)
+			throws RemoteException, NotBoundException {
+		IChatRegistry primary = (IChatRegistry) LocateRegistry.getRegistry(
+				host).lookup(ChatRegistry.CHAT_REGISTRY_URL);
+		IChatRegistry follower = (IChatRegistry) LocateRegistry.getRegistry(
+				replicaHost).lookup(ChatRegistry.REPLICA_URL);
+
+		return new HeadlessChatProvider(new RegistryRouter(primary, follower));
+	}
+
+	/**
+	 * Returns the underlying chat provider.
+	 * 
+	 * @return the chat provider.
+	 */
+	public ChatProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Registers the provider's chat client.
+	 * 
+	 * @param name
+	 *            the desired screen name.
+	 * @return completes with true if the screen name was available.
+	 */
+	public CompletableFuture<Boolean> register(final String name) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.registerChatClient(name);
+			}
+		});
+	}
+
+	/**
+	 * Creates, registers and joins a chat room hosted by this provider.
+	 * 
+	 * @param name
+	 *            the desired chat room name.
+	 * @return completes with true if the chat room was registered.
+	 */
+	public CompletableFuture<Boolean> registerChatRoom(final String name) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.registerChatRoom(name);
+			}
+		});
+	}
+
+	/**
+	 * Closes and deregisters a chat room hosted by this provider.
+	 * 
+	 * @param name
+	 *            the chat room's name.
+	 * @return completes with true if the chat room was deregistered.
+	 */
+	public CompletableFuture<Boolean> deregisterChatRoom(final String name) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.deregisterChatRoom(name);
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the chat service's registered chat rooms.
+	 * 
+	 * @return completes with the registered chat rooms.
+	 */
+	public CompletableFuture<Map<String, IChatRoom>> getChatRooms() {
+		return submit(new Supplier<Map<String, IChatRoom>>() {
+			@Override
+			public Map<String, IChatRoom> get() {
+				return provider.getChatRooms();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves a page of the registered chat rooms matching a name prefix or
+	 * glob pattern.
+	 * 
+	 * @param pattern
+	 *            a name prefix or glob pattern (null or empty matches every
+	 *            chat room).
+	 * @param order
+	 *            the order of the chat rooms.
+	 * @param cursor
+	 *            the previous page's cursor or null for the first page.
+	 * @param limit
+	 *            the most chat rooms on the page.
+	 * @return completes with the page or null if the registry couldn't be
+	 *         reached.
+	 */
+	public CompletableFuture<RoomPage> findChatRooms(final String pattern,
+			final RoomOrder order, final String cursor, final int limit) {
+		return submit(new Supplier<RoomPage>() {
+			@Override
+			public RoomPage get() {
+				return provider.findChatRooms(pattern, order, cursor, limit);
+			}
+		});
+	}
+
+	/**
+	 * Joins a chat room.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @return completes with true if the chat room was joined.
+	 */
+	public CompletableFuture<Boolean> join(final String room) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.joinChatRoom(room);
+			}
+		});
+	}
+
+	/**
+	 * Searches a joined chat room's message history.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @param query
+	 *            the words to find; a word of the form from:name matches the
+	 *            messages sent by name.
+	 * @param limit
+	 *            the largest number of messages to return.
+	 * @return completes with the matching messages, most recent first, or
+	 *         null if the chat room couldn't be searched.
+	 */
+	public CompletableFuture<List<SearchHit>> search(final String room,
+			final String query, final int limit) {
+		return submit(new Supplier<List<SearchHit>>() {
+			@Override
+			public List<SearchHit> get() {
+				return provider.searchChatRoom(room, query, limit);
+			}
+		});
+	}
+
+	/**
+	 * Sends a message directly to another chat client, without a chat room.
+	 * 
+	 * @param name
+	 *            the recipient's screen name.
+	 * @param message
+	 *            the message.
+	 * @return completes with true if the message was delivered.
+	 */
+	public CompletableFuture<Boolean> sendDirect(final String name,
+			final String message) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.sendDirectMessage(name, message);
+			}
+		});
+	}
+
+	/**
+	 * Joins a chat room, receiving only the messages accepted by a filter.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @param filter
+	 *            selects the messages delivered to this provider.
+	 * @return completes with true if the chat room was joined.
+	 */
+	public CompletableFuture<Boolean> join(final String room,
+			final DeliveryFilter filter) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.joinChatRoom(room, filter);
+			}
+		});
+	}
+
+	/**
+	 * Replaces the filter selecting which of a joined chat room's messages
+	 * are delivered.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @param filter
+	 *            selects the messages delivered to this provider.
+	 * @return completes with true if the filter was replaced.
+	 */
+	public CompletableFuture<Boolean> filter(final String room,
+			final DeliveryFilter filter) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.filterChatRoom(room, filter);
+			}
+		});
+	}
+
+	/**
+	 * Sends a message to a joined chat room.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @param message
+	 *            the message.
+	 * @return completes with DELIVERED if the message was sent, otherwise the
+	 *         reason it wasn't.
+	 */
+	public CompletableFuture<TalkResult> talk(final String room,
+			final String message) {
+		return submit(new Supplier<TalkResult>() {
+			@Override
+			public TalkResult get() {
+				return provider.talkChatRoom(room, message);
+			}
+		});
+	}
+
+	/**
+	 * Leaves a joined chat room.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @return completes with true if the chat room was left.
+	 */
+	public CompletableFuture<Boolean> leave(final String room) {
+		return submit(new Supplier<Boolean>() {
+			@Override
+			public Boolean get() {
+				return provider.leaveChatRoom(room);
+			}
+		});
+	}
+
+	/**
+	 * Subscribes to the chat messages delivered to this provider.
+	 * 
+	 * @param subscriber
+	 *            receives delivered messages in order on a worker thread.
+	 * @return the subscription.
+	 */
+	public MessageSubscription subscribe(ChatMessageListener subscriber) {
+		return subscribe(subscriber, DEFAULT_SUBSCRIPTION_CAPACITY);
+	}
+
+	/**
+	 * Subscribes to the chat messages delivered to this provider.
+	 * 
+	 * @param subscriber
+	 *            receives delivered messages in order on a worker thread.
+	 * @param capacity
+	 *            the number of messages queued for a slow subscriber before
+	 *            messages are dropped.
+	 * @return the subscription.
+	 */
+	public MessageSubscription subscribe(ChatMessageListener subscriber,
+			int capacity) {
+		return new MessageSubscription(provider, subscriber, executor,
+				capacity);
+	}
+
+	/**
+	 * Publishes a joined chat room's messages with backpressure: the chat room
+	 * sends only what the subscriber requests and sheds the rest.
+	 * 
+	 * @param room
+	 *            the chat room's name.
+	 * @return the publisher or null if the chat room hasn't been joined.
+	 */
+	public Flow.Publisher<ChatMessage> messages(String room) {
+		return provider.getPublisher(room, executor);
+	}
+
+	/**
+	 * Leaves all joined chat rooms, closes all hosted chat rooms, deregisters
+	 * the chat client and stops the provider's worker threads.
+	 * 
+	 * @return completes with a report of the steps that completed.
+	 */
+	public CompletableFuture<ShutdownReport> close() {
+		CompletableFuture<ShutdownReport> closed = submit(new Supplier<ShutdownReport>() {
+			@Override
+			public ShutdownReport get() {
+				return provider.shutdown();
+			}
+		});
+		executor.shutdown();
+
+		return closed;
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+		return CompletableFuture.supplyAsync(operation, executor);
+	}
+
+}
@@ -2,9 +2,11 @@ package edu.courses.middleware.chatservice;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import edu.courses.middleware.chatservice.entities.IChatClient;
 import edu.courses.middleware.chatservice.entities.IChatRoom;
 import edu.courses.middleware.chatservice.entities.IEntity;
 
@@ -21,10 +23,11 @@ public interface IChatRegistry extends Remote {
 	 * 
 	 * @param entity
 	 *            an entity to be registered.
-	 * @return true if the entity was successfully registered.
+	 * @return the numeric ID assigned the entity, or 0 if it wasn't
+	 *         registered because its name is in use.
 	 * @throws RemoteException
 	 */
-	public boolean register(IEntity entity) throws RemoteException;
+	public int register(IEntity entity) throws RemoteException;
 
 	/**
 	 * Called to request the provided entity be deregistered from the chat
@@ -37,6 +40,31 @@ public interface IChatRegistry extends Remote {
 	 */
 	public boolean deregister(IEntity entity) throws RemoteException;
 
+	/**
+	 * Registers a number of entities in the chat service in a single call.
+	 * The entities are registered in parallel.
+	 * 
+	 * @param entities
+	 *            the entities to be registered.
+	 * @return the ID assigned each entity, or 0 for each entity that wasn't
+	 *         registered, in the order of entities.
+	 * @throws RemoteException
+	 */
+	public int[] registerAll(List<IEntity> entities) throws RemoteException;
+
+	/**
+	 * Deregisters a number of entities from the chat service in a single
+	 * call. The entities are deregistered in parallel.
+	 * 
+	 * @param entities
+	 *            the entities to be deregistered.
+	 * @return whether each entity was successfully deregistered, in the order
+	 *         of entities.
+	 * @throws RemoteException
+	 */
+	public boolean[] deregisterAll(List<IEntity> entities)
+			throws RemoteException;
+
 	/**
 	 * Returns the information stored about the specified entity.
 	 * 
@@ -47,6 +75,19 @@ public interface IChatRegistry extends Remote {
 	 */
 	public Map<String, String> getInfo(String name) throws RemoteException;
 
+	/**
+	 * Returns the information stored about a number of entities. The
+	 * entities are queried in parallel.
+	 * 
+	 * @param names
+	 *            the names of registered entities.
+	 * @return maps each registered, reachable entity's name to its
+	 *         information.
+	 * @throws RemoteException
+	 */
+	public Map<String, Map<String, String>> getInfoAll(Collection<String> names)
+			throws RemoteException;
+
 	/**
 	 * Returns the currently registered chat rooms.
 	 * 
@@ -55,4 +96,62 @@ public interface IChatRegistry extends Remote {
 	 */
 	public Map<String, IChatRoom> getChatRooms() throws RemoteException;
 
+	/**
+	 * Returns a page of the registered chat rooms whose names match a prefix
+	 * or glob pattern (* and ?), described without their remote stubs.
+	 * 
+	 * @param pattern
+	 *            a name prefix or glob pattern (null or empty matches every
+	 *            chat room).
+	 * @param order
+	 *            the order of the chat rooms.
+	 * @param cursor
+	 *            the previous page's cursor or null for the first page.
+	 * @param limit
+	 *            the most chat rooms on the page.
+	 * @return the page.
+	 * @throws RemoteException
+	 */
+	public RoomPage findChatRooms(String pattern, RoomOrder order,
+			String cursor, int limit) throws RemoteException;
+
+	/**
+	 * Returns a registered chat client so that messages may be delivered to
+	 * it directly.
+	 * 
+	 * @param name
+	 *            the chat client's screen name.
+	 * @return the chat client or null if no chat client has that name.
+	 * @throws RemoteException
+	 */
+	public IChatClient lookupChatClient(String name) throws RemoteException;
+
+	/**
+	 * Returns the name of the entity holding a numeric ID, so that a receiver
+	 * can resolve the IDs carried by chat envelopes. IDs are never reused, so
+	 * an entity's ID keeps its name after the entity deregisters.
+	 * 
+	 * @param id
+	 *            an entity ID.
+	 * @return the entity's name or null if no entity was given that ID.
+	 * @throws RemoteException
+	 */
+	public String lookupName(int id) throws RemoteException;
+
+	/**
+	 * Returns the registrations and deregistrations made after a position in
+	 * the registry's change stream, so that a follower registry can keep a
+	 * copy of the directory. A follower that has fallen too far behind is
+	 * sent a snapshot of the whole directory instead.
+	 * 
+	 * @param afterSeq
+	 *            the position of the last change already applied (0 if none).
+	 * @param max
+	 *            the most changes returned.
+	 * @return the changes.
+	 * @throws RemoteException
+	 */
+	public ChangeBatch getChanges(long afterSeq, int max)
+			throws RemoteException;
+
 }
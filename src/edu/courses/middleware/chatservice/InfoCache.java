@@ -0,0 +1,127 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import edu.courses.middleware.chatservice.entities.IEntity;
+import edu.courses.middleware.chatservice.metrics.ChatRegistryMetrics;
+
+/**
+ * An InfoCache holds the ChatRegistry's copies of registered entities' info
+ * maps, so that repeated getInfo calls don't each cost a round trip to the
+ * entity. Entries expire after chatservice.info.ttl milliseconds (1000 by
+ * default) and are invalidated whenever their name is registered or
+ * deregistered. Concurrent requests for an entry that is being loaded share
+ * the single load.
+ *
+ * @author Jonas Michel
+ *
+ */
+class InfoCache {
+	/** The system property holding the time to live in milliseconds. */
+	public static final String TTL_PROPERTY = "chatservice.info.ttl";
+
+	/** A cached (or loading) info map. */
+	private static class Entry {
+		/** The entity the info was loaded from. */
+		final IEntity entity;
+
+		/** Completes with the entity's info map. */
+		final CompletableFuture<Map<String, String>> info;
+
+		/** The time the entry expires. */
+		final long expires;
+
+		Entry(IEntity entity, long expires) {
+			this.entity = entity;
+			this.info = new CompletableFuture<Map<String, String>>();
+			this.expires = expires;
+		}
+	}
+
+	/** The entries' time to live. */
+	private long ttlNanos;
+
+	/** Maps entity names to entries. */
+	private ConcurrentMap<String, Entry> entries;
+
+	/** Counts cache hits and misses. */
+	private ChatRegistryMetrics metrics;
+
+	InfoCache(ChatRegistryMetrics metrics) {
+		this.metrics = metrics;
+		ttlNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(TTL_PROPERTY,
+				1000));
+		entries = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Returns an entity's info map, loading it if it isn't cached.
+	 *
+	 * @param name
+	 *            the entity's name.
+	 * @param entity
+	 *            the registered entity.
+	 * @param executor
+	 *            loads the info map or null to load it on the calling thread.
+	 * @return completes with the entity's info map or a RemoteException.
+	 */
+	CompletableFuture<Map<String, String>> get(String name,
+			final IEntity entity, Executor executor) {
+		long now = System.nanoTime();
+
+		while (true) {
+			Entry entry = entries.get(name);
+			if (entry != null && entry.entity.equals(entity)
+					&& (!entry.info.isDone() || now - entry.expires < 0)) {
+				metrics.infoCacheHits.inc();
+				return entry.info;
+			}
+
+			final Entry fresh = new Entry(entity, now + ttlNanos);
+			boolean installed = entry == null ? entries.putIfAbsent(name,
+					fresh) == null : entries.replace(name, entry, fresh);
+			if (!installed)
+				continue;
+
+			metrics.infoCacheMisses.inc();
+
+			final String key = name;
+			Runnable load = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fresh.info.complete(entity.getInfo());
+					} catch (RemoteException e) {
+						// don't cache failures
+						entries.remove(key, fresh);
+						fresh.info.completeExceptionally(e);
+					}
+				}
+			};
+
+			if (executor == null)
+				load.run();
+			else
+				executor.execute(load);
+
+			return fresh.info;
+		}
+	}
+
+	/**
+	 * Discards the cached info of an entity.
+	 *
+	 * @param name
+	 *            the entity's name.
+	 */
+	void invalidate(String name) {
+		entries.remove(name);
+	}
+
+}
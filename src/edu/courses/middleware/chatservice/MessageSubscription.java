@@ -0,0 +1,121 @@
+package edu.courses.middleware.chatservice;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.ui.ChatMessage;
+import edu.courses.middleware.chatservice.ui.ChatMessageListener;
+
+/**
+ * A MessageSubscription forwards the chat messages delivered to a headless
+ * ChatProvider to a subscriber. Messages are queued as they arrive and passed
+ * to the subscriber in order on an executor thread, so a slow subscriber
+ * never holds up the RMI callback that delivered the message. When the queue
+ * is full new messages are dropped and counted.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class MessageSubscription implements ChatMessageListener {
+	/** The provider whose messages are forwarded. */
+	private ChatProvider provider;
+
+	/** The subscriber. */
+	private ChatMessageListener subscriber;
+
+	/** Runs the subscriber. */
+	private Executor executor;
+
+	/** Holds messages waiting to be passed to the subscriber. */
+	private BlockingQueue<ChatMessage> queue;
+
+	/** Whether or not a drain task is scheduled or running. */
+	private AtomicBoolean draining;
+
+	/** The number of messages dropped because the queue was full. */
+	private AtomicLong dropped;
+
+	/** Whether or not the subscription has been cancelled. */
+	private volatile boolean cancelled;
+
+	/** Passes queued messages to the subscriber. */
+	private Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			ChatMessage message;
+			while (!cancelled && (message = queue.poll()) != null) {
+				try {
+					subscriber.deliver(message);
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+
+			draining.set(false);
+
+			// a message may have arrived after the queue was found empty
+			if (!cancelled && !queue.isEmpty())
+				schedule();
+		}
+	};
+
+	MessageSubscription(ChatProvider provider, ChatMessageListener subscriber,
+			Executor executor, int capacity) {
+		this.provider = provider;
+		this.subscriber = subscriber;
+		this.executor = executor;
+
+		queue = new ArrayBlockingQueue<ChatMessage>(capacity);
+		draining = new AtomicBoolean();
+		dropped = new AtomicLong();
+
+		provider.addMessageListener(this);
+	}
+
+	@Override
+	public void deliver(ChatMessage message) {
+		if (cancelled)
+			return;
+
+		if (!queue.offer(message))
+			dropped.incrementAndGet();
+
+		schedule();
+	}
+
+	private void schedule() {
+		if (!draining.compareAndSet(false, true))
+			return;
+
+		try {
+			executor.execute(drain);
+		} catch (RejectedExecutionException e) {
+			// the provider has been closed
+			cancel();
+		}
+	}
+
+	/**
+	 * Returns the number of messages dropped because the subscriber fell
+	 * behind.
+	 * 
+	 * @return the number of dropped messages.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Stops forwarding messages to the subscriber.
+	 */
+	public void cancel() {
+		cancelled = true;
+		provider.removeMessageListener(this);
+		queue.clear();
+	}
+
+}
@@ -0,0 +1,78 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.RemoteException;
+
+import edu.courses.middleware.chatservice.util.ConcurrentIntObjectMap;
+
+/**
+ * A NameTable resolves the entity IDs carried by chat envelopes to names. A
+ * chat room sends a name alongside its ID the first time it sends the ID to a
+ * participant, and the table remembers it, since an ID always names the same
+ * entity. IDs the table still hasn't seen, e.g. after the client reconnected,
+ * are looked up in the ChatRegistry once.
+ *
+ * Lookups take no lock. While the ChatRegistry is unreachable, unknown IDs
+ * resolve to "#id" without asking it again for a while.
+ *
+ * @author Jonas Michel
+ *
+ */
+class NameTable {
+	/** How long the ChatRegistry isn't asked again after it was unreachable. */
+	private static final long UNREACHABLE_MILLIS = 5000;
+
+	/** Resolves IDs the table hasn't seen. */
+	private IChatRegistry chatRegistry;
+
+	/** The known names by ID. */
+	private ConcurrentIntObjectMap<String> names;
+
+	/** When the ChatRegistry may be asked again. */
+	private volatile long retryAt;
+
+	NameTable(IChatRegistry chatRegistry) {
+		this.chatRegistry = chatRegistry;
+		names = new ConcurrentIntObjectMap<String>();
+	}
+
+	/**
+	 * Resolves an entity ID to a name.
+	 *
+	 * @param id
+	 *            the entity's ID or 0 if it has none.
+	 * @param fallback
+	 *            the name carried alongside the ID, if any.
+	 * @return the entity's name, or "#id" if the ID can't be resolved.
+	 */
+	String resolve(int id, String fallback) {
+		if (id == 0)
+			return fallback;
+
+		String name = names.get(id);
+		if (fallback != null) {
+			if (!fallback.equals(name))
+				names.put(id, fallback);
+			return fallback;
+		}
+		if (name != null)
+			return name;
+
+		if (System.currentTimeMillis() < retryAt)
+			return "#" + id;
+
+		try {
+			name = chatRegistry.lookupName(id);
+		} catch (RemoteException e) {
+			retryAt = System.currentTimeMillis() + UNREACHABLE_MILLIS;
+			return "#" + id;
+		}
+
+		// IDs aren't reused, so an unknown ID stays unknown
+		if (name == null)
+			name = "#" + id;
+		names.put(id, name);
+
+		return name;
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.courses.middleware.chatservice;
+
+import java.io.Serializable;
+
+import edu.courses.middleware.chatservice.entities.IEntity;
+
+/**
+ * A RegistryChange records a single registration or deregistration in the
+ * ChatRegistry's change stream, which follower registries tail to keep their
+ * copy of the directory.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class RegistryChange implements Serializable {
+	private static final long serialVersionUID = 3466912735146185822L;
+
+	/** The change's position in the change stream, starting at 1. */
+	private long seq;
+
+	/** Whether the entity was registered or deregistered. */
+	private boolean registered;
+
+	/** The entity's name. */
+	private String name;
+
+	/** The entity's ID. */
+	private int id;
+
+	/** The registered entity or null if it was deregistered. */
+	private IEntity entity;
+
+	public RegistryChange(long seq, boolean registered, String name, int id,
+			IEntity entity) {
+		this.seq = seq;
+		this.registered = registered;
+		this.name = name;
+		this.id = id;
+		this.entity = entity;
+	}
+
+	public long getSeq() {
+		return seq;
+	}
+
+	public boolean isRegistered() {
+		return registered;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public IEntity getEntity() {
+		return entity;
+	}
+
+	@Override
+	public String toString() {
+		return "RegistryChange [seq=" + seq + ", registered=" + registered
+				+ ", name=" + name + ", id=" + id + "]";
+	}
+
+}
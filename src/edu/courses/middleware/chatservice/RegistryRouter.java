@@ -0,0 +1,174 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.RemoteException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.IEntity;
+
+/**
+ * A RegistryRouter is a local IChatRegistry that sends a provider's directory
+ * reads to a nearby follower ChatRegistry and its writes to the primary.
+ *
+ * A read the follower fails, e.g. because it has fallen too far behind, is
+ * retried on the primary, and reads stay on the primary for a while before
+ * the follower is tried again. A lookup the follower misses is confirmed with
+ * the primary, since the entity may have registered since the follower last
+ * caught up.
+ *
+ * @author Jonas Michel
+ *
+ */
+class RegistryRouter implements IChatRegistry {
+	/** How long reads stay on the primary after the follower failed. */
+	private static final long FALLBACK_MILLIS = 5000;
+
+	/** The primary chat registry. */
+	private IChatRegistry primary;
+
+	/** The follower chat registry. */
+	private IChatRegistry follower;
+
+	/** When reads may go to the follower again. */
+	private volatile long followerRetryAt;
+
+	/**
+	 * A Read is a directory read that may be served by either registry.
+	 */
+	private interface Read<V> {
+		V read(IChatRegistry registry) throws RemoteException;
+	}
+
+	RegistryRouter(IChatRegistry primary, IChatRegistry follower) {
+		this.primary = primary;
+		this.follower = follower;
+	}
+
+	/**
+	 * Reads from the follower, falling back on the primary.
+	 */
+	private <V> V read(Read<V> read) throws RemoteException {
+		return read(read, false);
+	}
+
+	/**
+	 * Reads from the follower, falling back on the primary, and also asking
+	 * the primary if the follower found nothing and confirmMiss is set.
+	 */
+	private <V> V read(Read<V> read, boolean confirmMiss)
+			throws RemoteException {
+		if (System.currentTimeMillis() >= followerRetryAt) {
+			try {
+				V value = read.read(follower);
+				if (value != null || !confirmMiss)
+					return value;
+			} catch (RemoteException e) {
+				followerRetryAt = System.currentTimeMillis() + FALLBACK_MILLIS;
+			}
+		}
+
+		return read.read(primary);
+	}
+
+	/* IChatRegistry Interface Implementation */
+
+	@Override
+	public int register(IEntity entity) throws RemoteException {
+		return primary.register(entity);
+	}
+
+	@Override
+	public boolean deregister(IEntity entity) throws RemoteException {
+		return primary.deregister(entity);
+	}
+
+	@Override
+	public int[] registerAll(List<IEntity> entities) throws RemoteException {
+		return primary.registerAll(entities);
+	}
+
+	@Override
+	public boolean[] deregisterAll(List<IEntity> entities)
+			throws RemoteException {
+		return primary.deregisterAll(entities);
+	}
+
+	@Override
+	public Map<String, String> getInfo(final String name)
+			throws RemoteException {
+		return read(new Read<Map<String, String>>() {
+			@Override
+			public Map<String, String> read(IChatRegistry registry)
+					throws RemoteException {
+				return registry.getInfo(name);
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Map<String, String>> getInfoAll(
+			final Collection<String> names) throws RemoteException {
+		return read(new Read<Map<String, Map<String, String>>>() {
+			@Override
+			public Map<String, Map<String, String>> read(IChatRegistry registry)
+					throws RemoteException {
+				return registry.getInfoAll(names);
+			}
+		});
+	}
+
+	@Override
+	public Map<String, IChatRoom> getChatRooms() throws RemoteException {
+		return read(new Read<Map<String, IChatRoom>>() {
+			@Override
+			public Map<String, IChatRoom> read(IChatRegistry registry)
+					throws RemoteException {
+				return registry.getChatRooms();
+			}
+		});
+	}
+
+	@Override
+	public RoomPage findChatRooms(final String pattern, final RoomOrder order,
+			final String cursor, final int limit) throws RemoteException {
+		return read(new Read<RoomPage>() {
+			@Override
+			public RoomPage read(IChatRegistry registry)
+					throws RemoteException {
+				return registry.findChatRooms(pattern, order, cursor, limit);
+			}
+		});
+	}
+
+	@Override
+	public IChatClient lookupChatClient(final String name)
+			throws RemoteException {
+		return read(new Read<IChatClient>() {
+			@Override
+			public IChatClient read(IChatRegistry registry)
+					throws RemoteException {
+				return registry.lookupChatClient(name);
+			}
+		}, true);
+	}
+
+	@Override
+	public String lookupName(final int id) throws RemoteException {
+		return read(new Read<String>() {
+			@Override
+			public String read(IChatRegistry registry) throws RemoteException {
+				return registry.lookupName(id);
+			}
+		}, true);
+	}
+
+	@Override
+	public ChangeBatch getChanges(long afterSeq, int max)
+			throws RemoteException {
+		return primary.getChanges(afterSeq, max);
+	}
+
+}
@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.RemoteException;
+
+/**
+ * A ReplicaLagException is thrown by a follower registry asked to serve a read
+ * while it is further behind the primary than its lag bound allows. The read
+ * should be sent to the primary instead.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ReplicaLagException extends RemoteException {
+	private static final long serialVersionUID = 5193046129847734218L;
+
+	public ReplicaLagException(long lagMillis) {
+		super("Follower registry is " + lagMillis + "ms behind the primary");
+	}
+
+}
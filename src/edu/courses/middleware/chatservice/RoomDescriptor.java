@@ -0,0 +1,67 @@
+package edu.courses.middleware.chatservice;
+
+import java.io.Serializable;
+
+/**
+ * A RoomDescriptor describes a registered chat room without its remote stub,
+ * so that listing chat rooms doesn't ship a stub per chat room. The chat
+ * room's statistics are as of when the ChatRegistry last refreshed them.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class RoomDescriptor implements Serializable {
+	private static final long serialVersionUID = -6160381385113826471L;
+
+	/** The chat room's name. */
+	private String name;
+
+	/** The chat room's ID. */
+	private int id;
+
+	/** The chat room's number of participants. */
+	private int participants;
+
+	/** The number of messages sent in the chat room. */
+	private int messages;
+
+	/** When the statistics were taken (0 if they never were). */
+	private long updated;
+
+	public RoomDescriptor(String name, int id, int participants, int messages,
+			long updated) {
+		this.name = name;
+		this.id = id;
+		this.participants = participants;
+		this.messages = messages;
+		this.updated = updated;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getParticipants() {
+		return participants;
+	}
+
+	public int getMessages() {
+		return messages;
+	}
+
+	public long getUpdated() {
+		return updated;
+	}
+
+	@Override
+	public String toString() {
+		return "RoomDescriptor [name=" + name + ", id=" + id
+				+ ", participants=" + participants + ", messages=" + messages
+				+ "]";
+	}
+
+}
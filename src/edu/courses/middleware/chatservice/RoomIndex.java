@@ -0,0 +1,388 @@
+package edu.courses.middleware.chatservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A RoomIndex keeps the ChatRegistry's chat rooms sorted by name, so that
+ * they can be listed a page at a time and searched by prefix or glob pattern
+ * without visiting every chat room.
+ *
+ * A pattern without wildcards matches the names that start with it. A pattern
+ * with wildcards (* matches any run of characters, ? any single character)
+ * must match the whole name, and only the names starting with the part before
+ * the first wildcard are visited. Pages in name order cost only the chat
+ * rooms they skip over, ranked pages cost every chat room the pattern's
+ * prefix reaches.
+ *
+ * Cursors are keyset cursors: a page resumes after the last chat room of the
+ * previous page, so registrations between pages neither repeat nor skip chat
+ * rooms in name order. Ranked pages resume after the last chat room's rank
+ * when the page was made, so a chat room whose statistics change between
+ * pages may move across the cursor.
+ *
+ * @author Jonas Michel
+ *
+ */
+class RoomIndex {
+	/** The info map key holding a chat room's number of participants. */
+	static final String PARTICIPANTS_KEY = "# Participants";
+
+	/** The info map key holding a chat room's number of messages. */
+	static final String MESSAGES_KEY = "# Messages";
+
+	/** The chat rooms, by name. */
+	private ConcurrentSkipListMap<String, RoomDescriptor> rooms;
+
+	/** When refreshing each chat room last failed, by name. */
+	private ConcurrentHashMap<String, Long> failures;
+
+	/** Orders chat rooms by when they were refreshed, the stalest first. */
+	private static final Comparator<RoomDescriptor> BY_UPDATED = new Comparator<RoomDescriptor>() {
+		@Override
+		public int compare(RoomDescriptor a, RoomDescriptor b) {
+			if (a.getUpdated() != b.getUpdated())
+				return a.getUpdated() < b.getUpdated() ? -1 : 1;
+			return a.getName().compareTo(b.getName());
+		}
+	};
+
+	/** Orders chat rooms by rank, the highest first, then by name. */
+	private static class Ranking implements Comparator<RoomDescriptor> {
+		private RoomOrder order;
+
+		Ranking(RoomOrder order) {
+			this.order = order;
+		}
+
+		@Override
+		public int compare(RoomDescriptor a, RoomDescriptor b) {
+			long ra = rank(a, order);
+			long rb = rank(b, order);
+			if (ra != rb)
+				return ra > rb ? -1 : 1;
+			return a.getName().compareTo(b.getName());
+		}
+	}
+
+	RoomIndex() {
+		rooms = new ConcurrentSkipListMap<String, RoomDescriptor>();
+		failures = new ConcurrentHashMap<String, Long>();
+	}
+
+	/**
+	 * Adds a registered chat room.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 * @param id
+	 *            the chat room's ID.
+	 */
+	void add(String name, int id) {
+		rooms.put(name, new RoomDescriptor(name, id, 0, 0, 0));
+	}
+
+	/**
+	 * Removes a chat room, unless its name has since been registered again.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 * @param id
+	 *            the chat room's ID.
+	 */
+	void remove(String name, int id) {
+		RoomDescriptor room = rooms.get(name);
+		if (room != null && room.getId() == id && rooms.remove(name, room))
+			failures.remove(name);
+	}
+
+	/**
+	 * Removes every chat room.
+	 */
+	void clear() {
+		rooms.clear();
+		failures.clear();
+	}
+
+	/**
+	 * Returns the stalest chat rooms matching a pattern whose statistics were
+	 * last refreshed, and last failed to refresh, before a time.
+	 *
+	 * @param pattern
+	 *            a name prefix or glob pattern (null or empty matches every
+	 *            chat room).
+	 * @param before
+	 *            the time in milliseconds.
+	 * @param max
+	 *            the most chat rooms returned.
+	 * @return the chat rooms' names, the stalest first.
+	 */
+	List<String> stale(String pattern, long before, int max) {
+		if (pattern == null)
+			pattern = "";
+
+		int wildcard = firstWildcard(pattern);
+		String prefix = wildcard < 0 ? pattern : pattern.substring(0, wildcard);
+
+		// keep the stalest max chat rooms, the freshest of them at the head
+		PriorityQueue<RoomDescriptor> stalest = new PriorityQueue<RoomDescriptor>(
+				Math.max(1, max + 1), Collections.reverseOrder(BY_UPDATED));
+		for (RoomDescriptor room : rooms.tailMap(prefix, true).values()) {
+			String name = room.getName();
+			if (!name.startsWith(prefix))
+				break;
+
+			if (wildcard >= 0 && !matches(pattern, name))
+				continue;
+			if (room.getUpdated() >= before)
+				continue;
+
+			Long failed = failures.get(name);
+			if (failed != null && failed >= before)
+				continue;
+
+			stalest.offer(room);
+			if (stalest.size() > max)
+				stalest.poll();
+		}
+
+		List<RoomDescriptor> sorted = new ArrayList<RoomDescriptor>(stalest);
+		Collections.sort(sorted, BY_UPDATED);
+		List<String> names = new ArrayList<String>(sorted.size());
+		for (RoomDescriptor room : sorted)
+			names.add(room.getName());
+		return names;
+	}
+
+	/**
+	 * Records that a chat room's statistics couldn't be refreshed, so that it
+	 * isn't tried again until its statistics would next be stale.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 */
+	void failed(String name) {
+		if (rooms.containsKey(name))
+			failures.put(name, System.currentTimeMillis());
+	}
+
+	/**
+	 * Refreshes a chat room's statistics from its info map.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 * @param info
+	 *            the chat room's info map.
+	 */
+	void update(String name, Map<String, String> info) {
+		int participants = parse(info.get(PARTICIPANTS_KEY));
+		int messages = parse(info.get(MESSAGES_KEY));
+		long now = System.currentTimeMillis();
+
+		RoomDescriptor room;
+		do {
+			room = rooms.get(name);
+			if (room == null)
+				return;
+		} while (!rooms.replace(name, room, new RoomDescriptor(name, room
+				.getId(), participants, messages, now)));
+		failures.remove(name);
+	}
+
+	private static int parse(String value) {
+		if (value == null)
+			return 0;
+
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns a page of the chat rooms matching a pattern.
+	 *
+	 * @param pattern
+	 *            a name prefix or glob pattern (null or empty matches every
+	 *            chat room).
+	 * @param order
+	 *            the order of the chat rooms.
+	 * @param cursor
+	 *            the previous page's cursor or null for the first page.
+	 * @param limit
+	 *            the most chat rooms on the page.
+	 * @return the page.
+	 * @throws IllegalArgumentException
+	 *             the cursor wasn't made for the order.
+	 */
+	RoomPage find(String pattern, RoomOrder order, String cursor, int limit) {
+		if (pattern == null)
+			pattern = "";
+		if (order == null)
+			order = RoomOrder.NAME;
+		limit = Math.max(1, limit);
+
+		// only the names starting with the literal prefix can match
+		int wildcard = firstWildcard(pattern);
+		String prefix = wildcard < 0 ? pattern : pattern.substring(0, wildcard);
+		String glob = wildcard < 0 ? null : pattern;
+
+		return order == RoomOrder.NAME ? findByName(prefix, glob, cursor,
+				limit) : findByRank(prefix, glob, order, cursor, limit);
+	}
+
+	private RoomPage findByName(String prefix, String glob, String cursor,
+			int limit) {
+		String last = cursor == null ? null : decodeName(cursor);
+
+		// resume after the cursor, but never before the prefix
+		ConcurrentNavigableMap<String, RoomDescriptor> range;
+		if (last == null || last.compareTo(prefix) < 0)
+			range = rooms.tailMap(prefix, true);
+		else
+			range = rooms.tailMap(last, false);
+
+		List<RoomDescriptor> page = new ArrayList<RoomDescriptor>(limit);
+		for (RoomDescriptor room : range.values()) {
+			String name = room.getName();
+			if (!name.startsWith(prefix))
+				break;
+
+			if (glob != null && !matches(glob, name))
+				continue;
+
+			if (page.size() == limit)
+				return new RoomPage(page, encode(page.get(limit - 1), null));
+			page.add(room);
+		}
+
+		return new RoomPage(page, null);
+	}
+
+	private RoomPage findByRank(String prefix, String glob, RoomOrder order,
+			String cursor, int limit) {
+		Ranking ranking = new Ranking(order);
+		RoomDescriptor after = cursor == null ? null : decodeRank(cursor,
+				order);
+
+		// keep the best limit + 1 chat rooms, the worst of them at the head
+		PriorityQueue<RoomDescriptor> best = new PriorityQueue<RoomDescriptor>(
+				limit + 1, Collections.reverseOrder(ranking));
+		for (RoomDescriptor room : rooms.tailMap(prefix, true).values()) {
+			String name = room.getName();
+			if (!name.startsWith(prefix))
+				break;
+
+			if (glob != null && !matches(glob, name))
+				continue;
+			if (after != null && ranking.compare(room, after) <= 0)
+				continue;
+
+			best.offer(room);
+			if (best.size() > limit + 1)
+				best.poll();
+		}
+
+		List<RoomDescriptor> page = new ArrayList<RoomDescriptor>(best);
+		Collections.sort(page, ranking);
+		if (page.size() <= limit)
+			return new RoomPage(page, null);
+
+		page = new ArrayList<RoomDescriptor>(page.subList(0, limit));
+		return new RoomPage(page, encode(page.get(limit - 1), order));
+	}
+
+	/**
+	 * Returns a chat room's rank in an order.
+	 */
+	private static long rank(RoomDescriptor room, RoomOrder order) {
+		return order == RoomOrder.PARTICIPANTS ? room.getParticipants() : room
+				.getMessages();
+	}
+
+	/**
+	 * Makes the cursor that resumes after a chat room, "n:name" in name order
+	 * and "r:rank:name" in ranked orders.
+	 */
+	private static String encode(RoomDescriptor room, RoomOrder order) {
+		if (order == null)
+			return "n:" + room.getName();
+		return "r:" + rank(room, order) + ":" + room.getName();
+	}
+
+	private static String decodeName(String cursor) {
+		if (!cursor.startsWith("n:"))
+			throw new IllegalArgumentException("Not a name order cursor: "
+					+ cursor);
+		return cursor.substring(2);
+	}
+
+	private static RoomDescriptor decodeRank(String cursor, RoomOrder order) {
+		int colon = cursor.indexOf(':', 2);
+		if (!cursor.startsWith("r:") || colon < 0)
+			throw new IllegalArgumentException("Not a ranked order cursor: "
+					+ cursor);
+
+		long rank;
+		try {
+			rank = Long.parseLong(cursor.substring(2, colon));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a ranked order cursor: "
+					+ cursor);
+		}
+
+		// a descriptor standing in for the last chat room of the page
+		int value = (int) Math.min(Integer.MAX_VALUE, rank);
+		String name = cursor.substring(colon + 1);
+		return order == RoomOrder.PARTICIPANTS ? new RoomDescriptor(name, 0,
+				value, 0, 0) : new RoomDescriptor(name, 0, 0, value, 0);
+	}
+
+	private static int firstWildcard(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' || c == '?')
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether or not a glob pattern matches a whole name, backtracking
+	 * only to the last * seen.
+	 */
+	static boolean matches(String glob, String name) {
+		int g = 0, n = 0;
+		int star = -1, resume = 0;
+
+		while (n < name.length()) {
+			if (g < glob.length()
+					&& (glob.charAt(g) == '?' || glob.charAt(g) == name
+							.charAt(n))) {
+				g++;
+				n++;
+			} else if (g < glob.length() && glob.charAt(g) == '*') {
+				star = g++;
+				resume = n;
+			} else if (star >= 0) {
+				g = star + 1;
+				n = ++resume;
+			} else {
+				return false;
+			}
+		}
+
+		while (g < glob.length() && glob.charAt(g) == '*')
+			g++;
+		return g == glob.length();
+	}
+
+}
@@ -0,0 +1,12 @@
+package edu.courses.middleware.chatservice;
+
+/**
+ * The orders in which the ChatRegistry lists chat rooms: by name, by number
+ * of participants or by number of messages sent, the busiest first.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public enum RoomOrder {
+	NAME, PARTICIPANTS, ACTIVITY
+}
@@ -0,0 +1,45 @@
+package edu.courses.middleware.chatservice;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A RoomPage is one page of the chat rooms matching a ChatRegistry query. The
+ * next page is requested with the page's cursor, which is null on the last
+ * page.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class RoomPage implements Serializable {
+	private static final long serialVersionUID = 4817726283311904515L;
+
+	/** The page's chat rooms, in the query's order. */
+	private List<RoomDescriptor> rooms;
+
+	/** Resumes the query after this page (null if there is nothing more). */
+	private String cursor;
+
+	public RoomPage(List<RoomDescriptor> rooms, String cursor) {
+		this.rooms = rooms;
+		this.cursor = cursor;
+	}
+
+	public List<RoomDescriptor> getRooms() {
+		return rooms;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	public boolean hasMore() {
+		return cursor != null;
+	}
+
+	@Override
+	public String toString() {
+		return "RoomPage [rooms=" + rooms + ", cursor=" + cursor + "]";
+	}
+
+}
@@ -0,0 +1,248 @@
+package edu.courses.middleware.chatservice;
+
+import java.rmi.RemoteException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.ui.ChatMessage;
+
+/**
+ * A RoomPublisher publishes the chat messages of one joined chat room to a
+ * single Flow.Subscriber. The subscriber's demand is passed on to the chat
+ * room with IChatRoom.request, so the chat room only sends what the
+ * subscriber has asked for and a slow subscriber makes the chat room shed
+ * load instead of piling up RMI callbacks. Concurrent requests are coalesced
+ * into a single remote call.
+ *
+ * The publisher completes when the chat room is left or closes. Cancelling
+ * the subscription lifts the backpressure, so the provider's other listeners
+ * receive every message again.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class RoomPublisher implements Flow.Publisher<ChatMessage> {
+	/** The chat room's name. */
+	private String room;
+
+	/** The chat room. */
+	private IChatRoom chatRoom;
+
+	/** The provider's chat client. */
+	private IChatClient chatClient;
+
+	/** Runs remote requests and the subscriber. */
+	private Executor executor;
+
+	/** The subscriber (null until subscribed). */
+	private Flow.Subscriber<? super ChatMessage> subscriber;
+
+	/** Holds delivered messages until the subscriber takes them. */
+	private Queue<ChatMessage> buffer;
+
+	/** The number of messages the subscriber has requested. */
+	private AtomicLong demand;
+
+	/** Demand not yet passed on to the chat room. */
+	private AtomicLong unrequested;
+
+	/** Whether or not a drain task is scheduled or running. */
+	private AtomicBoolean draining;
+
+	/** Whether or not the chat room has been left or closed. */
+	private volatile boolean completed;
+
+	/** The error to signal to the subscriber, if any. */
+	private volatile Throwable error;
+
+	/** Whether or not the subscription is over. */
+	private volatile boolean done;
+
+	/** Passes buffered messages to the subscriber. */
+	private Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			ChatMessage message;
+			while (!done && demand.get() > 0
+					&& (message = buffer.poll()) != null) {
+				if (demand.get() != Long.MAX_VALUE)
+					demand.decrementAndGet();
+				subscriber.onNext(message);
+			}
+
+			if (!done && error != null) {
+				done = true;
+				subscriber.onError(error);
+			} else if (!done && completed && buffer.isEmpty()) {
+				done = true;
+				subscriber.onComplete();
+			}
+
+			draining.set(false);
+
+			// a message may have arrived after the buffer was found empty
+			if (!done
+					&& (demand.get() > 0 && !buffer.isEmpty()
+							|| error != null || completed && buffer.isEmpty()))
+				schedule();
+		}
+	};
+
+	/** Passes the subscriber's outstanding demand on to the chat room. */
+	private Runnable forward = new Runnable() {
+		@Override
+		public void run() {
+			long n = unrequested.getAndSet(0);
+			try {
+				chatRoom.request(chatClient, n);
+			} catch (RemoteException e) {
+				fail(e);
+			}
+		}
+	};
+
+	RoomPublisher(String room, IChatRoom chatRoom, IChatClient chatClient,
+			Executor executor) {
+		this.room = room;
+		this.chatRoom = chatRoom;
+		this.chatClient = chatClient;
+		this.executor = executor;
+
+		buffer = new ConcurrentLinkedQueue<ChatMessage>();
+		demand = new AtomicLong();
+		unrequested = new AtomicLong();
+		draining = new AtomicBoolean();
+	}
+
+	/**
+	 * Returns the name of the chat room whose messages are published.
+	 *
+	 * @return the chat room's name.
+	 */
+	public String getRoom() {
+		return room;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super ChatMessage> s) {
+		synchronized (this) {
+			if (subscriber == null) {
+				subscriber = s;
+				s = null;
+			}
+		}
+
+		if (s != null) {
+			// a RoomPublisher has a single subscriber
+			s.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			s.onError(new IllegalStateException("[" + room
+					+ "] already has a subscriber"));
+			return;
+		}
+
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					fail(new IllegalArgumentException(
+							"non-positive subscription request"));
+					return;
+				}
+
+				add(demand, n);
+				if (add(unrequested, n) == n)
+					execute(forward);
+				schedule();
+			}
+
+			@Override
+			public void cancel() {
+				done = true;
+				buffer.clear();
+
+				// let the chat room push every message again
+				add(unrequested, Long.MAX_VALUE);
+				execute(forward);
+			}
+		});
+
+		// hold messages back until the subscriber asks for them
+		execute(forward);
+	}
+
+	/**
+	 * Adds to a demand counter, saturating at Long.MAX_VALUE.
+	 *
+	 * @return the counter's new value.
+	 */
+	private static long add(AtomicLong counter, long n) {
+		while (true) {
+			long current = counter.get();
+			long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			if (counter.compareAndSet(current, next))
+				return next;
+		}
+	}
+
+	/**
+	 * Publishes a message delivered by the chat room.
+	 *
+	 * @param message
+	 *            the chat message.
+	 */
+	void publish(ChatMessage message) {
+		if (done || subscriber == null)
+			return;
+
+		buffer.add(message);
+		schedule();
+	}
+
+	/**
+	 * Completes the subscription once buffered messages have been taken.
+	 */
+	void complete() {
+		completed = true;
+		schedule();
+	}
+
+	private void fail(Throwable e) {
+		error = e;
+		schedule();
+	}
+
+	private void schedule() {
+		if (subscriber == null || !draining.compareAndSet(false, true))
+			return;
+
+		if (!execute(drain))
+			draining.set(false);
+	}
+
+	private boolean execute(Runnable task) {
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			// the provider has been closed
+			done = true;
+			return false;
+		}
+	}
+
+}
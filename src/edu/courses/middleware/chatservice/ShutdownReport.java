@@ -0,0 +1,94 @@
+package edu.courses.middleware.chatservice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ShutdownReport describes how a ChatProvider's shutdown went: which of its
+ * steps (leaving a chat room, emptying a hosted chat room, deregistering its
+ * entities) completed, which failed and which were still running when the
+ * shutdown deadline passed.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class ShutdownReport {
+	/** The steps that completed. */
+	private List<String> completed;
+
+	/** Maps the steps that failed to the reason they failed. */
+	private Map<String, String> failed;
+
+	/** The steps that didn't finish before the deadline. */
+	private List<String> unfinished;
+
+	/** The time the shutdown took in milliseconds. */
+	private long elapsedMillis;
+
+	ShutdownReport() {
+		completed = new ArrayList<String>();
+		failed = new LinkedHashMap<String, String>();
+		unfinished = new ArrayList<String>();
+	}
+
+	void completed(String step) {
+		completed.add(step);
+	}
+
+	void failed(String step, String reason) {
+		failed.put(step, reason);
+	}
+
+	void unfinished(String step) {
+		unfinished.add(step);
+	}
+
+	void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public List<String> getCompleted() {
+		return Collections.unmodifiableList(completed);
+	}
+
+	public Map<String, String> getFailed() {
+		return Collections.unmodifiableMap(failed);
+	}
+
+	public List<String> getUnfinished() {
+		return Collections.unmodifiableList(unfinished);
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * Returns whether every step completed successfully.
+	 *
+	 * @return true if no step failed or ran out of time.
+	 */
+	public boolean isClean() {
+		return failed.isEmpty() && unfinished.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Shutdown took ").append(elapsedMillis).append("ms, ")
+				.append(completed.size()).append(" step(s) completed");
+
+		for (Map.Entry<String, String> entry : failed.entrySet())
+			sb.append("\n\tfailed: ").append(entry.getKey()).append(" (")
+					.append(entry.getValue()).append(")");
+
+		for (String step : unfinished)
+			sb.append("\n\ttimed out: ").append(step);
+
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,102 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A BroadcastScope runs the subtasks of a single broadcast (one per
+ * recipient) concurrently and waits for all of them, so that no subtask
+ * outlives the broadcast that forked it. This is the structured concurrency
+ * of StructuredTaskScope, reduced to what a fan-out needs and usable on JVMs
+ * that don't provide it.
+ *
+ * Subtasks run on the given executor, except when the forking thread itself
+ * belongs to the bounded platform fan-out pool, in which case they run inline
+ * so that the pool can't deadlock waiting on itself.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class BroadcastScope {
+	/** Runs the subtasks. */
+	private Executor executor;
+
+	/** The number of forked subtasks that haven't finished. */
+	private int pending;
+
+	/** The first unchecked exception thrown by a subtask. */
+	private RuntimeException failure;
+
+	public BroadcastScope(Executor executor) {
+		this.executor = ChatExecutors.isFanOutThread() ? ChatExecutors.INLINE
+				: executor;
+	}
+
+	/**
+	 * Starts a subtask.
+	 *
+	 * @param subtask
+	 *            the subtask.
+	 */
+	public void fork(final Runnable subtask) {
+		synchronized (this) {
+			pending++;
+		}
+
+		Runnable tracked = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					subtask.run();
+				} catch (RuntimeException e) {
+					failed(e);
+				} finally {
+					finished();
+				}
+			}
+		};
+
+		try {
+			executor.execute(tracked);
+		} catch (RejectedExecutionException e) {
+			// the executor is saturated or shutting down, run the subtask
+			// ourselves
+			tracked.run();
+		}
+	}
+
+	private synchronized void failed(RuntimeException e) {
+		if (failure == null)
+			failure = e;
+	}
+
+	private synchronized void finished() {
+		if (--pending == 0)
+			notifyAll();
+	}
+
+	/**
+	 * Waits until every forked subtask has finished. An interrupt doesn't cut
+	 * the wait short, it is restored once the subtasks are done.
+	 *
+	 * @throws RuntimeException
+	 *             the first unchecked exception thrown by a subtask.
+	 */
+	public synchronized void join() {
+		boolean interrupted = false;
+		while (pending > 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (failure != null)
+			throw failure;
+	}
+
+}
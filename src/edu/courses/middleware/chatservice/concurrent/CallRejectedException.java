@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.rmi.RemoteException;
+
+/**
+ * A CallRejectedException is thrown by a RemoteCallGuard instead of making a
+ * timed call while every caller thread is busy, e.g. with calls abandoned on
+ * unresponsive endpoints. It says nothing about the endpoint called.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class CallRejectedException extends RemoteException {
+	private static final long serialVersionUID = -1513460922871626514L;
+
+	public CallRejectedException(int callers) {
+		super("All " + callers + " remote caller threads are busy");
+	}
+
+}
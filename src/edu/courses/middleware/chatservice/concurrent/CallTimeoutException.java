@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.rmi.RemoteException;
+
+/**
+ * A CallTimeoutException is thrown by a RemoteCallGuard when a remote call
+ * has taken longer than its endpoint's timeout. The call itself may still
+ * complete in the background.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class CallTimeoutException extends RemoteException {
+	private static final long serialVersionUID = 2794083641785350471L;
+
+	public CallTimeoutException(long timeout) {
+		super("Remote call timed out after " + timeout + "ms");
+	}
+
+}
@@ -0,0 +1,262 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ChatExecutors is the chat service's execution layer. It decides which
+ * threads deliver a chat room's messages, which run the shared fan-out work
+ * (a chat room's outbox and retransmission sends and the registry's liveness
+ * probes) and which run the registry's batched calls and a provider's
+ * background work.
+ *
+ * A chat room delivers its messages through one lane per participant, which
+ * sends that participant's deliveries one at a time. Each chat room runs its
+ * lanes on an executor of its own, which queues tasks rather than running
+ * them on the calling thread, since the caller is the chat room's sequencer
+ * writer. Slow recipients therefore only hold up the lanes of the chat rooms
+ * they are in.
+ *
+ * The execution model is chosen with the chatservice.threads system property:
+ *
+ * virtual - every task, lanes included, runs on its own virtual thread (the
+ * default where the JVM supports virtual threads).
+ *
+ * platform - fan-out work runs on a shared pool of at most
+ * chatservice.threads.pool platform threads (64 by default), or on the
+ * calling thread while they are all busy, a chat room's lanes on its own
+ * pool of chatservice.room.lanes platform threads, and other work on pools
+ * of daemon threads (the default on JVMs without virtual threads).
+ *
+ * inline - fan-out work runs on the calling thread, as the chat service
+ * originally did, and lanes run as in the platform model.
+ *
+ * Virtual threads are created through reflection, so the chat service still
+ * builds and runs on JVMs that predate them.
+ *
+ * @author Jonas Michel
+ *
+ */
+public final class ChatExecutors {
+	/** The system property holding the execution model. */
+	public static final String MODEL_PROPERTY = "chatservice.threads";
+
+	/** The system property holding the size of the platform fan-out pool. */
+	public static final String POOL_PROPERTY = "chatservice.threads.pool";
+
+	/** The execution models. */
+	public enum Model {
+		VIRTUAL, PLATFORM, INLINE
+	}
+
+	/** Runs tasks on the calling thread. */
+	public static final Executor INLINE = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	/** Whether or not this JVM supports virtual threads. */
+	private static final boolean virtualSupported = newVirtualExecutor("probe") != null;
+
+	/** The execution model in use. */
+	private static final Model model = chooseModel();
+
+	/** Numbers platform threads per name. */
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	/** A platform thread belonging to the shared fan-out pool. */
+	private static class FanOutThread extends Thread {
+		FanOutThread(Runnable r, String name) {
+			super(r, name);
+			setDaemon(true);
+		}
+	}
+
+	/**
+	 * Holds the fan-out executor, which is created on first use without
+	 * locking its readers.
+	 */
+	private static class FanOutHolder {
+		/** Runs chat room fan-out and registry probes. */
+		static final Executor fanOut = newFanOut();
+	}
+
+	private ChatExecutors() {
+	}
+
+	private static Model chooseModel() {
+		String property = System.getProperty(MODEL_PROPERTY);
+		if (property != null) {
+			Model chosen = Model.valueOf(property.trim().toUpperCase());
+			if (chosen != Model.VIRTUAL || virtualSupported)
+				return chosen;
+
+			System.err.println("Virtual threads aren't supported by this JVM,"
+					+ " using platform threads");
+		}
+
+		return virtualSupported ? Model.VIRTUAL : Model.PLATFORM;
+	}
+
+	/**
+	 * Returns the execution model in use.
+	 *
+	 * @return the execution model.
+	 */
+	public static Model getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns whether or not this JVM supports virtual threads.
+	 *
+	 * @return true if virtual threads are available.
+	 */
+	public static boolean isVirtualSupported() {
+		return virtualSupported;
+	}
+
+	/**
+	 * Returns the executor running chat rooms' outbox and retransmission sends
+	 * and registry liveness probes.
+	 *
+	 * @return the shared fan-out executor.
+	 */
+	public static Executor fanOut() {
+		return FanOutHolder.fanOut;
+	}
+
+	private static Executor newFanOut() {
+		switch (model) {
+		case VIRTUAL:
+			return newVirtualExecutor("chatservice-fanout-");
+		case PLATFORM:
+			// tasks are handed to idle threads rather than queued, once every
+			// thread is busy they are rejected and run by the caller
+			return new ThreadPoolExecutor(0, Integer.getInteger(POOL_PROPERTY,
+					64), 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							return new FanOutThread(r, "chatservice-fanout-"
+									+ threadCount.incrementAndGet());
+						}
+					});
+		default:
+			return INLINE;
+		}
+	}
+
+	/**
+	 * Creates an executor for a chat room's delivery lanes. Unlike the
+	 * fan-out executor it queues tasks rather than running them on the
+	 * calling thread. A chat room submits at most one task per participant,
+	 * so the queue is bounded by the number of participants, and idle threads
+	 * exit so that a quiet chat room holds none.
+	 *
+	 * @param name
+	 *            the prefix of the executor's thread names.
+	 * @param platformThreads
+	 *            the number of platform threads used when virtual threads
+	 *            aren't.
+	 * @return a new executor.
+	 */
+	public static Executor newLanes(final String name, int platformThreads) {
+		if (model == Model.VIRTUAL)
+			return newVirtualExecutor(name + "-");
+
+		int threads = Math.max(1, platformThreads);
+		ThreadPoolExecutor lanes = new ThreadPoolExecutor(threads, threads,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						return new FanOutThread(r, name + "-"
+								+ threadCount.incrementAndGet());
+					}
+				});
+		lanes.allowCoreThreadTimeOut(true);
+		return lanes;
+	}
+
+	/**
+	 * Returns whether or not the current thread belongs to the platform
+	 * fan-out pool. Such a thread must not wait on other fan-out tasks, since
+	 * the pool is bounded.
+	 *
+	 * @return true if the current thread is a fan-out pool thread.
+	 */
+	static boolean isFanOutThread() {
+		return Thread.currentThread() instanceof FanOutThread;
+	}
+
+	/**
+	 * Creates an executor for work that must run concurrently regardless of
+	 * the execution model, e.g. a provider's shutdown steps.
+	 *
+	 * @param name
+	 *            the prefix of the executor's thread names.
+	 * @param platformThreads
+	 *            the number of platform threads used when virtual threads
+	 *            aren't, or 0 for as many as needed.
+	 * @return a new executor.
+	 */
+	public static ExecutorService newExecutor(final String name,
+			int platformThreads) {
+		if (model == Model.VIRTUAL)
+			return newVirtualExecutor(name + "-");
+
+		ThreadFactory factory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-"
+						+ threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+
+		if (platformThreads <= 0)
+			return Executors.newCachedThreadPool(factory);
+		return Executors.newFixedThreadPool(platformThreads, factory);
+	}
+
+	/**
+	 * Creates an executor that starts a virtual thread per task, i.e.
+	 * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix,
+	 * 1).factory()).
+	 *
+	 * @param prefix
+	 *            the prefix of the virtual threads' names.
+	 * @return the executor or null if virtual threads aren't supported.
+	 */
+	private static ExecutorService newVirtualExecutor(String prefix) {
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			virtual = builder.getMethod("name", String.class, long.class)
+					.invoke(virtual, prefix, 1L);
+			ThreadFactory factory = (ThreadFactory) builder.getMethod(
+					"factory").invoke(virtual);
+
+			Method perTask = Executors.class.getMethod(
+					"newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) perTask.invoke(null, factory);
+
+		} catch (Exception e) {
+			// this JVM predates virtual threads
+			return null;
+		}
+	}
+
+}
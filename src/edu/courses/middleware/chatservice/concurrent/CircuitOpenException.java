@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.rmi.RemoteException;
+
+/**
+ * A CircuitOpenException is thrown by a RemoteCallGuard instead of calling an
+ * endpoint whose circuit breaker is open. Retrying the call right away is
+ * pointless.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class CircuitOpenException extends RemoteException {
+	private static final long serialVersionUID = -3906625510743259871L;
+
+	public CircuitOpenException() {
+		super("Circuit breaker open, the endpoint is failing");
+	}
+
+}
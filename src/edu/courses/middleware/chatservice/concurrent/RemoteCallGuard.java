@@ -0,0 +1,432 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.courses.middleware.chatservice.metrics.Gauge;
+import edu.courses.middleware.chatservice.metrics.RemoteCallMetrics;
+
+/**
+ * A RemoteCallGuard bounds the remote calls a component makes to other chat
+ * service endpoints (chat clients or chat rooms), so that an endpoint that has
+ * gone quiet, e.g. behind a half-open TCP connection, can't hold up its caller
+ * until the operating system gives up on the connection.
+ *
+ * Every endpoint gets an adaptive timeout. The guard keeps a small histogram
+ * of the endpoint's recent latencies, halving it as it fills so that old
+ * samples fade, and times out a call after twice the endpoint's 99th
+ * percentile, but never sooner than chatservice.remote.timeout.min
+ * milliseconds (1000 by default) or later than chatservice.remote.timeout.max
+ * milliseconds (30000 by default, which also applies until enough latencies
+ * have been observed). A maximum of 0 turns timeouts off.
+ *
+ * Every endpoint also gets a circuit breaker. After
+ * chatservice.breaker.failures calls in a row have failed or timed out (3 by
+ * default) the breaker opens and calls fail fast with a CircuitOpenException.
+ * After chatservice.breaker.open milliseconds (5000 by default) a single
+ * trial call is let through, which closes the breaker if it succeeds and
+ * opens it again otherwise.
+ *
+ * RMI has no per-call timeout, so a timed call runs on one of at most
+ * chatservice.remote.callers threads (256 by default) while the caller waits
+ * for it. An abandoned call finishes (or fails) in the background, holding
+ * its thread until then, which entities exported with a TimeoutSocketFactory
+ * bound at the transport. While every caller thread is busy calls are
+ * rejected with a CallRejectedException, which doesn't count against the
+ * endpoint.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class RemoteCallGuard {
+	/** The system property holding the shortest timeout in milliseconds. */
+	public static final String TIMEOUT_MIN_PROPERTY = "chatservice.remote.timeout.min";
+
+	/** The system property holding the longest timeout in milliseconds. */
+	public static final String TIMEOUT_MAX_PROPERTY = "chatservice.remote.timeout.max";
+
+	/** The system property holding the failures that open a breaker. */
+	public static final String BREAKER_FAILURES_PROPERTY = "chatservice.breaker.failures";
+
+	/** The system property holding how long a breaker stays open. */
+	public static final String BREAKER_OPEN_PROPERTY = "chatservice.breaker.open";
+
+	/** The system property holding the most timed calls in flight. */
+	public static final String CALLERS_PROPERTY = "chatservice.remote.callers";
+
+	/** The states of a circuit breaker. */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * A Call is a remote call made through the guard.
+	 */
+	public interface Call<V> {
+		V call() throws RemoteException;
+	}
+
+	/** The number of latency buckets, bucket i holds latencies under 2^i ms. */
+	private static final int BUCKETS = 16;
+
+	/** The number of latencies observed before timeouts adapt. */
+	private static final int MIN_SAMPLES = 16;
+
+	/** The number of latencies at which a histogram is halved. */
+	private static final int MAX_SAMPLES = 256;
+
+	/**
+	 * Holds the executor running timed calls for every guard, which is created
+	 * on first use without locking its readers.
+	 */
+	private static class CallersHolder {
+		/** The most timed calls in flight, abandoned ones included. */
+		static final int limit = Math.max(1, Integer.getInteger(
+				CALLERS_PROPERTY, 256));
+
+		/** The permits of the timed calls in flight. */
+		static final Semaphore permits = new Semaphore(limit);
+
+		/** Runs timed calls, never more threads than permits. */
+		static final ExecutorService callers = ChatExecutors.newExecutor(
+				"chatservice-remote", 0);
+	}
+
+	/** The endpoints' timeouts and breakers. */
+	private ConcurrentHashMap<Object, Endpoint> endpoints;
+
+	/** The bounds of the timeouts in milliseconds (0 turns them off). */
+	private long minTimeout;
+	private long maxTimeout;
+
+	/** The failures in a row that open a breaker. */
+	private int breakerFailures;
+
+	/** How long a breaker stays open in milliseconds. */
+	private long breakerOpen;
+
+	/** The guard's metrics. */
+	private RemoteCallMetrics metrics;
+
+	/**
+	 * Creates a guard configured from system properties.
+	 *
+	 * @param caller
+	 *            labels the guard's metrics.
+	 */
+	public RemoteCallGuard(String caller) {
+		endpoints = new ConcurrentHashMap<Object, Endpoint>();
+		minTimeout = Long.getLong(TIMEOUT_MIN_PROPERTY, 1000);
+		maxTimeout = Long.getLong(TIMEOUT_MAX_PROPERTY, 30000);
+		breakerFailures = Math.max(1, Integer.getInteger(
+				BREAKER_FAILURES_PROPERTY, 3));
+		breakerOpen = Long.getLong(BREAKER_OPEN_PROPERTY, 5000);
+
+		metrics = new RemoteCallMetrics(caller, new Gauge() {
+			@Override
+			public long getValue() {
+				return endpoints.size();
+			}
+		}, new Gauge() {
+			@Override
+			public long getValue() {
+				return count(State.OPEN);
+			}
+		}, new Gauge() {
+			@Override
+			public long getValue() {
+				return count(State.HALF_OPEN);
+			}
+		});
+	}
+
+	/**
+	 * Returns the guard's metrics.
+	 *
+	 * @return the metrics.
+	 */
+	public RemoteCallMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Makes a remote call, unless the endpoint's breaker is open, giving up
+	 * after the endpoint's timeout.
+	 *
+	 * @param endpoint
+	 *            the remote object called (e.g., a chat client stub).
+	 * @param call
+	 *            the call.
+	 * @return the call's result.
+	 * @throws CircuitOpenException
+	 *             the endpoint's breaker is open.
+	 * @throws CallTimeoutException
+	 *             the call took too long.
+	 * @throws RemoteException
+	 *             the call failed.
+	 */
+	public <V> V call(Object endpoint, Call<V> call) throws RemoteException {
+		Endpoint e = endpoints.get(endpoint);
+		if (e == null) {
+			Endpoint created = new Endpoint();
+			e = endpoints.putIfAbsent(endpoint, created);
+			if (e == null)
+				e = created;
+		}
+
+		if (!e.allow()) {
+			metrics.rejected.inc();
+			throw new CircuitOpenException();
+		}
+
+		long start = System.nanoTime();
+		try {
+			V result = maxTimeout > 0 ? callWithin(call, e.timeout()) : call
+					.call();
+
+			long nanos = System.nanoTime() - start;
+			e.succeeded(nanos);
+			metrics.calls.record(nanos);
+			return result;
+
+		} catch (CallRejectedException x) {
+			// the endpoint wasn't called
+			e.released();
+			metrics.rejected.inc();
+			throw x;
+
+		} catch (RemoteException x) {
+			// a caller that is interrupted says nothing about the endpoint
+			if (Thread.currentThread().isInterrupted()) {
+				e.released();
+				throw x;
+			}
+
+			metrics.failures.inc();
+			if (x instanceof CallTimeoutException)
+				metrics.timeouts.inc();
+			if (e.failed())
+				metrics.breakersOpened.inc();
+			throw x;
+
+		} catch (RuntimeException x) {
+			e.released();
+			throw x;
+		}
+	}
+
+	/**
+	 * Makes a remote call on another thread, waiting at most a timeout for it.
+	 */
+	private <V> V callWithin(final Call<V> call, long timeout)
+			throws RemoteException {
+		// the permit is held until the call returns, even if abandoned
+		if (!CallersHolder.permits.tryAcquire())
+			throw new CallRejectedException(CallersHolder.limit);
+
+		Future<V> future;
+		try {
+			future = CallersHolder.callers.submit(new Callable<V>() {
+				@Override
+				public V call() throws RemoteException {
+					try {
+						return call.call();
+					} finally {
+						CallersHolder.permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			CallersHolder.permits.release();
+			throw new CallRejectedException(CallersHolder.limit);
+		}
+
+		try {
+			return future.get(timeout, TimeUnit.MILLISECONDS);
+
+		} catch (TimeoutException e) {
+			// an RMI call can't be interrupted, it runs on until it returns
+			// or its socket times out, and then releases its permit
+			throw new CallTimeoutException(timeout);
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted waiting for remote call", e);
+
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RemoteException)
+				throw (RemoteException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new RemoteException("Remote call failed", cause);
+		}
+	}
+
+	/**
+	 * Returns the state of an endpoint's breaker.
+	 *
+	 * @param endpoint
+	 *            the remote object.
+	 * @return the breaker's state (closed if the endpoint is unknown).
+	 */
+	public State getState(Object endpoint) {
+		Endpoint e = endpoints.get(endpoint);
+		return e == null ? State.CLOSED : e.getState();
+	}
+
+	/**
+	 * Returns the timeout of an endpoint's next call.
+	 *
+	 * @param endpoint
+	 *            the remote object.
+	 * @return the timeout in milliseconds (0 if timeouts are off).
+	 */
+	public long getTimeout(Object endpoint) {
+		if (maxTimeout <= 0)
+			return 0;
+
+		Endpoint e = endpoints.get(endpoint);
+		return e == null ? maxTimeout : e.timeout();
+	}
+
+	/**
+	 * Forgets an endpoint that is no longer called, e.g. a participant that
+	 * left or a chat room that was cleaned up.
+	 *
+	 * @param endpoint
+	 *            the remote object.
+	 */
+	public void forget(Object endpoint) {
+		endpoints.remove(endpoint);
+	}
+
+	private long count(State state) {
+		long n = 0;
+		for (Endpoint e : endpoints.values())
+			if (e.getState() == state)
+				n++;
+		return n;
+	}
+
+	/**
+	 * An Endpoint holds the latency histogram and breaker of a single remote
+	 * object.
+	 */
+	private class Endpoint {
+		/** Recent latencies, bucket i counts those under 2^i milliseconds. */
+		private int[] latencies = new int[BUCKETS];
+
+		/** The number of latencies in the histogram. */
+		private int samples;
+
+		/** The breaker's state. */
+		private State state = State.CLOSED;
+
+		/** The calls that have failed in a row. */
+		private int failures;
+
+		/** When the breaker last opened. */
+		private long openedAt;
+
+		/**
+		 * Returns whether or not a call may be made, letting a single trial
+		 * call through once an open breaker has waited long enough.
+		 */
+		synchronized boolean allow() {
+			if (state == State.CLOSED)
+				return true;
+
+			if (state == State.OPEN
+					&& System.currentTimeMillis() - openedAt >= breakerOpen) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		}
+
+		synchronized State getState() {
+			return state;
+		}
+
+		/**
+		 * Returns the timeout of the next call in milliseconds.
+		 */
+		synchronized long timeout() {
+			if (samples < MIN_SAMPLES)
+				return maxTimeout;
+
+			// the upper bound of the bucket holding the 99th percentile
+			int rank = samples - samples / 100;
+			int seen = 0;
+			int bucket = 0;
+			while (bucket < BUCKETS - 1 && (seen += latencies[bucket]) < rank)
+				bucket++;
+
+			long timeout = 2L << bucket;
+			return Math.min(maxTimeout, Math.max(minTimeout, timeout));
+		}
+
+		/**
+		 * Records a call that returned, closing the breaker.
+		 */
+		synchronized void succeeded(long nanos) {
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = Math.min(BUCKETS - 1,
+					64 - Long.numberOfLeadingZeros(millis));
+			latencies[bucket]++;
+
+			// halve the histogram so that old latencies fade
+			if (++samples == MAX_SAMPLES) {
+				samples = 0;
+				for (int i = 0; i < BUCKETS; i++) {
+					latencies[i] >>= 1;
+					samples += latencies[i];
+				}
+			}
+
+			failures = 0;
+			state = State.CLOSED;
+		}
+
+		/**
+		 * Records a failed call.
+		 *
+		 * @return true if the breaker opened because of it.
+		 */
+		synchronized boolean failed() {
+			failures++;
+
+			if (state == State.HALF_OPEN
+					|| (state == State.CLOSED && failures >= breakerFailures)) {
+				boolean opened = state == State.CLOSED;
+				state = State.OPEN;
+				openedAt = System.currentTimeMillis();
+				return opened;
+			}
+			return false;
+		}
+
+		/**
+		 * Records a call that says nothing about the endpoint, returning a
+		 * trial call's turn.
+		 */
+		synchronized void released() {
+			if (state == State.HALF_OPEN) {
+				state = State.OPEN;
+				openedAt = 0;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,202 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A Sequencer puts the entries published by many threads into a single total
+ * order and hands them, one at a time and in that order, to a single writer.
+ * It is a ring in the style of the LMAX Disruptor: publishers claim a
+ * position with an atomic increment and fill their slot without locking, and
+ * whichever publisher finds the writer idle becomes the writer and processes
+ * every entry that is ready, so no thread is dedicated to a sequencer.
+ *
+ * Entries are processed in claim order, an entry whose publisher hasn't
+ * filled its slot yet holds back the entries behind it. A publisher that
+ * finds the ring full waits for the writer to make room.
+ *
+ * Entries are processed on the writer's thread, so they should hand any
+ * blocking work to other threads. An entry may publish further entries. The
+ * writer can't wait for room in its own ring, so while the ring is full such
+ * entries are deferred and published once there is room.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class Sequencer {
+	/**
+	 * An Entry is processed by the sequencer's writer in sequence order.
+	 */
+	public interface Entry {
+		/**
+		 * Processes the entry.
+		 *
+		 * @param position
+		 *            the entry's position in the sequence, starting at 1.
+		 */
+		void sequenced(long position);
+	}
+
+	/** How long a publisher waiting for room parks in nanoseconds. */
+	private static final long PARK_NANOS = 50000;
+
+	/** The entries, indexed by position modulo the ring's size. */
+	private final Entry[] ring;
+
+	/** The position each slot was last filled for. */
+	private final AtomicLongArray published;
+
+	/** Masks a position to its slot. */
+	private final int mask;
+
+	/** The last position claimed by a publisher. */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/** The last position processed, only the writer advances it. */
+	private volatile long processed;
+
+	/** Whether or not a thread is the writer. */
+	private final AtomicBoolean writing = new AtomicBoolean();
+
+	/** The writer's thread, while there is one. */
+	private volatile Thread writer;
+
+	/** Entries the writer published while the ring was full, only it uses it. */
+	private ArrayDeque<Entry> deferred = new ArrayDeque<Entry>();
+
+	/**
+	 * Creates a sequencer.
+	 *
+	 * @param capacity
+	 *            the number of entries that may await the writer, rounded up
+	 *            to a power of two.
+	 */
+	public Sequencer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		ring = new Entry[size];
+		published = new AtomicLongArray(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Puts an entry in the sequence and processes whatever is ready unless
+	 * another thread is the writer.
+	 *
+	 * @param entry
+	 *            the entry.
+	 * @return the entry's position.
+	 */
+	public long publish(Entry entry) {
+		// the writer can't wait for itself to make room
+		if (Thread.currentThread() == writer) {
+			long position = tryClaim();
+			if (position < 0) {
+				deferred.add(entry);
+				return -1;
+			}
+
+			fill(position, entry);
+			return position;
+		}
+
+		long position = claimed.incrementAndGet();
+
+		// wait for the writer to free the slot
+		while (position - processed > ring.length) {
+			process();
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+
+		fill(position, entry);
+
+		process();
+		return position;
+	}
+
+	/**
+	 * Claims the next position if its slot is free.
+	 *
+	 * @return the position or -1 if the ring is full.
+	 */
+	private long tryClaim() {
+		long position;
+		do {
+			position = claimed.get();
+			if (position + 1 - processed > ring.length)
+				return -1;
+		} while (!claimed.compareAndSet(position, position + 1));
+
+		return position + 1;
+	}
+
+	private void fill(long position, Entry entry) {
+		int slot = (int) position & mask;
+		ring[slot] = entry;
+		published.set(slot, position);
+	}
+
+	/**
+	 * Processes the entries that are ready, in order, unless another thread
+	 * is the writer.
+	 */
+	public void process() {
+		while (writing.compareAndSet(false, true)) {
+			ArrayDeque<Entry> left = null;
+			writer = Thread.currentThread();
+			try {
+				long next = processed + 1;
+				int slot;
+				while (published.get(slot = (int) next & mask) == next) {
+					Entry entry = ring[slot];
+					ring[slot] = null;
+					processed = next;
+
+					try {
+						entry.sequenced(next);
+					} catch (RuntimeException e) {
+						// an entry's failure mustn't stall the entries behind
+						// it
+						e.printStackTrace();
+					}
+					next++;
+
+					// move deferred entries into the room just made
+					long position;
+					while (!deferred.isEmpty() && (position = tryClaim()) > 0)
+						fill(position, deferred.poll());
+				}
+			} finally {
+				if (!deferred.isEmpty()) {
+					left = deferred;
+					deferred = new ArrayDeque<Entry>();
+				}
+				writer = null;
+				writing.set(false);
+			}
+
+			// no longer the writer, what is still deferred may wait for room
+			if (left != null)
+				for (Entry entry : left)
+					publish(entry);
+
+			// an entry published while we were the writer mustn't wait for
+			// the next publish
+			long next = processed + 1;
+			if (published.get((int) next & mask) != next)
+				return;
+		}
+	}
+
+	/**
+	 * Returns the number of entries claimed but not yet processed.
+	 *
+	 * @return the sequencer's backlog.
+	 */
+	public long getBacklog() {
+		return claimed.get() - processed;
+	}
+
+}
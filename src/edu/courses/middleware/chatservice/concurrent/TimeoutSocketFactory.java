@@ -0,0 +1,72 @@
+package edu.courses.middleware.chatservice.concurrent;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * A TimeoutSocketFactory makes the sockets through which stubs call a chat
+ * service entity, bounding how long they wait to connect and to read a reply.
+ * The factory travels with the entity's stubs, so every caller's calls are
+ * bounded at the transport, and a call the RemoteCallGuard has given up on
+ * releases its thread once the socket times out rather than when the
+ * operating system gives up on a half-open connection.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class TimeoutSocketFactory implements RMIClientSocketFactory,
+		Serializable {
+	private static final long serialVersionUID = 3376961513298480431L;
+
+	/** The connect and read timeout in milliseconds. */
+	private int timeout;
+
+	public TimeoutSocketFactory(int timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Returns the factory for entities exported by this JVM, whose timeout is
+	 * the RemoteCallGuard's longest (chatservice.remote.timeout.max).
+	 *
+	 * @return the factory or null if timeouts are off.
+	 */
+	public static TimeoutSocketFactory fromSystemProperties() {
+		long timeout = Long.getLong(RemoteCallGuard.TIMEOUT_MAX_PROPERTY,
+				30000);
+		if (timeout <= 0)
+			return null;
+
+		return new TimeoutSocketFactory((int) Math.min(Integer.MAX_VALUE,
+				timeout));
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeout);
+			socket.setSoTimeout(timeout);
+			return socket;
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		// RMI shares connections between stubs with equal factories
+		return obj instanceof TimeoutSocketFactory
+				&& ((TimeoutSocketFactory) obj).timeout == timeout;
+	}
+
+	@Override
+	public int hashCode() {
+		return timeout;
+	}
+
+}
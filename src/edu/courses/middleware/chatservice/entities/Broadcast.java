@@ -0,0 +1,105 @@
+package edu.courses.middleware.chatservice.entities;
+
+import edu.courses.middleware.chatservice.concurrent.Sequencer;
+import edu.courses.middleware.chatservice.tracing.Span;
+
+/**
+ * A Broadcast is a message on its way through a ChatRoom's Sequencer to the
+ * room's participants. The sequencer's writer stamps it and routes it to
+ * each recipient's delivery lane, and the broadcast completes once every
+ * recipient's delivery has been made (or queued in its outbox). The sender's
+ * own delivery isn't waited for, since the sender may be talking from within
+ * a delivery in its lane.
+ *
+ * @author Jonas Michel
+ *
+ */
+abstract class Broadcast implements Sequencer.Entry {
+	/** The screen name of the message's sender. */
+	final String sender;
+
+	/** The sending participant or null (e.g., for presence notices). */
+	final Participant origin;
+
+	/** The sender's ID or 0 to send its screen name. */
+	final int senderId;
+
+	/** The message. */
+	final String message;
+
+	/** The message's priority class. */
+	final MessagePriority priority;
+
+	/** The broadcast's fan-out span or null if it isn't traced. */
+	final Span span;
+
+	/** When the broadcast was published. */
+	final long start;
+
+	/** The deliveries not yet made, plus one until the broadcast is routed. */
+	private int pending = 1;
+
+	Broadcast(String sender, Participant origin, int senderId, String message,
+			MessagePriority priority, Span span) {
+		this.sender = sender;
+		this.origin = origin;
+		this.senderId = senderId;
+		this.message = message;
+		this.priority = priority;
+		this.span = span;
+		start = System.nanoTime();
+	}
+
+	/**
+	 * Counts a delivery routed to a recipient.
+	 */
+	synchronized void routed() {
+		pending++;
+	}
+
+	/**
+	 * Counts a delivery made, or the end of routing.
+	 */
+	void done() {
+		synchronized (this) {
+			if (--pending > 0)
+				return;
+			notifyAll();
+		}
+
+		completed();
+	}
+
+	/**
+	 * Waits until the broadcast has completed or a deadline has passed. An
+	 * interrupt doesn't cut the wait short, it is restored once the wait is
+	 * over.
+	 * 
+	 * @param timeout
+	 *            the longest wait in milliseconds.
+	 * @return false if deliveries were still in flight at the deadline.
+	 */
+	synchronized boolean await(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean interrupted = false;
+		long remaining;
+		while (pending > 0
+				&& (remaining = deadline - System.currentTimeMillis()) > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return pending == 0;
+	}
+
+	/**
+	 * Called once every delivery has been made.
+	 */
+	abstract void completed();
+
+}
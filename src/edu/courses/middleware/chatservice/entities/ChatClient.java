@@ -6,6 +6,9 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.Tracer;
+
 /**
  * A ChatClient extends the chat service Entity class and implements the remote
  * IChatClient interface. Each ChatProvider hosts a single registered ChatClient
@@ -23,6 +26,9 @@ public class ChatClient extends Entity implements IChatClient {
 	/** The chat client's creation time. */
 	private long created;
 
+	/** The chat client's creation time as displayed in its info. */
+	private String createdText;
+
 	/** We make callbacks on the delegate. */
 	private ChatClientDelegate delegate;
 
@@ -35,6 +41,7 @@ public class ChatClient extends Entity implements IChatClient {
 
 		this.name = name;
 		created = System.currentTimeMillis();
+		createdText = new Date(created).toString();
 
 		this.delegate = delegate;
 	}
@@ -52,7 +59,7 @@ public class ChatClient extends Entity implements IChatClient {
 
 		// populate the info map
 		info.put("Name", name);
-		info.put("Created", new Date(created).toString());
+		info.put("Created", createdText);
 		info.put(
 				"Time Online",
 				Long.toString((System.currentTimeMillis() - created) / 1000 / 60)
@@ -70,7 +77,27 @@ public class ChatClient extends Entity implements IChatClient {
 	@Override
 	public void deliver(String room, String sender, String message)
 			throws RemoteException {
-		delegate.deliver(room, sender, message);
+		deliver(new ChatEnvelope(room, sender, message, MessagePriority.CHAT,
+				null));
+	}
+
+	@Override
+	public void deliver(ChatEnvelope envelope) throws RemoteException {
+		Span span = Tracer.startSpan("client.deliver", Span.KIND_SERVER,
+				envelope.getTrace());
+		if (span == null) {
+			delegate.deliver(envelope);
+			return;
+		}
+
+		// make the trace available to the delegate
+		Tracer.setCurrent(span.context());
+		try {
+			delegate.deliver(envelope);
+		} finally {
+			Tracer.setCurrent(null);
+			span.end();
+		}
 	}
 
 	@Override
@@ -27,14 +27,10 @@ public interface ChatClientDelegate {
 	/**
 	 * Called when a chat message is delivered to the chat client.
 	 * 
-	 * @param room
-	 *            the chat room name.
-	 * @param sender
-	 *            the sender's screen name.
-	 * @param message
-	 *            the chat message.
+	 * @param envelope
+	 *            the chat message and its delivery metadata.
 	 */
-	public void deliver(String room, String sender, String message);
+	public void deliver(ChatEnvelope envelope);
 
 	/**
 	 * Called when a chat room closes.
@@ -0,0 +1,249 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import edu.courses.middleware.chatservice.tracing.TraceContext;
+
+/**
+ * A ChatEnvelope carries a chat room message to a chat client along with its
+ * delivery metadata. Direct messages, sent from one chat client to another
+ * without a chat room, are carried in envelopes that have no room.
+ * 
+ * When the chat room and sender are registered their numeric IDs travel on
+ * the wire instead of their names, which the receiver looks up in its own
+ * cached name table. A chat room sends the names along with the IDs the first
+ * time it sends a receiver those IDs (see withNames), so the receiver learns
+ * them without asking the registry.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ChatEnvelope implements Serializable {
+	private static final long serialVersionUID = -7168529402375145329L;
+
+	/** The chat room name or null for a direct message. */
+	private transient String room;
+
+	/** The chat room's ID or 0 if it has none. */
+	private int roomId;
+
+	/** The sender's screen name. */
+	private transient String sender;
+
+	/** The sender's ID or 0 if it has none. */
+	private int senderId;
+
+	/** The chat room's sequence number for the message or 0 if it has none. */
+	private long seq;
+
+	/**
+	 * The sequence number of the previous message the chat room sent the
+	 * receiver, or 0 if it was seq - 1 (or there was none).
+	 */
+	private long previous;
+
+	/** The chat message. */
+	private String message;
+
+	/** The message's priority class. */
+	private MessagePriority priority;
+
+	/** The message's trace context or null if it isn't traced. */
+	private TraceContext trace;
+
+	/** Whether or not the names travel along with the IDs. */
+	private boolean named;
+
+	public ChatEnvelope(String room, String sender, String message,
+			MessagePriority priority, TraceContext trace) {
+		this(room, 0, sender, 0, message, priority, trace);
+	}
+
+	public ChatEnvelope(String room, int roomId, String sender, int senderId,
+			String message, MessagePriority priority, TraceContext trace) {
+		this(room, roomId, sender, senderId, 0, message, priority, trace);
+	}
+
+	public ChatEnvelope(String room, int roomId, String sender, int senderId,
+			long seq, String message, MessagePriority priority,
+			TraceContext trace) {
+		this.room = room;
+		this.roomId = roomId;
+		this.sender = sender;
+		this.senderId = senderId;
+		this.seq = seq;
+		this.message = message;
+		this.priority = priority;
+		this.trace = trace;
+	}
+
+	/**
+	 * Creates an envelope for a direct message.
+	 * 
+	 * @param sender
+	 *            the sender's screen name.
+	 * @param message
+	 *            the message.
+	 * @param trace
+	 *            the message's trace context or null if it isn't traced.
+	 * @return a new envelope.
+	 */
+	public static ChatEnvelope direct(String sender, String message,
+			TraceContext trace) {
+		return direct(sender, 0, message, trace);
+	}
+
+	/**
+	 * Creates an envelope for a direct message from a registered sender. The
+	 * sender's name travels with its ID, since the recipient may not know it.
+	 * 
+	 * @param sender
+	 *            the sender's screen name.
+	 * @param senderId
+	 *            the sender's ID.
+	 * @param message
+	 *            the message.
+	 * @param trace
+	 *            the message's trace context or null if it isn't traced.
+	 * @return a new envelope.
+	 */
+	public static ChatEnvelope direct(String sender, int senderId,
+			String message, TraceContext trace) {
+		return new ChatEnvelope(null, 0, sender, senderId, message,
+				MessagePriority.CHAT, trace).withNames();
+	}
+
+	/**
+	 * Returns a copy of this envelope carrying a different trace context.
+	 * 
+	 * @param trace
+	 *            the copy's trace context.
+	 * @return a new envelope.
+	 */
+	public ChatEnvelope withTrace(TraceContext trace) {
+		ChatEnvelope copy = new ChatEnvelope(room, roomId, sender, senderId,
+				seq, message, priority, trace);
+		copy.previous = previous;
+		copy.named = named;
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of this envelope that carries the chat room's and
+	 * sender's names along with their IDs.
+	 * 
+	 * @return a new envelope, or this one if it already carries the names.
+	 */
+	public ChatEnvelope withNames() {
+		if (named)
+			return this;
+
+		ChatEnvelope copy = withTrace(trace);
+		copy.named = true;
+		return copy;
+	}
+
+	/**
+	 * Returns a copy of this envelope naming the previous message sent to its
+	 * receiver.
+	 * 
+	 * @param previous
+	 *            the previous message's sequence number.
+	 * @return a new envelope.
+	 */
+	public ChatEnvelope withPrevious(long previous) {
+		ChatEnvelope copy = withTrace(trace);
+		copy.previous = previous;
+		return copy;
+	}
+
+	/**
+	 * Returns the chat room's name, which is null once the envelope has
+	 * crossed the wire if the chat room has an ID and the names weren't sent.
+	 */
+	public String getRoom() {
+		return room;
+	}
+
+	public int getRoomId() {
+		return roomId;
+	}
+
+	public boolean isDirect() {
+		return room == null && roomId == 0;
+	}
+
+	/**
+	 * Returns the sender's screen name, which is null once the envelope has
+	 * crossed the wire if the sender has an ID.
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	public int getSenderId() {
+		return senderId;
+	}
+
+	/**
+	 * Returns the chat room's sequence number for the message. A message
+	 * retransmitted by the chat room carries the same sequence number, so
+	 * that the receiver can recognize it.
+	 */
+	public long getSeq() {
+		return seq;
+	}
+
+	/**
+	 * Returns the sequence number of the previous message the chat room sent
+	 * the receiver. A receiver that hasn't seen it has missed a message.
+	 */
+	public long getPrevious() {
+		return previous != 0 || seq == 0 ? previous : seq - 1;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public MessagePriority getPriority() {
+		return priority;
+	}
+
+	public TraceContext getTrace() {
+		return trace;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+
+		// names are only sent for entities without an ID, unless the
+		// receiver is being told them
+		if (roomId == 0 || named)
+			out.writeObject(room);
+		if (senderId == 0 || named)
+			out.writeObject(sender);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+
+		if (roomId == 0 || named)
+			room = (String) in.readObject();
+		if (senderId == 0 || named)
+			sender = (String) in.readObject();
+	}
+
+	@Override
+	public String toString() {
+		return "ChatEnvelope [room=" + room + ", roomId=" + roomId
+				+ ", sender=" + sender + ", senderId=" + senderId + ", seq="
+				+ seq + ", previous=" + previous + ", message=" + message
+				+ ", priority=" + priority + ", named=" + named + "]";
+	}
+
+}
@@ -2,11 +2,35 @@ package edu.courses.middleware.chatservice.entities;
 
 import java.rmi.RMISecurityManager;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import edu.courses.middleware.chatservice.concurrent.ChatExecutors;
+import edu.courses.middleware.chatservice.concurrent.RemoteCallGuard;
+import edu.courses.middleware.chatservice.concurrent.Sequencer;
+import edu.courses.middleware.chatservice.metrics.ChatRoomMetrics;
+import edu.courses.middleware.chatservice.metrics.Gauge;
+import edu.courses.middleware.chatservice.metrics.MetricsRegistry;
+import edu.courses.middleware.chatservice.search.SearchHit;
+import edu.courses.middleware.chatservice.search.SearchIndex;
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.TraceContext;
+import edu.courses.middleware.chatservice.tracing.Tracer;
+import edu.courses.middleware.chatservice.util.IntSet;
+import edu.courses.middleware.chatservice.util.SequenceWindow;
 
 /**
  * A ChatRoom extends the chat service's Entity class and implements the remote
@@ -16,12 +40,115 @@ import java.util.Set;
  * room's first participant. When all ChatClients have left a ChatRoom it
  * automatically shuts down and deregisters itself from the chat service.
  * 
+ * A ChatRoom enforces RateLimits on the messages sent through talk, both per
+ * participant and for the chat room as a whole, so that a single misbehaving
+ * client can't monopolize the fan-out to every other participant.
+ * 
+ * Presence notices aren't broadcast as each client joins or leaves. Changes
+ * are collected and announced once per chatservice.presence.interval
+ * milliseconds (1000 by default, 0 announces every change immediately), so a
+ * join storm produces a single "12 users joined" notice rather than a full
+ * broadcast per join. Clients reconnecting en masse can join (or leave) with
+ * a single joinAll (leaveAll) call that takes the participant lock once.
+ * 
+ * Participants may register a DeliveryFilter. Filters are compiled when they
+ * are registered and evaluated before each delivery, so muted senders and
+ * unwanted notices cost a participant nothing on the network.
+ * 
+ * Every chat message is added to the chat room's SearchIndex by the
+ * sequencer's writer, in the order it is delivered, so its history may be
+ * searched by keyword and sender.
+ * 
+ * Messages are put in a single order by the chat room's Sequencer, whose
+ * writer stamps each with the next sequence number and routes it to every
+ * recipient's delivery lane. A lane sends one delivery at a time, in sequence
+ * order, on the chat room's own chatservice.room.lanes lane threads (16 by
+ * default) and never on the writer, so every participant sees the same order
+ * and slow recipients only delay this chat room's other lanes. Talk waits
+ * for every lane but the sender's own, so a participant may talk from within
+ * a delivery, and for at most chatservice.talk.deadline milliseconds (5000 by
+ * default), after which the message is still delivered. Joins pass
+ * through the sequencer too, so a client that joins while messages are being
+ * sent receives exactly those sequenced after its join. Talk takes no lock
+ * of the chat room's to do this. Each envelope names the previous message
+ * sent to its receiver, so that receivers can detect gaps.
+ * 
+ * Participants may exert backpressure by requesting deliveries. Such a
+ * participant is sent only what it has requested, the rest waits in its
+ * Outbox of chatservice.outbox.capacity deliveries (256 by default), which
+ * sheds presence notices and then the oldest chat messages when full.
+ *
+ * Participants are kept in a ParticipantTable, which broadcasts iterate in
+ * place rather than copying for every message.
+ *
+ * Delivery is at least once. Every broadcast carries a sequence number and
+ * the last chatservice.retransmit.buffer broadcasts (1024 by default) are
+ * kept. A participant acknowledges a delivery by returning from it. A failed
+ * delivery is retransmitted with backoff, and the participant is evicted
+ * only once chatservice.delivery.attempts attempts (3 by default) have failed
+ * in a row. Receivers discard the duplicates this may cause by sequence
+ * number. Talk is idempotent for senders that number their messages, so a
+ * sender may retry a message whose outcome it doesn't know.
+ *
+ * Calls to participants go through a RemoteCallGuard, which times them out
+ * adaptively and fails fast against a participant whose circuit breaker has
+ * opened, so an unreachable participant is evicted in moments rather than
+ * holding its lane until TCP gives up.
+ *
  * @author Jonas Michel
  * 
  */
 public class ChatRoom extends Entity implements IChatRoom {
 	private static final long serialVersionUID = 6150046694998603404L;
 
+	/** The system property holding the presence notice interval. */
+	public static final String PRESENCE_INTERVAL_PROPERTY = "chatservice.presence.interval";
+
+	/** The number of threads announcing presence changes and retransmitting. */
+	private static final int TIMER_THREADS = 2;
+
+	/** The system property holding the outbox capacity. */
+	public static final String OUTBOX_CAPACITY_PROPERTY = "chatservice.outbox.capacity";
+
+	/** The system property holding the retransmission buffer's capacity. */
+	public static final String RETRANSMIT_BUFFER_PROPERTY = "chatservice.retransmit.buffer";
+
+	/** The system property holding the number of messages of history kept. */
+	public static final String HISTORY_RETAIN_PROPERTY = "chatservice.history.retain";
+
+	/** The system property holding how long history is kept. */
+	public static final String HISTORY_MAX_AGE_PROPERTY = "chatservice.history.maxage";
+
+	/** The system property holding the number of delivery lane threads. */
+	public static final String LANE_THREADS_PROPERTY = "chatservice.room.lanes";
+
+	/** The system property holding how long talk waits for deliveries. */
+	public static final String TALK_DEADLINE_PROPERTY = "chatservice.talk.deadline";
+
+	/** The system property holding the delivery attempts before eviction. */
+	public static final String DELIVERY_ATTEMPTS_PROPERTY = "chatservice.delivery.attempts";
+
+	/** The delay before the first retransmission in milliseconds. */
+	private static final long RETRANSMIT_DELAY = 100;
+
+	/** The number of each participant's recent sequence numbers remembered. */
+	private static final int TALK_WINDOW = 64;
+
+	/** The number of broadcasts and joins that may await the sequencer. */
+	private static final int SEQUENCER_CAPACITY = 1024;
+
+	/** The largest number of hits returned by a search. */
+	public static final int MAX_SEARCH_LIMIT = 100;
+
+	/** The most screen names listed in a coalesced presence notice. */
+	private static final int MAX_NAMES = 3;
+
+	/** Announces presence changes and retransmits for every chat room. */
+	private static ScheduledExecutorService timer;
+
+	/** Numbers the timer threads. */
+	private static final AtomicInteger timerThreadCount = new AtomicInteger();
+
 	/** The chat room's name. */
 	private String name;
 
@@ -33,18 +160,82 @@ public class ChatRoom extends Entity implements IChatRoom {
 	
 	/** The chat room's creation time. */
 	private long created;
+
+	/** The chat room's creation time as displayed in its info. */
+	private String createdText;
 	
 	/** The number of chat messages exchanged in the chat room. */
-	private int messageCount;
+	private AtomicInteger messageCount;
 
 	/** We make callbacks on the delegate. */
 	private ChatRoomDelegate delegate;
 
 	/** Holds the chat room's participants. */
-	private Set<IChatClient> clients;
+	private ParticipantTable clients;
+
+	/** The chat room's rate limits. */
+	private volatile RateLimits rateLimits;
+
+	/** Limits the chat room's total message rate (null if unlimited). */
+	private volatile TokenBucket roomBucket;
+
+	/** The presence notice interval in milliseconds. */
+	private volatile long presenceInterval;
+
+	/** The clients that joined and left since the last presence notice. */
+	private List<String> joinedNames;
+	private List<String> leftNames;
+
+	/** Whether or not a presence notice is scheduled. */
+	private boolean presenceScheduled;
+
+	/** The number of deliveries a participant's outbox holds. */
+	private int outboxCapacity;
+
+	/** Orders the chat room's broadcasts and joins. */
+	private Sequencer sequencer;
+
+	/**
+	 * Runs the chat room's delivery lanes. Its idle threads exit, so it is
+	 * never shut down.
+	 */
+	private Executor lanes;
+
+	/** How long talk waits for deliveries in milliseconds. */
+	private long talkDeadline;
+
+	/**
+	 * The last broadcast's sequence number. Only the sequencer's writer
+	 * touches it.
+	 */
+	private long lastSeq;
+
+	/** Keeps recent broadcasts for retransmission. */
+	private RetransmitBuffer retransmits;
+
+	/** The delivery attempts that may fail in a row before eviction. */
+	private int deliveryAttempts;
+
+	/** Indexes the chat room's message history. */
+	private SearchIndex history;
+
+	/** The chat room's metrics and their JMX object name. */
+	private ChatRoomMetrics metrics;
+	private ObjectName metricsName;
+
+	/** Bounds the chat room's calls to its participants. */
+	private RemoteCallGuard guard;
+
+	/** The JMX object name of the guard's metrics. */
+	private ObjectName guardMetricsName;
 
 	public ChatRoom(String name, ChatRoomDelegate delegate)
 			throws RemoteException {
+		this(name, delegate, RateLimits.fromSystemProperties());
+	}
+
+	public ChatRoom(String name, ChatRoomDelegate delegate,
+			RateLimits rateLimits) throws RemoteException {
 		super();
 
 		// configure the RMI security manager
@@ -53,11 +244,102 @@ public class ChatRoom extends Entity implements IChatRoom {
 		this.name = name;
 		open = true;
 		created = System.currentTimeMillis();
-		messageCount = 0;
+		createdText = new Date(created).toString();
+		messageCount = new AtomicInteger();
+		outboxCapacity = Integer.getInteger(OUTBOX_CAPACITY_PROPERTY, 256);
+		sequencer = new Sequencer(SEQUENCER_CAPACITY);
+		lanes = ChatExecutors.newLanes("chatservice-lane-" + name, Integer
+				.getInteger(LANE_THREADS_PROPERTY, 16));
+		talkDeadline = Long.getLong(TALK_DEADLINE_PROPERTY, 5000);
+		retransmits = new RetransmitBuffer(Integer.getInteger(
+				RETRANSMIT_BUFFER_PROPERTY, 1024));
+		deliveryAttempts = Math.max(1, Integer.getInteger(
+				DELIVERY_ATTEMPTS_PROPERTY, 3));
 
 		this.delegate = delegate;
 
-		clients = new HashSet<IChatClient>();
+		clients = new ParticipantTable();
+		this.rateLimits = rateLimits;
+		roomBucket = rateLimits.newRoomBucket();
+
+		presenceInterval = Long.getLong(PRESENCE_INTERVAL_PROPERTY, 1000);
+		joinedNames = new ArrayList<String>();
+		leftNames = new ArrayList<String>();
+		history = new SearchIndex(Integer.getInteger(HISTORY_RETAIN_PROPERTY,
+				100000), Long.getLong(HISTORY_MAX_AGE_PROPERTY, 0));
+
+		// publish the chat room's metrics
+		metrics = new ChatRoomMetrics(name, new Gauge() {
+			@Override
+			public long getValue() {
+				return clients.size();
+			}
+		});
+		metricsName = MetricsRegistry.objectName("ChatRoom", name);
+		MetricsRegistry.register(metricsName, metrics);
+
+		guard = new RemoteCallGuard("room/" + name);
+		guardMetricsName = MetricsRegistry.objectName("RemoteCalls", "room/"
+				+ name);
+		MetricsRegistry.register(guardMetricsName, guard.getMetrics());
+	}
+
+	/**
+	 * Changes the chat room's rate limits. Participants' message rates are
+	 * measured afresh from this point on.
+	 * 
+	 * @param rateLimits
+	 *            the new rate limits.
+	 */
+	public void setRateLimits(RateLimits rateLimits) {
+		this.rateLimits = rateLimits;
+		roomBucket = rateLimits.newRoomBucket();
+
+		// participants replace their buckets when they next talk
+	}
+
+	/**
+	 * Returns the chat room's rate limits.
+	 * 
+	 * @return the current rate limits.
+	 */
+	public RateLimits getRateLimits() {
+		return rateLimits;
+	}
+
+	/**
+	 * Changes the interval at which presence changes are announced.
+	 * 
+	 * @param presenceInterval
+	 *            the interval in milliseconds, or 0 to announce every change
+	 *            immediately.
+	 */
+	public void setPresenceInterval(long presenceInterval) {
+		this.presenceInterval = presenceInterval;
+	}
+
+	/**
+	 * Returns the shared timer, creating it if necessary.
+	 * 
+	 * @return the timer.
+	 */
+	private static synchronized ScheduledExecutorService getTimer() {
+		if (timer == null) {
+			timer = Executors.newScheduledThreadPool(TIMER_THREADS,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r,
+									"chatservice-room-timer-"
+											+ timerThreadCount
+													.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+
+		return timer;
 	}
 
 	/* IEntity Interface Implementation */
@@ -73,15 +355,13 @@ public class ChatRoom extends Entity implements IChatRoom {
 
 		// populate the info map
 		info.put("Name", name);
-		info.put("Created", new Date(created).toString());
-		info.put("# Messages", Integer.toString(messageCount));
+		info.put("Created", createdText);
+		info.put("# Messages", Integer.toString(messageCount.get()));
 		info.put(
 				"Time Open",
 				Long.toString((System.currentTimeMillis() - created) / 1000 / 60)
 						+ " minutes");
-		synchronized (clients) {
-			info.put("# Participants", Integer.toString(clients.size()));
-		}
+		info.put("# Participants", Integer.toString(clients.size()));
 
 		return info;
 	}
@@ -90,82 +370,736 @@ public class ChatRoom extends Entity implements IChatRoom {
 
 	@Override
 	public boolean join(IChatClient client) throws RemoteException {
-		synchronized (clients) {
-			if (clients.contains(client) || !open)
-				return false;
+		return admit(Collections.singletonList(client), DeliveryFilter.ALL)[0];
+	}
+
+	@Override
+	public boolean join(IChatClient client, DeliveryFilter filter)
+			throws RemoteException {
+		return admit(Collections.singletonList(client), filter)[0];
+	}
+
+	@Override
+	public boolean[] joinAll(List<IChatClient> clientList)
+			throws RemoteException {
+		return admit(clientList, DeliveryFilter.ALL);
+	}
+
+	@Override
+	public boolean setFilter(IChatClient client, DeliveryFilter filter)
+			throws RemoteException {
+		Participant participant = clients.get(client);
+		if (participant == null)
+			return false;
+
+		participant.filter = filter.compile(participant.name);
+		return true;
+	}
+
+	@Override
+	public boolean request(IChatClient client, long n) throws RemoteException {
+		Participant participant = clients.get(client);
+		if (participant == null || n < 0)
+			return false;
 
-			clients.add(client);
+		Outbox outbox = participant.outbox;
+		if (outbox == null) {
+			synchronized (participant) {
+				if (participant.outbox == null)
+					participant.outbox = new Outbox(outboxCapacity);
+				outbox = participant.outbox;
+			}
 		}
 
-		// alert participants that a new client has joined
-		talk(client, "(joined)");
+		outbox.grant(n);
+
+		// send what is now owed without holding up the requesting client
+		final Participant p = participant;
+		final Outbox o = outbox;
+		if (o.claim()) {
+			Runnable sender = new Runnable() {
+				@Override
+				public void run() {
+					sendQueued(p, o);
+				}
+			};
+			try {
+				ChatExecutors.fanOut().execute(sender);
+			} catch (RejectedExecutionException e) {
+				sender.run();
+			}
+		}
 
 		return true;
 	}
 
+	/**
+	 * Adds chat clients to the chat room's participants.
+	 * 
+	 * @param clientList
+	 *            the chat clients that wish to join.
+	 * @param filter
+	 *            the chat clients' delivery filter.
+	 * @return for each chat client, true if it joined.
+	 */
+	private boolean[] admit(List<IChatClient> clientList,
+			DeliveryFilter filter) throws RemoteException {
+		// resolve screen names and IDs before taking the lock
+		final String[] names = new String[clientList.size()];
+		final int[] ids = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			final IChatClient client = clientList.get(i);
+			final int index = i;
+			try {
+				guard.call(client, new RemoteCallGuard.Call<Void>() {
+					@Override
+					public Void call() throws RemoteException {
+						names[index] = client.getName();
+						ids[index] = client.getId();
+						return null;
+					}
+				});
+			} catch (RemoteException e) {
+				names[i] = "someone";
+			}
+		}
+
+		boolean[] joined = new boolean[names.length];
+		List<String> arrivals = new ArrayList<String>(names.length);
+		final List<Participant> admitted = new ArrayList<Participant>(
+				names.length);
+		synchronized (clients) {
+			for (int i = 0; i < names.length && open; i++) {
+				Participant participant = new Participant(clientList.get(i),
+						names[i], ids[i], filter.compile(names[i]));
+				if (!clients.add(participant))
+					continue;
+
+				joined[i] = true;
+				arrivals.add(names[i]);
+				admitted.add(participant);
+			}
+		}
+
+		// new participants receive what is sequenced after their join
+		if (!admitted.isEmpty()) {
+			sequencer.publish(new Sequencer.Entry() {
+				@Override
+				public void sequenced(long position) {
+					for (Participant p : admitted)
+						p.since = position;
+				}
+			});
+		}
+
+		// alert participants that new clients have joined
+		if (!arrivals.isEmpty())
+			announce(arrivals, true);
+
+		return joined;
+	}
+
 	@Override
-	public boolean talk(IChatClient client, String message)
+	public TalkResult talk(IChatClient client, String message)
 			throws RemoteException {
-		Set<IChatClient> clientsCopy = null;
-		synchronized (clients) {
-			clientsCopy = new HashSet<IChatClient>(clients);
+		return talk(client, message, null);
+	}
+
+	@Override
+	public TalkResult talk(IChatClient client, String message,
+			TraceContext trace) throws RemoteException {
+		return talk(client, message, 0, trace);
+	}
+
+	@Override
+	public TalkResult talk(final IChatClient client, String message,
+			long seq, TraceContext trace) throws RemoteException {
+		Participant participant = clients.get(client);
+
+		// acknowledge a retried message that has already been accepted
+		SequenceWindow talked = null;
+		if (participant != null && seq > 0) {
+			talked = participant.talked(TALK_WINDOW);
+			if (talked.contains(seq)) {
+				metrics.duplicateTalks.inc();
+				return TalkResult.DELIVERED;
+			}
+		}
+
+		// enforce the sender's rate limit
+		TokenBucket bucket = participant == null ? null : participant
+				.bucket(rateLimits);
+		if (bucket != null && !bucket.tryAcquire()) {
+			metrics.clientRateLimited.inc();
+			return TalkResult.CLIENT_RATE_LIMITED;
+		}
+
+		// enforce the chat room's rate limit
+		bucket = roomBucket;
+		if (bucket != null && !bucket.tryAcquire()) {
+			metrics.roomRateLimited.inc();
+			return TalkResult.ROOM_RATE_LIMITED;
+		}
+
+		// a retry may have raced the original past the rate limits
+		if (talked != null && !talked.accept(seq)) {
+			metrics.duplicateTalks.inc();
+			return TalkResult.DELIVERED;
+		}
+
+		String sender = null;
+		int senderId = 0;
+		if (participant != null) {
+			sender = participant.name;
+			senderId = participant.id;
+		} else {
+			try {
+				sender = guard.call(client, new RemoteCallGuard.Call<String>() {
+					@Override
+					public String call() throws RemoteException {
+						return client.getName();
+					}
+				});
+			} catch (RemoteException e) {
+				sender = "someone";
+			}
+		}
+
+		// recipients still in flight at the deadline are delivered to later
+		if (!broadcast(sender, participant, senderId, message,
+				MessagePriority.CHAT, trace).await(talkDeadline))
+			metrics.lateTalks.inc();
+
+		return TalkResult.DELIVERED;
+	}
+
+	/**
+	 * Records presence changes and schedules a presence notice unless one is
+	 * already pending.
+	 * 
+	 * @param clientNames
+	 *            the screen names of the clients that joined or left.
+	 * @param joined
+	 *            whether the clients joined or left.
+	 */
+	private void announce(List<String> clientNames, boolean joined) {
+		metrics.presenceChanges.add(clientNames.size());
+
+		synchronized (joinedNames) {
+			if (joined)
+				joinedNames.addAll(clientNames);
+			else
+				leftNames.addAll(clientNames);
+
+			if (presenceScheduled)
+				return;
+			presenceScheduled = true;
+		}
+
+		if (presenceInterval <= 0) {
+			flushPresence();
+			return;
+		}
+
+		getTimer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				flushPresence();
+			}
+		}, presenceInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Broadcasts a single notice covering the presence changes recorded since
+	 * the last one.
+	 */
+	private void flushPresence() {
+		List<String> joined = null;
+		List<String> left = null;
+		synchronized (joinedNames) {
+			joined = new ArrayList<String>(joinedNames);
+			left = new ArrayList<String>(leftNames);
+			joinedNames.clear();
+			leftNames.clear();
+			presenceScheduled = false;
 		}
 
+		if (joined.isEmpty() && left.isEmpty())
+			return;
+
 		String sender = null;
+		String notice = null;
+		if (joined.size() + left.size() == 1) {
+			// a lone change is announced by the client itself
+			sender = joined.isEmpty() ? left.get(0) : joined.get(0);
+			notice = joined.isEmpty() ? "(left)" : "(joined)";
+		} else {
+			sender = "admin";
+			notice = describePresence(joined, "joined");
+			if (!left.isEmpty())
+				notice = (notice.length() == 0 ? "" : notice + ", ")
+						+ describePresence(left, "left");
+		}
+
+		metrics.presenceNotices.inc();
+		broadcast(sender, null, 0, notice, MessagePriority.PRESENCE, null);
+	}
+
+	private static String describePresence(List<String> names, String verb) {
+		if (names.isEmpty())
+			return "";
+
+		if (names.size() > MAX_NAMES)
+			return names.size() + " users " + verb;
+
+		StringBuilder sb = new StringBuilder();
+		for (String n : names) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(n);
+		}
+		return sb.append(' ').append(verb).toString();
+	}
+
+	/**
+	 * Puts a message in the chat room's order for delivery to every
+	 * participant.
+	 * 
+	 * @param sender
+	 *            the screen name of the message's sender.
+	 * @param origin
+	 *            the sending participant or null.
+	 * @param senderId
+	 *            the sender's ID or 0 to send its screen name.
+	 * @param message
+	 *            the message to send.
+	 * @param priority
+	 *            the message's priority class.
+	 * @param trace
+	 *            the message's trace context or null if it isn't traced.
+	 * @return the broadcast, which may be awaited.
+	 */
+	private Broadcast broadcast(String sender, Participant origin,
+			int senderId, String message, MessagePriority priority,
+			TraceContext trace) {
+		Span fanOutSpan = Tracer.startSpan("room.fanout", Span.KIND_SERVER,
+				trace);
+		if (fanOutSpan != null)
+			fanOutSpan.setAttribute("chat.room", name);
+
+		Broadcast broadcast = new Broadcast(sender, origin, senderId, message,
+				priority, fanOutSpan) {
+			@Override
+			public void sequenced(long position) {
+				route(this, position);
+			}
+
+			@Override
+			void completed() {
+				// presence notices aren't counted as chat messages
+				if (this.priority == MessagePriority.CHAT) {
+					messageCount.incrementAndGet();
+					metrics.messages.inc();
+				}
+				metrics.fanOut.recordSince(start);
+				if (span != null)
+					span.end();
+			}
+		};
+		sequencer.publish(broadcast);
+		return broadcast;
+	}
+
+	/**
+	 * Stamps a broadcast with the next sequence number, indexes it if it is a
+	 * chat message and routes it to the delivery lane of every participant
+	 * that joined before it. Only the
+	 * sequencer's writer calls this.
+	 * 
+	 * @param broadcast
+	 *            the broadcast.
+	 * @param position
+	 *            the broadcast's sequencer position.
+	 */
+	private void route(Broadcast broadcast, long position) {
+		// untraced deliveries share a single envelope unless the recipient
+		// was sent something other than the previous broadcast
+		long seq = ++lastSeq;
+		ChatEnvelope envelope = new ChatEnvelope(name, getId(),
+				broadcast.sender, broadcast.senderId, seq, broadcast.message,
+				broadcast.priority, null);
+		retransmits.add(envelope);
+		if (broadcast.priority == MessagePriority.CHAT)
+			history.add(System.currentTimeMillis(), broadcast.sender,
+					broadcast.message);
+
+		for (final Participant p : clients) {
+			if (p.since >= position)
+				continue;
+
+			// skip participants whose filter rejects the message
+			CompiledFilter filter = p.filter;
+			if (filter != null
+					&& !filter.accepts(broadcast.sender, broadcast.message,
+							broadcast.priority)) {
+				metrics.filtered.inc();
+				continue;
+			}
+
+			ChatEnvelope routed = envelope;
+			if (p.lastSeq != 0 && p.lastSeq != seq - 1)
+				routed = envelope.withPrevious(p.lastSeq);
+			p.lastSeq = seq;
+
+			// tell the client the names behind IDs it hasn't been sent
+			if (introduce(p, envelope.getRoomId())
+					| introduce(p, broadcast.senderId))
+				routed = routed.withNames();
+
+			Span deliverSpan = broadcast.span == null ? null : Tracer
+					.startSpan("room.deliver", Span.KIND_CLIENT,
+							broadcast.span.context());
+			if (deliverSpan != null)
+				routed = routed.withTrace(deliverSpan.context());
+
+			// the sender's talk doesn't wait for its own lane, which may be
+			// busy with the delivery it is talking from
+			boolean awaited = p != broadcast.origin;
+			metrics.pendingDeliveries.increment();
+			if (awaited)
+				broadcast.routed();
+
+			final Delivery delivery = new Delivery(broadcast, routed,
+					deliverSpan, awaited);
+			if (!p.offer(delivery))
+				continue;
+
+			// the participant's lane was idle, start sending on another
+			// thread, the writer mustn't block on a delivery
+			lanes.execute(new Runnable() {
+				@Override
+				public void run() {
+					sendLane(p, delivery);
+				}
+			});
+		}
+
+		broadcast.done();
+	}
+
+	/**
+	 * Records that a participant is being sent an ID's name. Only the
+	 * sequencer's writer calls this.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param id
+	 *            the ID or 0.
+	 * @return true if the participant hasn't been sent the name before.
+	 */
+	private boolean introduce(Participant p, int id) {
+		if (id == 0)
+			return false;
+
+		if (p.introduced == null)
+			p.introduced = new IntSet();
+		return p.introduced.add(id);
+	}
+
+	/**
+	 * Sends a participant's deliveries in order until its lane is empty. The
+	 * caller must have been told to send by the participant.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param delivery
+	 *            the first delivery.
+	 */
+	private void sendLane(Participant p, Delivery delivery) {
+		boolean reachable = true;
+		do {
+			try {
+				// a participant that has left or been evicted is sent nothing
+				// more
+				if (reachable && clients.get(p.client) == p) {
+					Outbox outbox = p.outbox;
+					if (outbox == null)
+						reachable = deliver(p, delivery.envelope,
+								delivery.span);
+					else
+						enqueue(p, outbox, delivery.envelope);
+				}
+			} catch (RuntimeException e) {
+				// the deliveries behind this one are still owed
+				e.printStackTrace();
+			} finally {
+				metrics.pendingDeliveries.decrement();
+				if (delivery.span != null)
+					delivery.span.end();
+				if (delivery.awaited)
+					delivery.broadcast.done();
+			}
+		} while ((delivery = p.nextDelivery()) != null);
+	}
+
+	/**
+	 * Delivers a message to a single participant. A failed delivery is
+	 * retransmitted later, unless too many attempts have failed in a row, in
+	 * which case the participant is evicted.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param envelope
+	 *            the message, carrying the delivery's trace context if it is
+	 *            traced.
+	 * @param deliverSpan
+	 *            the delivery's span or null if it isn't traced.
+	 * @return false if the participant has been evicted.
+	 */
+	private boolean deliver(Participant p, ChatEnvelope envelope,
+			Span deliverSpan) {
 		try {
-			sender = client.getName();
+			send(p, envelope);
+			p.delivered();
+			return true;
 		} catch (RemoteException e) {
-			sender = "someone";
+			if (deliverSpan != null)
+				deliverSpan.setError();
+			return failed(p, envelope.getSeq());
+		}
+	}
+
+	/**
+	 * Handles a failed delivery, scheduling its retransmission or evicting
+	 * the participant.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param seq
+	 *            the delivery's sequence number.
+	 * @return false if the participant has been evicted.
+	 */
+	private boolean failed(Participant p, long seq) {
+		metrics.deliveryFailures.inc();
+
+		int failures = p.failed(seq);
+		if (failures < deliveryAttempts) {
+			scheduleRetransmit(p, failures);
+			return true;
+		}
+
+		// the client is unreachable
+		if (leaveAll(Collections.singletonList(p.client))[0]) {
+			metrics.deadClientEvictions.inc();
+
+			// cleanup this client who has died unexpectedly
+			delegate.cleanup(p.client);
 		}
-		for (IChatClient c : clientsCopy) {
+		return false;
+	}
+
+	/**
+	 * Calls a participant's deliver through the guard.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param envelope
+	 *            the message.
+	 */
+	private void send(final Participant p, final ChatEnvelope envelope)
+			throws RemoteException {
+		guard.call(p.client, new RemoteCallGuard.Call<Void>() {
+			@Override
+			public Void call() throws RemoteException {
+				p.client.deliver(envelope);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Schedules the retransmission of a participant's failed deliveries,
+	 * backing off exponentially with the number of failed attempts.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param failures
+	 *            the number of attempts that have failed in a row.
+	 */
+	private void scheduleRetransmit(final Participant p, int failures) {
+		if (!p.scheduleRetransmit())
+			return;
+
+		getTimer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				p.retransmitStarted();
+				try {
+					ChatExecutors.fanOut().execute(new Runnable() {
+						@Override
+						public void run() {
+							retransmit(p);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					retransmit(p);
+				}
+			}
+		}, RETRANSMIT_DELAY << (failures - 1), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a participant the broadcasts whose delivery failed, oldest first.
+	 * 
+	 * @param p
+	 *            the participant.
+	 */
+	private void retransmit(Participant p) {
+		// a participant that has left is owed nothing
+		if (clients.get(p.client) != p)
+			return;
+
+		long[] missing = p.takeMissing();
+		for (int i = 0; i < missing.length; i++) {
+			ChatEnvelope envelope = retransmits.get(missing[i]);
+			if (envelope == null) {
+				metrics.retransmitsExpired.inc();
+				continue;
+			}
+
 			try {
-				c.deliver(name, sender, message);
-			} catch (RemoteException e) {
-				// the client is unreachable
-				leave(c);
+				// the original may have been the one that carried the names
+				send(p, envelope.withNames());
+				p.delivered();
+				metrics.retransmits.inc();
 
-				// cleanup this client who has died unexpectedly
-				delegate.cleanup(c);
+			} catch (RemoteException e) {
+				// the rest wait for the next attempt
+				for (int j = i + 1; j < missing.length; j++)
+					p.missed(missing[j]);
+				failed(p, missing[i]);
+				return;
 			}
 		}
+	}
 
-		messageCount++;
-		return true;
+	/**
+	 * Queues a delivery in a participant's outbox and sends whatever the
+	 * participant has requested.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param outbox
+	 *            the participant's outbox.
+	 * @param envelope
+	 *            the message.
+	 */
+	private void enqueue(Participant p, Outbox outbox, ChatEnvelope envelope) {
+		int dropped = outbox.offer(envelope);
+		metrics.queuedDeliveries.add(1 - dropped);
+		if (dropped > 0)
+			metrics.shed.add(dropped);
+
+		if (outbox.claim())
+			sendQueued(p, outbox);
+	}
+
+	/**
+	 * Sends queued deliveries while the participant has credit. The caller
+	 * must have claimed the outbox.
+	 * 
+	 * @param p
+	 *            the participant.
+	 * @param outbox
+	 *            the participant's outbox.
+	 */
+	private void sendQueued(Participant p, Outbox outbox) {
+		ChatEnvelope envelope;
+		while ((envelope = outbox.next()) != null) {
+			metrics.queuedDeliveries.decrement();
+
+			// an unreachable participant has been evicted, its outbox with it
+			if (!deliver(p, envelope, null))
+				return;
+		}
 	}
 
 	@Override
 	public boolean leave(IChatClient client) throws RemoteException {
+		return leaveAll(Collections.singletonList(client))[0];
+	}
+
+	@Override
+	public boolean[] leaveAll(List<IChatClient> clientList) {
+		boolean[] left = new boolean[clientList.size()];
+		List<String> departures = new ArrayList<String>(left.length);
 		synchronized (clients) {
-			if (!clients.contains(client))
-				return false;
+			for (int i = 0; i < left.length; i++) {
+				Participant participant = clients.remove(clientList.get(i));
+				if (participant == null)
+					continue;
+
+				left[i] = true;
+				departures.add(participant.name);
+				guard.forget(participant.client);
 
-			clients.remove(client);
+				Outbox outbox = participant.outbox;
+				if (outbox != null)
+					metrics.queuedDeliveries.add(-outbox.size());
+			}
 
-			if (clients.size() == 0) {
+			if (open && !departures.isEmpty() && clients.size() == 0) {
 				open = false;
+				MetricsRegistry.unregister(metricsName);
+				MetricsRegistry.unregister(guardMetricsName);
 				delegate.close(this);
 			}
 		}
 
-		// alert participants that the client has left
-		talk(client, "(left)");
+		// alert participants that clients have left
+		if (!departures.isEmpty())
+			announce(departures, false);
 
-		return true;
+		return left;
 	}
 
 	@Override
-	public void empty() throws RemoteException {
-		open = false;
+	public List<SearchHit> search(String query, int limit)
+			throws RemoteException {
+		long start = System.nanoTime();
+		try {
+			return history.search(query, Math.min(limit, MAX_SEARCH_LIMIT));
+		} finally {
+			metrics.searches.recordSince(start);
+		}
+	}
 
-		// notify participating chat clients that the chat room is closing
-		Set<IChatClient> clientsCopy = null;
+	@Override
+	public void empty() throws RemoteException {
+		List<IChatClient> clientsCopy = null;
 		synchronized (clients) {
-			clientsCopy = new HashSet<IChatClient>(clients);
+			// the last participant may have closed the chat room already
+			if (!open)
+				return;
+
+			open = false;
+			MetricsRegistry.unregister(metricsName);
+			MetricsRegistry.unregister(guardMetricsName);
+
+			clientsCopy = clients.clients();
 		}
 
-		for (IChatClient c : clientsCopy) {
+		// notify participating chat clients that the chat room is closing
+
+		for (final IChatClient c : clientsCopy) {
 			try {
-				c.closed(name);
+				guard.call(c, new RemoteCallGuard.Call<Void>() {
+					@Override
+					public Void call() throws RemoteException {
+						c.closed(name);
+						return null;
+					}
+				});
 			} catch (RemoteException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
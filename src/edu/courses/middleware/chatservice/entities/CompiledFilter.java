@@ -0,0 +1,70 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.util.Set;
+
+/**
+ * A CompiledFilter is the form of a DeliveryFilter evaluated by a ChatRoom for
+ * every delivery. Everything that can be decided ahead of time is, so
+ * accepting a message costs at most a hash lookup and a scan of the message
+ * per search term.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class CompiledFilter {
+	/** The screen names of muted senders (null if none are muted). */
+	private final Set<String> muted;
+
+	/** Whether or not presence notices are accepted. */
+	private final boolean presence;
+
+	/** A chat message must contain one of these (null accepts all). */
+	private final String[] terms;
+
+	CompiledFilter(Set<String> muted, boolean presence, String[] terms) {
+		this.muted = muted;
+		this.presence = presence;
+		this.terms = terms;
+	}
+
+	/**
+	 * Decides whether a message should be delivered.
+	 * 
+	 * @param sender
+	 *            the sender's screen name.
+	 * @param message
+	 *            the message.
+	 * @param priority
+	 *            the message's priority class.
+	 * @return true if the message should be delivered.
+	 */
+	boolean accepts(String sender, String message, MessagePriority priority) {
+		if (priority == MessagePriority.CONTROL)
+			return true;
+
+		if (priority == MessagePriority.PRESENCE)
+			return presence;
+
+		if (muted != null && muted.contains(sender))
+			return false;
+
+		if (terms == null)
+			return true;
+
+		for (String term : terms) {
+			if (containsIgnoreCase(message, term))
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean containsIgnoreCase(String text, String term) {
+		int last = text.length() - term.length();
+		for (int i = 0; i <= last; i++) {
+			if (text.regionMatches(true, i, term, 0, term.length()))
+				return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,33 @@
+package edu.courses.middleware.chatservice.entities;
+
+import edu.courses.middleware.chatservice.tracing.Span;
+
+/**
+ * A Delivery is a Broadcast's message routed to one recipient, waiting in
+ * the recipient's delivery lane behind the messages sequenced before it.
+ *
+ * @author Jonas Michel
+ *
+ */
+class Delivery {
+	/** The broadcast the delivery belongs to. */
+	final Broadcast broadcast;
+
+	/** The recipient's envelope. */
+	final ChatEnvelope envelope;
+
+	/** The delivery's span or null if it isn't traced. */
+	final Span span;
+
+	/** Whether or not the broadcast waits for the delivery. */
+	final boolean awaited;
+
+	Delivery(Broadcast broadcast, ChatEnvelope envelope, Span span,
+			boolean awaited) {
+		this.broadcast = broadcast;
+		this.envelope = envelope;
+		this.span = span;
+		this.awaited = awaited;
+	}
+
+}
@@ -0,0 +1,105 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A DeliveryFilter describes which of a chat room's messages a participant
+ * wishes to receive. Filters are evaluated by the ChatRoom before a message is
+ * delivered, so filtered messages never cross the network.
+ * 
+ * A filter may mute any number of senders, suppress presence notices and
+ * restrict chat messages to those that mention the participant's screen name
+ * or contain one of a set of keywords (ignoring case). Control notices are
+ * always delivered.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class DeliveryFilter implements Serializable {
+	private static final long serialVersionUID = 4415038093417624186L;
+
+	/** The chat messages a filter accepts. */
+	public enum Mode {
+		/** Every chat message. */
+		ALL,
+
+		/** Only chat messages mentioning the participant's screen name. */
+		MENTIONS,
+
+		/** Only chat messages containing one of the filter's keywords. */
+		KEYWORDS;
+	}
+
+	/** A filter that accepts every message. */
+	public static final DeliveryFilter ALL = new DeliveryFilter(
+			Collections.<String> emptySet(), true, Mode.ALL,
+			Collections.<String> emptySet());
+
+	/** The screen names of muted senders. */
+	private Set<String> muted;
+
+	/** Whether or not presence notices are delivered. */
+	private boolean presence;
+
+	/** The chat messages accepted. */
+	private Mode mode;
+
+	/** The keywords accepted in KEYWORDS mode. */
+	private Set<String> keywords;
+
+	public DeliveryFilter(Set<String> muted, boolean presence, Mode mode,
+			Set<String> keywords) {
+		this.muted = new HashSet<String>(muted);
+		this.presence = presence;
+		this.mode = mode;
+		this.keywords = new HashSet<String>(keywords);
+	}
+
+	public Set<String> getMuted() {
+		return Collections.unmodifiableSet(muted);
+	}
+
+	public boolean isPresence() {
+		return presence;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public Set<String> getKeywords() {
+		return Collections.unmodifiableSet(keywords);
+	}
+
+	/**
+	 * Compiles the filter for a participant.
+	 * 
+	 * @param screenName
+	 *            the participant's screen name.
+	 * @return the compiled filter or null if the filter accepts every
+	 *         message.
+	 */
+	CompiledFilter compile(String screenName) {
+		if (muted.isEmpty() && presence && mode == Mode.ALL)
+			return null;
+
+		String[] terms = null;
+		if (mode == Mode.MENTIONS)
+			terms = new String[] { screenName };
+		else if (mode == Mode.KEYWORDS)
+			terms = keywords.toArray(new String[keywords.size()]);
+
+		return new CompiledFilter(muted.isEmpty() ? null
+				: new HashSet<String>(muted), presence, terms);
+	}
+
+	@Override
+	public String toString() {
+		return "DeliveryFilter [muted=" + muted + ", presence=" + presence
+				+ ", mode=" + mode + ", keywords=" + keywords + "]";
+	}
+
+}
@@ -3,6 +3,8 @@ package edu.courses.middleware.chatservice.entities;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 
+import edu.courses.middleware.chatservice.concurrent.TimeoutSocketFactory;
+
 /**
  * This class must be extended to define components that may be registered in
  * the chat service.
@@ -13,8 +15,29 @@ import java.rmi.server.UnicastRemoteObject;
 public abstract class Entity extends UnicastRemoteObject implements IEntity {
 	private static final long serialVersionUID = 7604250362221746391L;
 
+	/** The entity's numeric ID (0 until registered). */
+	private volatile int id;
+
 	protected Entity() throws RemoteException {
-		super();
+		// callers' sockets time out, so calls they abandon don't pile up
+		super(0, TimeoutSocketFactory.fromSystemProperties(), null);
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Records the numeric ID the ChatRegistry returned when the entity was
+	 * registered. IDs are sent on the wire in place of names. This isn't
+	 * part of IEntity, so the holder of a stub can't change the ID.
+	 * 
+	 * @param id
+	 *            the entity's ID.
+	 */
+	public void setId(int id) {
+		this.id = id;
 	}
 
 }
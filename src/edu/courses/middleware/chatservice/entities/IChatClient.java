@@ -25,6 +25,16 @@ public interface IChatClient extends IEntity {
 	public void deliver(String room, String sender, String message)
 			throws RemoteException;
 
+	/**
+	 * Delivers a chat room message, along with its priority class and trace
+	 * context, to the chat client.
+	 * 
+	 * @param envelope
+	 *            the chat message and its delivery metadata.
+	 * @throws RemoteException
+	 */
+	public void deliver(ChatEnvelope envelope) throws RemoteException;
+
 	/**
 	 * Notifies a chat client that a chat room has closed.
 	 * 
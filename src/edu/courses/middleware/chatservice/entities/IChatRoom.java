@@ -1,6 +1,10 @@
 package edu.courses.middleware.chatservice.entities;
 
 import java.rmi.RemoteException;
+import java.util.List;
+
+import edu.courses.middleware.chatservice.search.SearchHit;
+import edu.courses.middleware.chatservice.tracing.TraceContext;
 
 /**
  * This is the remote interface exposed by ChatRooms in addition to the IEntity
@@ -21,6 +25,62 @@ public interface IChatRoom extends IEntity {
 	 */
 	public boolean join(IChatClient client) throws RemoteException;
 
+	/**
+	 * Allows a number of chat clients to join the chat room at once. Their
+	 * arrival is announced to the chat room's participants in a single
+	 * presence notice.
+	 * 
+	 * @param clients
+	 *            the chat clients that wish to join the chat room.
+	 * @return for each chat client, true if it successfully joined the chat
+	 *         room.
+	 * @throws RemoteException
+	 */
+	public boolean[] joinAll(List<IChatClient> clients) throws RemoteException;
+
+	/**
+	 * Allows a new chat client to join the chat room, receiving only the
+	 * messages accepted by a filter.
+	 * 
+	 * @param client
+	 *            the chat client that wishes to join the chat room.
+	 * @param filter
+	 *            selects the messages delivered to the chat client.
+	 * @return true if the chat client successfully joined the chat room.
+	 * @throws RemoteException
+	 */
+	public boolean join(IChatClient client, DeliveryFilter filter)
+			throws RemoteException;
+
+	/**
+	 * Replaces a joined chat client's delivery filter.
+	 * 
+	 * @param client
+	 *            a joined chat client.
+	 * @param filter
+	 *            selects the messages delivered to the chat client.
+	 * @return true if the chat client has joined the chat room.
+	 * @throws RemoteException
+	 */
+	public boolean setFilter(IChatClient client, DeliveryFilter filter)
+			throws RemoteException;
+
+	/**
+	 * Requests further deliveries for a joined chat client. Once a chat client
+	 * has made a request the chat room only delivers as many messages as it
+	 * has requested, holding the rest in a bounded outbox that sheds load when
+	 * full. Chat clients that never make a request receive every message.
+	 * 
+	 * @param client
+	 *            a joined chat client.
+	 * @param n
+	 *            the number of further deliveries requested, 0 just enables
+	 *            backpressure.
+	 * @return true if the chat client has joined the chat room.
+	 * @throws RemoteException
+	 */
+	public boolean request(IChatClient client, long n) throws RemoteException;
+
 	/**
 	 * Allows a joined client to send a message to the chat room's participants.
 	 * 
@@ -28,13 +88,52 @@ public interface IChatRoom extends IEntity {
 	 *            the chat client sending the message.
 	 * @param message
 	 *            the message to send.
-	 * @return true if the message was successfully delivered to the chat room's
-	 *         participants.
+	 * @return DELIVERED if the message was successfully delivered to the chat
+	 *         room's participants, or the reason it was rejected.
 	 * @throws RemoteException
 	 */
-	public boolean talk(IChatClient client, String message)
+	public TalkResult talk(IChatClient client, String message)
 			throws RemoteException;
 
+	/**
+	 * Allows a joined client to send a traced message to the chat room's
+	 * participants.
+	 * 
+	 * @param client
+	 *            the chat client sending the message.
+	 * @param message
+	 *            the message to send.
+	 * @param trace
+	 *            the message's trace context or null if it isn't traced.
+	 * @return DELIVERED if the message was successfully delivered to the chat
+	 *         room's participants, or the reason it was rejected.
+	 * @throws RemoteException
+	 */
+	public TalkResult talk(IChatClient client, String message,
+			TraceContext trace) throws RemoteException;
+
+	/**
+	 * Allows a joined client to send a message that it may safely retry. The
+	 * chat room remembers the most recent sequence numbers of each
+	 * participant, so a retried message the chat room has already accepted
+	 * is acknowledged without being sent again.
+	 * 
+	 * @param client
+	 *            the chat client sending the message.
+	 * @param message
+	 *            the message to send.
+	 * @param seq
+	 *            the sender's sequence number for the message (starting at 1)
+	 *            or 0 if the message mustn't be deduplicated.
+	 * @param trace
+	 *            the message's trace context or null if it isn't traced.
+	 * @return DELIVERED if the message was (or had already been) delivered to
+	 *         the chat room's participants, or the reason it was rejected.
+	 * @throws RemoteException
+	 */
+	public TalkResult talk(IChatClient client, String message, long seq,
+			TraceContext trace) throws RemoteException;
+
 	/**
 	 * Allows a joined chat client to leave the chat room.
 	 * 
@@ -45,6 +144,32 @@ public interface IChatRoom extends IEntity {
 	 */
 	public boolean leave(IChatClient client) throws RemoteException;
 
+	/**
+	 * Allows a number of joined chat clients to leave the chat room at once.
+	 * 
+	 * @param clients
+	 *            the chat clients that wish to leave the chat room.
+	 * @return for each chat client, true if it successfully left the chat
+	 *         room.
+	 * @throws RemoteException
+	 */
+	public boolean[] leaveAll(List<IChatClient> clients)
+			throws RemoteException;
+
+	/**
+	 * Finds the chat room's most recent messages matching a query.
+	 * 
+	 * @param query
+	 *            the words to find; a word of the form from:name matches the
+	 *            messages sent by name.
+	 * @param limit
+	 *            the largest number of messages to return.
+	 * @return the matching messages, most recent first.
+	 * @throws RemoteException
+	 */
+	public List<SearchHit> search(String query, int limit)
+			throws RemoteException;
+
 	/**
 	 * Called to gracefully close the chat room.
 	 */
@@ -21,6 +21,14 @@ public interface IEntity extends Remote {
 	 */
 	public String getName() throws RemoteException;
 
+	/**
+	 * Returns the numeric ID the ChatRegistry assigned the entity.
+	 * 
+	 * @return the entity's ID or 0 if it isn't registered.
+	 * @throws RemoteException
+	 */
+	public int getId() throws RemoteException;
+
 	/**
 	 * Returns information about the entity.
 	 * 
@@ -0,0 +1,18 @@
+package edu.courses.middleware.chatservice.entities;
+
+/**
+ * The priority classes of delivered messages, from most to least urgent.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public enum MessagePriority {
+	/** Control notices (e.g., a chat room closing) that bypass any backlog. */
+	CONTROL,
+
+	/** Ordinary chat messages. */
+	CHAT,
+
+	/** Presence notices (joins and leaves) that may be coalesced. */
+	PRESENCE;
+}
@@ -0,0 +1,125 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * An Outbox holds the deliveries a ChatRoom owes a participant that exerts
+ * backpressure. The participant grants credits by requesting deliveries, and
+ * each delivery sent consumes one credit. Deliveries made while the
+ * participant has no credit wait in the outbox, which sheds load when it is
+ * full: queued presence notices are dropped first, then the oldest chat
+ * messages. Control messages are never dropped.
+ *
+ * At most one thread sends from an outbox at a time, so a participant
+ * receives its deliveries in order.
+ *
+ * @author Jonas Michel
+ *
+ */
+class Outbox {
+	/** The deliveries waiting for credit, oldest first. */
+	private ArrayDeque<ChatEnvelope> queue;
+
+	/** The largest number of deliveries kept. */
+	private int capacity;
+
+	/** The number of deliveries the participant has requested. */
+	private long credits;
+
+	/** Whether or not a thread is sending from the outbox. */
+	private boolean sending;
+
+	Outbox(int capacity) {
+		this.capacity = capacity;
+		queue = new ArrayDeque<ChatEnvelope>();
+	}
+
+	/**
+	 * Queues a delivery, dropping another (or this one) if the outbox is full.
+	 *
+	 * @param envelope
+	 *            the delivery.
+	 * @return the number of deliveries dropped (0 or 1).
+	 */
+	synchronized int offer(ChatEnvelope envelope) {
+		queue.addLast(envelope);
+		if (queue.size() <= capacity)
+			return 0;
+
+		// shed the oldest presence notice, or failing that the oldest chat
+		// message (which may be the one just queued)
+		ChatEnvelope victim = null;
+		for (ChatEnvelope queued : queue) {
+			if (queued.getPriority() == MessagePriority.PRESENCE) {
+				victim = queued;
+				break;
+			}
+			if (victim == null && queued.getPriority() == MessagePriority.CHAT)
+				victim = queued;
+		}
+		if (victim == null)
+			return 0;
+
+		for (Iterator<ChatEnvelope> i = queue.iterator(); i.hasNext();) {
+			if (i.next() == victim) {
+				i.remove();
+				break;
+			}
+		}
+		return 1;
+	}
+
+	/**
+	 * Adds to the participant's credit.
+	 *
+	 * @param n
+	 *            the number of deliveries requested.
+	 */
+	synchronized void grant(long n) {
+		credits += n;
+		if (credits < 0)
+			credits = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Claims the right to send from the outbox.
+	 *
+	 * @return true if the caller must now send deliveries, false if another
+	 *         thread is already sending or there is nothing to send.
+	 */
+	synchronized boolean claim() {
+		if (sending || credits == 0 || queue.isEmpty())
+			return false;
+
+		sending = true;
+		return true;
+	}
+
+	/**
+	 * Takes the next delivery to send, consuming a credit. Once this returns
+	 * null the caller no longer holds the right to send.
+	 *
+	 * @return the next delivery or null if there is no credit or nothing to
+	 *         send.
+	 */
+	synchronized ChatEnvelope next() {
+		if (credits == 0 || queue.isEmpty()) {
+			sending = false;
+			return null;
+		}
+
+		credits--;
+		return queue.pollFirst();
+	}
+
+	/**
+	 * Returns the number of deliveries waiting for credit.
+	 *
+	 * @return the outbox's size.
+	 */
+	synchronized int size() {
+		return queue.size();
+	}
+
+}
@@ -0,0 +1,233 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import edu.courses.middleware.chatservice.util.IntSet;
+import edu.courses.middleware.chatservice.util.SequenceWindow;
+
+/**
+ * A Participant holds a ChatRoom's per-client state. State that most
+ * participants of a large chat room never need, their rate limiter, outbox
+ * and delivery lane, is only created once they talk, exert backpressure or
+ * fall behind.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class Participant {
+	/** The participating chat client. */
+	final IChatClient client;
+
+	/** The client's screen name. */
+	final String name;
+
+	/** The client's ID (0 if it isn't registered). */
+	final int id;
+
+	/** The participant's slot in its ParticipantTable. */
+	int slot;
+
+	/** Limits the client's message rate (null until the client talks). */
+	private TokenBucket bucket;
+
+	/** The rate limits the bucket enforces. */
+	private RateLimits bucketLimits;
+
+	/** Selects the messages delivered to the client (null accepts all). */
+	volatile CompiledFilter filter;
+
+	/** Holds deliveries awaiting the client's demand (null if it exerts none). */
+	volatile Outbox outbox;
+
+	/** The sequence numbers the client has talked with (null until it does). */
+	private SequenceWindow talked;
+
+	/** The sequence numbers of failed deliveries awaiting retransmission. */
+	private long[] missing;
+	private int missingCount;
+
+	/** The number of delivery attempts that failed in a row. */
+	private volatile int failures;
+
+	/** Whether or not a retransmission is scheduled. */
+	private boolean retransmitScheduled;
+
+	/**
+	 * The sequencer position of the client's join, it is sent only what is
+	 * sequenced after it. Only the chat room's sequencer writer touches it.
+	 */
+	long since = Long.MAX_VALUE;
+
+	/** The last sequence number routed to the client (0 if none has been). */
+	long lastSeq;
+
+	/**
+	 * The IDs whose names the client has been sent (null until any have).
+	 * Only the chat room's sequencer writer touches it.
+	 */
+	IntSet introduced;
+
+	/** Deliveries waiting behind the one being sent (null until any have). */
+	private ArrayDeque<Delivery> lane;
+
+	/** Whether or not a thread is sending the client's deliveries. */
+	private boolean sending;
+
+	Participant(IChatClient client, String name, int id, CompiledFilter filter) {
+		this.client = client;
+		this.name = name;
+		this.id = id;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns the token bucket limiting the client's message rate, creating
+	 * it afresh if the chat room's rate limits have changed since it was
+	 * created.
+	 *
+	 * @param rateLimits
+	 *            the chat room's current rate limits.
+	 * @return the token bucket or null if the client's rate is unlimited.
+	 */
+	synchronized TokenBucket bucket(RateLimits rateLimits) {
+		if (bucketLimits != rateLimits) {
+			bucket = rateLimits.newClientBucket();
+			bucketLimits = rateLimits;
+		}
+		return bucket;
+	}
+
+	/**
+	 * Returns the window of sequence numbers the client has talked with,
+	 * creating it if necessary.
+	 * 
+	 * @param size
+	 *            the window's size.
+	 * @return the client's window.
+	 */
+	synchronized SequenceWindow talked(int size) {
+		if (talked == null)
+			talked = new SequenceWindow(size);
+		return talked;
+	}
+
+	/**
+	 * Records a failed delivery.
+	 * 
+	 * @param seq
+	 *            the delivery's sequence number.
+	 * @return the number of delivery attempts that have failed in a row.
+	 */
+	synchronized int failed(long seq) {
+		missed(seq);
+		return ++failures;
+	}
+
+	/**
+	 * Records a delivery still owed to the client without counting a failed
+	 * attempt.
+	 * 
+	 * @param seq
+	 *            the delivery's sequence number.
+	 */
+	synchronized void missed(long seq) {
+		if (missing == null)
+			missing = new long[4];
+
+		boolean known = false;
+		for (int i = 0; i < missingCount && !known; i++)
+			known = missing[i] == seq;
+
+		if (!known) {
+			if (missingCount == missing.length) {
+				long[] grown = new long[missing.length * 2];
+				System.arraycopy(missing, 0, grown, 0, missingCount);
+				missing = grown;
+			}
+			missing[missingCount++] = seq;
+		}
+	}
+
+	/**
+	 * Records a successful delivery.
+	 */
+	void delivered() {
+		// most deliveries follow a successful one, don't lock for them
+		if (failures == 0)
+			return;
+
+		synchronized (this) {
+			failures = 0;
+		}
+	}
+
+	/**
+	 * Takes the sequence numbers of the failed deliveries, oldest first.
+	 * 
+	 * @return the sequence numbers (possibly none).
+	 */
+	synchronized long[] takeMissing() {
+		long[] taken = new long[missingCount];
+		if (missingCount > 0) {
+			System.arraycopy(missing, 0, taken, 0, missingCount);
+			Arrays.sort(taken);
+		}
+		missing = null;
+		missingCount = 0;
+		return taken;
+	}
+
+	/**
+	 * Claims the right to schedule a retransmission.
+	 * 
+	 * @return true if none was scheduled.
+	 */
+	synchronized boolean scheduleRetransmit() {
+		if (retransmitScheduled)
+			return false;
+
+		retransmitScheduled = true;
+		return true;
+	}
+
+	/**
+	 * Returns the right to schedule a retransmission.
+	 */
+	synchronized void retransmitStarted() {
+		retransmitScheduled = false;
+	}
+
+	/**
+	 * Queues a delivery behind those being sent to the client.
+	 * 
+	 * @param delivery
+	 *            the delivery.
+	 * @return true if no thread is sending, in which case the caller must
+	 *         send the delivery and then those returned by nextDelivery.
+	 */
+	synchronized boolean offer(Delivery delivery) {
+		if (!sending) {
+			sending = true;
+			return true;
+		}
+
+		if (lane == null)
+			lane = new ArrayDeque<Delivery>();
+		lane.addLast(delivery);
+		return false;
+	}
+
+	/**
+	 * Takes the next delivery to send, giving up sending if there is none.
+	 * 
+	 * @return the delivery or null.
+	 */
+	synchronized Delivery nextDelivery() {
+		Delivery delivery = lane == null ? null : lane.pollFirst();
+		if (delivery == null)
+			sending = false;
+		return delivery;
+	}
+
+}
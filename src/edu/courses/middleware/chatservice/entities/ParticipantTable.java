@@ -0,0 +1,262 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ParticipantTable holds a ChatRoom's participants in two flat arrays
+ * rather than a hash map of entries, so a participant costs a few array slots
+ * on top of its Participant and stub instead of a map node.
+ *
+ * Participants are listed in a dense member array: a participant keeps its
+ * slot for as long as it participates and the slots of departed participants
+ * are reused by later arrivals. Broadcasts iterate the member array directly
+ * instead of copying the participants for every message. Participants are
+ * found by chat client through an open-addressing index that marks removed
+ * entries instead of moving others.
+ *
+ * Participants keep the stubs their chat clients joined with. Every
+ * broadcast is sent to every participant and talks are matched by stub, so
+ * keeping stubs marshalled until first needed would only delay their cost.
+ *
+ * Lookups and iteration take no lock and never miss a participant that is
+ * neither arriving nor departing. Changes are serialized on the table, which
+ * the ChatRoom also uses as its participants lock.
+ *
+ * @author Jonas Michel
+ *
+ */
+class ParticipantTable implements Iterable<Participant> {
+	/** Marks an index slot whose participant has been removed. */
+	private static final Participant REMOVED = new Participant(null, null, 0,
+			null);
+
+	/** The participants by hash of their chat client, probed linearly. */
+	private volatile AtomicReferenceArray<Participant> index;
+
+	/** The participants by slot, null where a slot is free. */
+	private volatile AtomicReferenceArray<Participant> members;
+
+	/** The number of member slots ever used. */
+	private volatile int limit;
+
+	/** The member slots freed by departed participants. */
+	private int[] free;
+	private int freeCount;
+
+	/** The number of participants. */
+	private volatile int size;
+
+	/** The number of index slots marked removed. */
+	private int removed;
+
+	ParticipantTable() {
+		index = new AtomicReferenceArray<Participant>(16);
+		members = new AtomicReferenceArray<Participant>(8);
+		free = new int[8];
+	}
+
+	private static int hash(IChatClient client) {
+		int h = client.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns a chat client's participant.
+	 *
+	 * @param client
+	 *            the chat client.
+	 * @return the participant or null if the chat client doesn't participate.
+	 */
+	Participant get(IChatClient client) {
+		AtomicReferenceArray<Participant> table = index;
+		int mask = table.length() - 1;
+		for (int i = hash(client) & mask;; i = (i + 1) & mask) {
+			Participant p = table.get(i);
+			if (p == null)
+				return null;
+			if (p != REMOVED && p.client.equals(client))
+				return p;
+		}
+	}
+
+	boolean contains(IChatClient client) {
+		return get(client) != null;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a participant.
+	 *
+	 * @param participant
+	 *            the participant.
+	 * @return false if its chat client already participates.
+	 */
+	synchronized boolean add(Participant participant) {
+		if (get(participant.client) != null)
+			return false;
+
+		// keep at least half the index empty so that probes stay short
+		if ((size + removed + 1) * 2 > index.length())
+			rehash();
+
+		AtomicReferenceArray<Participant> table = index;
+		int mask = table.length() - 1;
+		int i = hash(participant.client) & mask;
+		while (table.get(i) != null && table.get(i) != REMOVED)
+			i = (i + 1) & mask;
+		if (table.get(i) == REMOVED)
+			removed--;
+
+		int slot;
+		if (freeCount > 0) {
+			slot = free[--freeCount];
+		} else {
+			slot = limit;
+			if (slot == members.length())
+				members = grow(members, slot * 2);
+		}
+
+		participant.slot = slot;
+		members.set(slot, participant);
+		table.set(i, participant);
+
+		if (slot == limit)
+			limit = slot + 1;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes a chat client's participant.
+	 *
+	 * @param client
+	 *            the chat client.
+	 * @return the removed participant or null if the chat client didn't
+	 *         participate.
+	 */
+	synchronized Participant remove(IChatClient client) {
+		AtomicReferenceArray<Participant> table = index;
+		int mask = table.length() - 1;
+		for (int i = hash(client) & mask;; i = (i + 1) & mask) {
+			Participant p = table.get(i);
+			if (p == null)
+				return null;
+			if (p == REMOVED || !p.client.equals(client))
+				continue;
+
+			table.set(i, REMOVED);
+			removed++;
+			members.set(p.slot, null);
+
+			if (freeCount == free.length) {
+				int[] grown = new int[free.length * 2];
+				System.arraycopy(free, 0, grown, 0, freeCount);
+				free = grown;
+			}
+			free[freeCount++] = p.slot;
+
+			size--;
+			return p;
+		}
+	}
+
+	/**
+	 * Returns the participating chat clients.
+	 *
+	 * @return a copy of the participating chat clients.
+	 */
+	List<IChatClient> clients() {
+		List<IChatClient> clients = new ArrayList<IChatClient>(size);
+		for (Participant p : this)
+			clients.add(p.client);
+		return clients;
+	}
+
+	/**
+	 * Rebuilds the index without removed marks, doubling it if it is more
+	 * than a quarter full.
+	 */
+	private void rehash() {
+		int capacity = index.length();
+		if (size * 4 > capacity)
+			capacity *= 2;
+
+		AtomicReferenceArray<Participant> table = new AtomicReferenceArray<Participant>(
+				capacity);
+		int mask = capacity - 1;
+		for (Participant p : this) {
+			int i = hash(p.client) & mask;
+			while (table.get(i) != null)
+				i = (i + 1) & mask;
+			table.set(i, p);
+		}
+
+		index = table;
+		removed = 0;
+	}
+
+	private static AtomicReferenceArray<Participant> grow(
+			AtomicReferenceArray<Participant> array, int capacity) {
+		AtomicReferenceArray<Participant> grown = new AtomicReferenceArray<Participant>(
+				capacity);
+		for (int i = 0; i < array.length(); i++)
+			grown.set(i, array.get(i));
+		return grown;
+	}
+
+	/**
+	 * Returns an iterator over the participants. The iterator sees every
+	 * participant that takes part for the whole iteration, participants
+	 * arriving or departing meanwhile may or may not be seen.
+	 */
+	@Override
+	public Iterator<Participant> iterator() {
+		final AtomicReferenceArray<Participant> array = members;
+		final int end = Math.min(limit, array.length());
+
+		return new Iterator<Participant>() {
+			/** The slot to look at next. */
+			private int slot;
+
+			/** The participant to return next. */
+			private Participant next = advance();
+
+			private Participant advance() {
+				while (slot < end) {
+					Participant p = array.get(slot++);
+					if (p != null)
+						return p;
+				}
+				return null;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Participant next() {
+				if (next == null)
+					throw new NoSuchElementException();
+
+				Participant p = next;
+				next = advance();
+				return p;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,80 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.io.Serializable;
+
+/**
+ * RateLimits hold a chat room's message rate limits: one applied to each
+ * participant and one applied to the chat room as a whole. A rate of zero
+ * (or less) disables the corresponding limit.
+ * 
+ * The defaults are read from the chatservice.ratelimit.client.rate,
+ * chatservice.ratelimit.client.burst, chatservice.ratelimit.room.rate and
+ * chatservice.ratelimit.room.burst system properties.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class RateLimits implements Serializable {
+	private static final long serialVersionUID = -2619530478244405181L;
+
+	/** Limits that permit any message rate. */
+	public static final RateLimits UNLIMITED = new RateLimits(0, 0, 0, 0);
+
+	/** The sustained message rate and burst size of each participant. */
+	private double clientRate;
+	private int clientBurst;
+
+	/** The sustained message rate and burst size of the chat room. */
+	private double roomRate;
+	private int roomBurst;
+
+	public RateLimits(double clientRate, int clientBurst, double roomRate,
+			int roomBurst) {
+		this.clientRate = clientRate;
+		this.clientBurst = clientBurst;
+		this.roomRate = roomRate;
+		this.roomBurst = roomBurst;
+	}
+
+	/**
+	 * Returns the default rate limits.
+	 * 
+	 * @return the limits configured through system properties (10 messages
+	 *         per second with bursts of 20 per participant, 200 messages per
+	 *         second with bursts of 400 per chat room).
+	 */
+	public static RateLimits fromSystemProperties() {
+		return new RateLimits(Double.parseDouble(System.getProperty(
+				"chatservice.ratelimit.client.rate", "10")),
+				Integer.getInteger("chatservice.ratelimit.client.burst", 20),
+				Double.parseDouble(System.getProperty(
+						"chatservice.ratelimit.room.rate", "200")),
+				Integer.getInteger("chatservice.ratelimit.room.burst", 400));
+	}
+
+	/**
+	 * Creates a token bucket enforcing the per-participant limit.
+	 * 
+	 * @return a new token bucket or null if participants are unlimited.
+	 */
+	TokenBucket newClientBucket() {
+		return clientRate > 0 ? new TokenBucket(clientRate, clientBurst) : null;
+	}
+
+	/**
+	 * Creates a token bucket enforcing the chat room limit.
+	 * 
+	 * @return a new token bucket or null if the chat room is unlimited.
+	 */
+	TokenBucket newRoomBucket() {
+		return roomRate > 0 ? new TokenBucket(roomRate, roomBurst) : null;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimits [clientRate=" + clientRate + ", clientBurst="
+				+ clientBurst + ", roomRate=" + roomRate + ", roomBurst="
+				+ roomBurst + "]";
+	}
+
+}
@@ -0,0 +1,45 @@
+package edu.courses.middleware.chatservice.entities;
+
+/**
+ * A RetransmitBuffer keeps a ChatRoom's most recent broadcasts by sequence
+ * number, so that deliveries that failed can be sent again. Older broadcasts
+ * are overwritten as new ones arrive.
+ *
+ * @author Jonas Michel
+ *
+ */
+class RetransmitBuffer {
+	/** The broadcasts, indexed by sequence number modulo the capacity. */
+	private ChatEnvelope[] envelopes;
+
+	RetransmitBuffer(int capacity) {
+		envelopes = new ChatEnvelope[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Keeps a broadcast.
+	 *
+	 * @param envelope
+	 *            a broadcast with a sequence number.
+	 */
+	synchronized void add(ChatEnvelope envelope) {
+		envelopes[slot(envelope.getSeq())] = envelope;
+	}
+
+	/**
+	 * Returns a broadcast.
+	 *
+	 * @param seq
+	 *            the broadcast's sequence number.
+	 * @return the broadcast or null if it has been overwritten.
+	 */
+	synchronized ChatEnvelope get(long seq) {
+		ChatEnvelope envelope = envelopes[slot(seq)];
+		return envelope != null && envelope.getSeq() == seq ? envelope : null;
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % envelopes.length);
+	}
+
+}
@@ -0,0 +1,27 @@
+package edu.courses.middleware.chatservice.entities;
+
+/**
+ * The outcome of asking a chat room to send a message.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public enum TalkResult {
+	/**
+	 * The message was delivered to the chat room's participants, or is still
+	 * on its way to those slower than the chat room's talk deadline.
+	 */
+	DELIVERED,
+
+	/** The sender has not joined the chat room. */
+	NOT_JOINED,
+
+	/** The chat room could not be reached. */
+	ROOM_UNAVAILABLE,
+
+	/** The sender has exceeded its message rate in the chat room. */
+	CLIENT_RATE_LIMITED,
+
+	/** The chat room has exceeded its total message rate. */
+	ROOM_RATE_LIMITED;
+}
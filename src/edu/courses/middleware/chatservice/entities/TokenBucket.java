@@ -0,0 +1,52 @@
+package edu.courses.middleware.chatservice.entities;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TokenBucket limits the rate of an activity while allowing short bursts.
+ * It is implemented as a generic cell rate algorithm: the only state is the
+ * theoretical arrival time of the next permitted event, updated with a single
+ * compare-and-set, so any number of threads may use the bucket without
+ * locking.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class TokenBucket {
+	/** The time between events at the sustained rate. */
+	private long intervalNanos;
+
+	/** How far ahead of the sustained rate a burst may run. */
+	private long toleranceNanos;
+
+	/** The theoretical arrival time of the next event. */
+	private AtomicLong theoreticalArrival;
+
+	public TokenBucket(double ratePerSecond, int burst) {
+		intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		toleranceNanos = intervalNanos * (Math.max(burst, 1) - 1);
+		theoreticalArrival = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token from the bucket if one is available.
+	 * 
+	 * @return true if the activity is permitted.
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+
+		while (true) {
+			long arrival = theoreticalArrival.get();
+			long base = arrival - now > 0 ? arrival : now;
+
+			if (base - now > toleranceNanos)
+				return false;
+
+			if (theoreticalArrival.compareAndSet(arrival, base + intervalNanos))
+				return true;
+		}
+	}
+
+}
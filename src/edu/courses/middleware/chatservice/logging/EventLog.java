@@ -0,0 +1,124 @@
+package edu.courses.middleware.chatservice.logging;
+
+/**
+ * An EventLog records structured events (an event name with up to two key
+ * value pairs) on behalf of a chat service component. Events below the
+ * configured threshold cost a single comparison. Events at or above it are
+ * handed to a shared RingBufferAppender and written by a background thread,
+ * so callers never wait on console or file I/O.
+ * 
+ * The threshold is read from the chatservice.log.level system property
+ * (DEBUG, INFO, WARN, ERROR or OFF; INFO by default).
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class EventLog {
+	/** The system property holding the logging threshold. */
+	public static final String LEVEL_PROPERTY = "chatservice.log.level";
+
+	/** Events below this level are discarded. */
+	private static volatile Level threshold = Level.valueOf(System
+			.getProperty(LEVEL_PROPERTY, Level.INFO.name()).toUpperCase());
+
+	/** The name of the component logging events. */
+	private String component;
+
+	private EventLog(String component) {
+		this.component = component;
+	}
+
+	/**
+	 * Returns an event log for the given component.
+	 * 
+	 * @param component
+	 *            the class logging events.
+	 * @return an event log.
+	 */
+	public static EventLog getLog(Class<?> component) {
+		return new EventLog(component.getSimpleName());
+	}
+
+	/**
+	 * Changes the logging threshold.
+	 * 
+	 * @param level
+	 *            the new threshold.
+	 */
+	public static void setLevel(Level level) {
+		threshold = level;
+	}
+
+	/**
+	 * Returns the logging threshold.
+	 * 
+	 * @return the current threshold.
+	 */
+	public static Level getLevel() {
+		return threshold;
+	}
+
+	/**
+	 * Returns whether events of the given level are recorded.
+	 * 
+	 * @param level
+	 *            an event level.
+	 * @return true if such events are recorded.
+	 */
+	public boolean isEnabled(Level level) {
+		return level.ordinal() >= threshold.ordinal();
+	}
+
+	public void debug(String event) {
+		log(Level.DEBUG, event, null, null, null, null, null);
+	}
+
+	public void debug(String event, String key, Object value) {
+		log(Level.DEBUG, event, key, value, null, null, null);
+	}
+
+	public void debug(String event, String key1, Object value1, String key2,
+			Object value2) {
+		log(Level.DEBUG, event, key1, value1, key2, value2, null);
+	}
+
+	public void info(String event) {
+		log(Level.INFO, event, null, null, null, null, null);
+	}
+
+	public void info(String event, String key, Object value) {
+		log(Level.INFO, event, key, value, null, null, null);
+	}
+
+	public void info(String event, String key1, Object value1, String key2,
+			Object value2) {
+		log(Level.INFO, event, key1, value1, key2, value2, null);
+	}
+
+	public void warn(String event, String key, Object value) {
+		log(Level.WARN, event, key, value, null, null, null);
+	}
+
+	public void warn(String event, String key1, Object value1, String key2,
+			Object value2) {
+		log(Level.WARN, event, key1, value1, key2, value2, null);
+	}
+
+	public void error(String event, Throwable error) {
+		log(Level.ERROR, event, null, null, null, null, error);
+	}
+
+	public void error(String event, String key, Object value, Throwable error) {
+		log(Level.ERROR, event, key, value, null, null, error);
+	}
+
+	private void log(Level level, String event, String key1, Object value1,
+			String key2, Object value2, Throwable error) {
+		if (level.ordinal() < threshold.ordinal())
+			return;
+
+		RingBufferAppender.getInstance().append(level, component, event, key1,
+				value1, key2, value2, error);
+	}
+
+}
@@ -0,0 +1,12 @@
+package edu.courses.middleware.chatservice.logging;
+
+/**
+ * The severity levels of logged events, from least to most severe. OFF is
+ * used as a threshold only and disables logging entirely.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public enum Level {
+	DEBUG, INFO, WARN, ERROR, OFF;
+}
@@ -0,0 +1,45 @@
+package edu.courses.middleware.chatservice.logging;
+
+/**
+ * A LogEvent is a mutable slot in the RingBufferAppender. Slots are allocated
+ * once and reused for every event that passes through them.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class LogEvent {
+	/** When the event occurred (milliseconds since the epoch). */
+	long timestamp;
+
+	/** The event's severity. */
+	Level level;
+
+	/** The component that logged the event. */
+	String component;
+
+	/** The event's name. */
+	String event;
+
+	/** Up to two key value pairs describing the event. */
+	String key1;
+	Object value1;
+	String key2;
+	Object value2;
+
+	/** An optional error. */
+	Throwable error;
+
+	/**
+	 * Releases the event's references so the slot doesn't retain garbage.
+	 */
+	void clear() {
+		component = null;
+		event = null;
+		key1 = null;
+		value1 = null;
+		key2 = null;
+		value2 = null;
+		error = null;
+	}
+
+}
@@ -0,0 +1,304 @@
+package edu.courses.middleware.chatservice.logging;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The RingBufferAppender writes logged events asynchronously. Producers claim
+ * a preallocated slot with a single compare-and-set, fill it in and publish
+ * it; a single background thread formats published events and writes them in
+ * batches. When the buffer is full new events are dropped (and counted)
+ * rather than blocking the caller. The writer parks while there is nothing
+ * to write and the next producer unparks it.
+ *
+ * Events are written to standard out unless the chatservice.log.file system
+ * property names a file. The buffer holds chatservice.log.buffer events
+ * (rounded up to a power of two, 8192 by default).
+ *
+ * @author Jonas Michel
+ *
+ */
+public class RingBufferAppender extends Thread {
+	/** The system property naming the log file. */
+	public static final String FILE_PROPERTY = "chatservice.log.file";
+
+	/** The system property holding the buffer size. */
+	public static final String BUFFER_PROPERTY = "chatservice.log.buffer";
+
+	/** The largest number of events written in a single batch. */
+	private static final int MAX_BATCH = 512;
+
+	/** The time drain sleeps between checks for unwritten events. */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/** The shared appender, read without locking once it is started. */
+	private static volatile RingBufferAppender instance;
+
+	/** The preallocated event slots. */
+	private LogEvent[] slots;
+
+	/** Holds the sequence number of the event published in each slot. */
+	private AtomicLongArray published;
+
+	/** Maps a sequence number to a slot. */
+	private int mask;
+
+	/** The next sequence number to be claimed by a producer. */
+	private AtomicLong claimed;
+
+	/** The last sequence number written by the writer thread. */
+	private volatile long consumed;
+
+	/** The number of events dropped because the buffer was full. */
+	private LongAdder dropped;
+
+	/** Whether or not the writer is parked, or about to park. */
+	private volatile boolean parked;
+
+	/** The number of dropped events already reported in the log. */
+	private long droppedReported;
+
+	/** Where events are written. */
+	private PrintStream out;
+
+	/** Formats a batch of events. */
+	private StringBuilder batch;
+
+	private RingBufferAppender(int capacity, PrintStream out) {
+		super("chatservice-log-writer");
+		setDaemon(true);
+
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		slots = new LogEvent[size];
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			slots[i] = new LogEvent();
+			published.set(i, -1);
+		}
+		mask = size - 1;
+
+		claimed = new AtomicLong();
+		consumed = -1;
+		dropped = new LongAdder();
+
+		this.out = out;
+		batch = new StringBuilder(16 * 1024);
+	}
+
+	/**
+	 * Returns the shared appender, starting it if necessary.
+	 *
+	 * @return the shared appender.
+	 */
+	public static RingBufferAppender getInstance() {
+		RingBufferAppender appender = instance;
+		if (appender != null)
+			return appender;
+
+		return createInstance();
+	}
+
+	/**
+	 * Starts the shared appender unless another thread already has.
+	 *
+	 * @return the shared appender.
+	 */
+	private static synchronized RingBufferAppender createInstance() {
+		if (instance == null) {
+			PrintStream out = System.out;
+
+			String file = System.getProperty(FILE_PROPERTY);
+			if (file != null) {
+				try {
+					out = new PrintStream(new FileOutputStream(file, true),
+							false, "UTF-8");
+				} catch (Exception e) {
+					System.err.println("Unable to open log file [" + file
+							+ "], logging to standard out");
+				}
+			}
+
+			final RingBufferAppender appender = new RingBufferAppender(
+					Integer.getInteger(BUFFER_PROPERTY, 8192), out);
+			appender.start();
+
+			// write whatever is still buffered when the JVM exits
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					appender.drain(TimeUnit.SECONDS.toNanos(1));
+				}
+			});
+
+			// publish the appender only once it is running
+			instance = appender;
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Publishes an event to the buffer. This method never blocks.
+	 */
+	void append(Level level, String component, String event, String key1,
+			Object value1, String key2, Object value2, Throwable error) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+
+			// the slot is still in use by an event that hasn't been written
+			if (sequence - slots.length > consumed) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) (sequence & mask);
+		LogEvent slot = slots[index];
+		slot.timestamp = System.currentTimeMillis();
+		slot.level = level;
+		slot.component = component;
+		slot.event = event;
+		slot.key1 = key1;
+		slot.value1 = value1;
+		slot.key2 = key2;
+		slot.value2 = value2;
+		slot.error = error;
+
+		published.set(index, sequence);
+
+		// the writer checks for published events after announcing it parks
+		if (parked)
+			LockSupport.unpark(this);
+	}
+
+	/**
+	 * Returns the number of events dropped because the buffer was full.
+	 *
+	 * @return the number of dropped events.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			if (writeBatch() > 0)
+				continue;
+
+			parked = true;
+			if (!isPublished(consumed + 1))
+				LockSupport.park(this);
+			parked = false;
+		}
+	}
+
+	/**
+	 * Waits for buffered events to be written.
+	 *
+	 * @param timeoutNanos
+	 *            the longest time to wait.
+	 */
+	public void drain(long timeoutNanos) {
+		long deadline = System.nanoTime() + timeoutNanos;
+		while (consumed < claimed.get() - 1 && System.nanoTime() < deadline)
+			LockSupport.parkNanos(IDLE_NANOS);
+	}
+
+	/**
+	 * Formats and writes the events published since the last batch.
+	 *
+	 * @return the number of events written.
+	 */
+	private int writeBatch() {
+		int count = 0;
+		long next = consumed + 1;
+
+		while (count < MAX_BATCH) {
+			if (!isPublished(next))
+				break;
+
+			LogEvent slot = slots[(int) (next & mask)];
+			format(slot);
+			slot.clear();
+
+			// release the slot to producers
+			consumed = next++;
+			count++;
+		}
+
+		long lost = dropped.sum() - droppedReported;
+		if (lost > 0) {
+			batch.append(Instant.now()).append(" WARN RingBufferAppender")
+					.append(" log.dropped count=").append(lost).append('\n');
+			droppedReported += lost;
+		}
+
+		if (batch.length() > 0) {
+			out.append(batch);
+			out.flush();
+			batch.setLength(0);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns whether or not an event has been published.
+	 *
+	 * @param sequence
+	 *            the event's sequence number.
+	 * @return true if the event's slot holds it.
+	 */
+	private boolean isPublished(long sequence) {
+		return published.get((int) (sequence & mask)) == sequence;
+	}
+
+	private void format(LogEvent slot) {
+		batch.append(Instant.ofEpochMilli(slot.timestamp)).append(' ')
+				.append(slot.level).append(' ').append(slot.component)
+				.append(' ').append(slot.event);
+
+		if (slot.key1 != null)
+			formatPair(slot.key1, slot.value1);
+		if (slot.key2 != null)
+			formatPair(slot.key2, slot.value2);
+
+		batch.append('\n');
+
+		if (slot.error != null) {
+			StringWriter trace = new StringWriter();
+			slot.error.printStackTrace(new PrintWriter(trace));
+			batch.append(trace);
+		}
+	}
+
+	private void formatPair(String key, Object value) {
+		batch.append(' ').append(key).append('=');
+
+		String text = String.valueOf(value);
+		if (text.indexOf(' ') < 0 && text.indexOf('"') < 0 && !text.isEmpty()) {
+			batch.append(text);
+			return;
+		}
+
+		batch.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\')
+				batch.append('\\');
+			batch.append(c);
+		}
+		batch.append('"');
+	}
+
+}
@@ -0,0 +1,272 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * Holds the metrics maintained by a ChatRegistry.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ChatRegistryMetrics implements ChatRegistryMetricsMXBean,
+		MetricSet {
+	/** The number of registered entities. */
+	private Gauge entities;
+
+	/** How far a follower registry is behind the primary (0 on the primary). */
+	private Gauge replicationLag;
+	private Gauge replicationLagMillis;
+
+	/** The number of registered chat rooms. */
+	public final Counter rooms = new Counter();
+
+	/** The number of successful registrations. */
+	public final Counter registrations = new Counter();
+
+	/** The number of registrations refused because the name was taken. */
+	public final Counter rejectedRegistrations = new Counter();
+
+	/** The number of successful deregistrations. */
+	public final Counter deregistrations = new Counter();
+
+	/** The number of entities released because they died. */
+	public final Counter deadEntityEvictions = new Counter();
+
+	/** Times getChatRooms calls. */
+	public final Timer getChatRooms = new Timer();
+
+	/** Times findChatRooms calls. */
+	public final Timer findChatRooms = new Timer();
+
+	/** Times getInfo calls. */
+	public final Timer getInfo = new Timer();
+
+	/** Times getInfoAll calls. */
+	public final Timer getInfoAll = new Timer();
+
+	/** Times registerAll calls. */
+	public final Timer registerAll = new Timer();
+
+	/** Times deregisterAll calls. */
+	public final Timer deregisterAll = new Timer();
+
+	/** The number of info requests served from and missing the cache. */
+	public final Counter infoCacheHits = new Counter();
+	public final Counter infoCacheMisses = new Counter();
+
+	/** Times lookupChatClient calls. */
+	public final Timer lookupChatClient = new Timer();
+
+	/** Times lookupName calls. */
+	public final Timer lookupName = new Timer();
+
+	/** Times getChanges calls. */
+	public final Timer getChanges = new Timer();
+
+	/** The number of changes a follower registry has applied. */
+	public final Counter appliedChanges = new Counter();
+
+	/** The number of snapshots a follower registry has applied. */
+	public final Counter snapshots = new Counter();
+
+	/** The number of reads a follower refused because it was behind. */
+	public final Counter staleReads = new Counter();
+
+	public ChatRegistryMetrics(Gauge entities, Gauge replicationLag,
+			Gauge replicationLagMillis) {
+		this.entities = entities;
+		this.replicationLag = replicationLag;
+		this.replicationLagMillis = replicationLagMillis;
+	}
+
+	/* ChatRegistryMetricsMXBean Interface Implementation */
+
+	@Override
+	public long getRegisteredEntities() {
+		return entities.getValue();
+	}
+
+	@Override
+	public long getRegisteredChatRooms() {
+		return rooms.get();
+	}
+
+	@Override
+	public long getRegistrations() {
+		return registrations.get();
+	}
+
+	@Override
+	public long getRejectedRegistrations() {
+		return rejectedRegistrations.get();
+	}
+
+	@Override
+	public long getDeregistrations() {
+		return deregistrations.get();
+	}
+
+	@Override
+	public long getDeadEntityEvictions() {
+		return deadEntityEvictions.get();
+	}
+
+	@Override
+	public long getGetChatRoomsCount() {
+		return getChatRooms.getCount();
+	}
+
+	@Override
+	public double getGetChatRoomsMeanMicros() {
+		return getChatRooms.getMeanMicros();
+	}
+
+	@Override
+	public double getGetChatRoomsMaxMicros() {
+		return getChatRooms.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getFindChatRoomsCount() {
+		return findChatRooms.getCount();
+	}
+
+	@Override
+	public double getFindChatRoomsMeanMicros() {
+		return findChatRooms.getMeanMicros();
+	}
+
+	@Override
+	public double getFindChatRoomsMaxMicros() {
+		return findChatRooms.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getGetInfoCount() {
+		return getInfo.getCount();
+	}
+
+	@Override
+	public long getGetInfoAllCount() {
+		return getInfoAll.getCount();
+	}
+
+	@Override
+	public long getRegisterAllCount() {
+		return registerAll.getCount();
+	}
+
+	@Override
+	public long getDeregisterAllCount() {
+		return deregisterAll.getCount();
+	}
+
+	@Override
+	public long getInfoCacheHits() {
+		return infoCacheHits.get();
+	}
+
+	@Override
+	public long getInfoCacheMisses() {
+		return infoCacheMisses.get();
+	}
+
+	@Override
+	public long getLookupChatClientCount() {
+		return lookupChatClient.getCount();
+	}
+
+	@Override
+	public long getLookupNameCount() {
+		return lookupName.getCount();
+	}
+
+	@Override
+	public long getGetChangesCount() {
+		return getChanges.getCount();
+	}
+
+	@Override
+	public long getAppliedChanges() {
+		return appliedChanges.get();
+	}
+
+	@Override
+	public long getSnapshots() {
+		return snapshots.get();
+	}
+
+	@Override
+	public long getStaleReads() {
+		return staleReads.get();
+	}
+
+	@Override
+	public long getReplicationLag() {
+		return replicationLag.getValue();
+	}
+
+	@Override
+	public long getReplicationLagMillis() {
+		return replicationLagMillis.getValue();
+	}
+
+	/* MetricSet Interface Implementation */
+
+	@Override
+	public void collect(MetricsCollector collector) {
+		collector.gauge("chatservice_registry_entities",
+				"Number of registered entities", null, entities.getValue());
+		collector.gauge("chatservice_registry_rooms",
+				"Number of registered chat rooms", null, rooms.get());
+		collector.counter("chatservice_registry_registrations_total",
+				"Successful entity registrations", null, registrations.get());
+		collector.counter("chatservice_registry_rejected_registrations_total",
+				"Registrations refused because the name is in use", null,
+				rejectedRegistrations.get());
+		collector.counter("chatservice_registry_deregistrations_total",
+				"Successful entity deregistrations", null,
+				deregistrations.get());
+		collector.counter("chatservice_registry_dead_entity_evictions_total",
+				"Entities released because they died", null,
+				deadEntityEvictions.get());
+		collector.summary("chatservice_registry_get_chat_rooms_seconds",
+				"Time spent serving getChatRooms", null, getChatRooms);
+		collector.summary("chatservice_registry_find_chat_rooms_seconds",
+				"Time spent serving findChatRooms", null, findChatRooms);
+		collector.summary("chatservice_registry_get_info_seconds",
+				"Time spent serving getInfo", null, getInfo);
+		collector.summary("chatservice_registry_get_info_all_seconds",
+				"Time spent serving getInfoAll", null, getInfoAll);
+		collector.summary("chatservice_registry_register_all_seconds",
+				"Time spent serving registerAll", null, registerAll);
+		collector.summary("chatservice_registry_deregister_all_seconds",
+				"Time spent serving deregisterAll", null, deregisterAll);
+		collector.counter("chatservice_registry_info_cache_hits_total",
+				"Info requests served from the cache", null,
+				infoCacheHits.get());
+		collector.counter("chatservice_registry_info_cache_misses_total",
+				"Info requests loaded from the entity", null,
+				infoCacheMisses.get());
+		collector.summary("chatservice_registry_lookup_chat_client_seconds",
+				"Time spent serving lookupChatClient", null, lookupChatClient);
+		collector.summary("chatservice_registry_lookup_name_seconds",
+				"Time spent serving lookupName", null, lookupName);
+		collector.summary("chatservice_registry_get_changes_seconds",
+				"Time spent serving getChanges", null, getChanges);
+		collector.counter("chatservice_registry_applied_changes_total",
+				"Changes applied by a follower registry", null,
+				appliedChanges.get());
+		collector.counter("chatservice_registry_snapshots_total",
+				"Snapshots applied by a follower registry", null,
+				snapshots.get());
+		collector.counter("chatservice_registry_stale_reads_total",
+				"Reads a follower registry refused because it was behind",
+				null, staleReads.get());
+		collector.gauge("chatservice_registry_replication_lag",
+				"Changes a follower registry is behind the primary", null,
+				replicationLag.getValue());
+		collector.gauge("chatservice_registry_replication_lag_milliseconds",
+				"Time since a follower registry was last caught up", null,
+				replicationLagMillis.getValue());
+	}
+
+}
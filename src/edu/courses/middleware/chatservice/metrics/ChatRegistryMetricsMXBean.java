@@ -0,0 +1,63 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * The JMX management interface of a ChatRegistry's metrics.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface ChatRegistryMetricsMXBean {
+
+	public long getRegisteredEntities();
+
+	public long getRegisteredChatRooms();
+
+	public long getRegistrations();
+
+	public long getRejectedRegistrations();
+
+	public long getDeregistrations();
+
+	public long getDeadEntityEvictions();
+
+	public long getGetChatRoomsCount();
+
+	public double getGetChatRoomsMeanMicros();
+
+	public double getGetChatRoomsMaxMicros();
+
+	public long getFindChatRoomsCount();
+
+	public double getFindChatRoomsMeanMicros();
+
+	public double getFindChatRoomsMaxMicros();
+
+	public long getGetInfoCount();
+
+	public long getGetInfoAllCount();
+
+	public long getRegisterAllCount();
+
+	public long getDeregisterAllCount();
+
+	public long getInfoCacheHits();
+
+	public long getInfoCacheMisses();
+
+	public long getLookupChatClientCount();
+
+	public long getLookupNameCount();
+
+	public long getGetChangesCount();
+
+	public long getAppliedChanges();
+
+	public long getSnapshots();
+
+	public long getStaleReads();
+
+	public long getReplicationLag();
+
+	public long getReplicationLagMillis();
+
+}
@@ -0,0 +1,244 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the metrics maintained by a ChatRoom.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class ChatRoomMetrics implements ChatRoomMetricsMXBean, MetricSet {
+	/** The chat room's name label. */
+	private String labels;
+
+	/** The chat room's name label with a rate limit scope. */
+	private String clientScopeLabels;
+	private String roomScopeLabels;
+
+	/** The number of chat room participants. */
+	private Gauge participants;
+
+	/** The number of messages sent in the chat room. */
+	public final Counter messages = new Counter();
+
+	/** Times the delivery of a message to every participant. */
+	public final Timer fanOut = new Timer();
+
+	/** The number of deliveries that failed. */
+	public final Counter deliveryFailures = new Counter();
+
+	/** The number of participants removed because they died. */
+	public final Counter deadClientEvictions = new Counter();
+
+	/** The number of deliveries that have been scheduled but not completed. */
+	public final LongAdder pendingDeliveries = new LongAdder();
+
+	/** The number of messages rejected by a participant's rate limit. */
+	public final Counter clientRateLimited = new Counter();
+
+	/** The number of messages rejected by the chat room's rate limit. */
+	public final Counter roomRateLimited = new Counter();
+
+	/** The number of clients that joined or left the chat room. */
+	public final Counter presenceChanges = new Counter();
+
+	/** The number of (possibly coalesced) presence notices broadcast. */
+	public final Counter presenceNotices = new Counter();
+
+	/** The number of deliveries skipped by a participant's filter. */
+	public final Counter filtered = new Counter();
+
+	/** The number of deliveries waiting in participants' outboxes. */
+	public final LongAdder queuedDeliveries = new LongAdder();
+
+	/** The number of deliveries dropped from a full outbox. */
+	public final Counter shed = new Counter();
+
+	/** Times searches of the chat room's history. */
+	public final Timer searches = new Timer();
+
+	/** The number of retried messages the chat room had already accepted. */
+	public final Counter duplicateTalks = new Counter();
+
+	/** The number of failed deliveries sent again. */
+	public final Counter retransmits = new Counter();
+
+	/** The number of failed deliveries too old to be sent again. */
+	public final Counter retransmitsExpired = new Counter();
+
+	/** The number of talks that returned before every delivery was made. */
+	public final Counter lateTalks = new Counter();
+
+	public ChatRoomMetrics(String room, Gauge participants) {
+		labels = MetricsCollector.label("room", room);
+		clientScopeLabels = labels + ","
+				+ MetricsCollector.label("scope", "client");
+		roomScopeLabels = labels + "," + MetricsCollector.label("scope", "room");
+		this.participants = participants;
+	}
+
+	/* ChatRoomMetricsMXBean Interface Implementation */
+
+	@Override
+	public long getParticipants() {
+		return participants.getValue();
+	}
+
+	@Override
+	public long getMessages() {
+		return messages.get();
+	}
+
+	@Override
+	public long getFanOutCount() {
+		return fanOut.getCount();
+	}
+
+	@Override
+	public double getFanOutMeanMicros() {
+		return fanOut.getMeanMicros();
+	}
+
+	@Override
+	public double getFanOutMaxMicros() {
+		return fanOut.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getDeliveryFailures() {
+		return deliveryFailures.get();
+	}
+
+	@Override
+	public long getDeadClientEvictions() {
+		return deadClientEvictions.get();
+	}
+
+	@Override
+	public long getPendingDeliveries() {
+		return pendingDeliveries.sum();
+	}
+
+	@Override
+	public long getClientRateLimited() {
+		return clientRateLimited.get();
+	}
+
+	@Override
+	public long getRoomRateLimited() {
+		return roomRateLimited.get();
+	}
+
+	@Override
+	public long getPresenceChanges() {
+		return presenceChanges.get();
+	}
+
+	@Override
+	public long getPresenceNotices() {
+		return presenceNotices.get();
+	}
+
+	@Override
+	public long getFiltered() {
+		return filtered.get();
+	}
+
+	@Override
+	public long getQueuedDeliveries() {
+		return queuedDeliveries.sum();
+	}
+
+	@Override
+	public long getShed() {
+		return shed.get();
+	}
+
+	@Override
+	public long getSearchCount() {
+		return searches.getCount();
+	}
+
+	@Override
+	public double getSearchMeanMicros() {
+		return searches.getMeanMicros();
+	}
+
+	@Override
+	public long getDuplicateTalks() {
+		return duplicateTalks.get();
+	}
+
+	@Override
+	public long getRetransmits() {
+		return retransmits.get();
+	}
+
+	@Override
+	public long getRetransmitsExpired() {
+		return retransmitsExpired.get();
+	}
+
+	@Override
+	public long getLateTalks() {
+		return lateTalks.get();
+	}
+
+	/* MetricSet Interface Implementation */
+
+	@Override
+	public void collect(MetricsCollector collector) {
+		collector.gauge("chatservice_room_participants",
+				"Number of chat room participants", labels,
+				participants.getValue());
+		collector.counter("chatservice_room_messages_total",
+				"Messages sent in the chat room", labels, messages.get());
+		collector.summary("chatservice_room_fanout_seconds",
+				"Time spent delivering a message to every participant",
+				labels, fanOut);
+		collector.counter("chatservice_room_delivery_failures_total",
+				"Deliveries that failed", labels, deliveryFailures.get());
+		collector.counter("chatservice_room_dead_client_evictions_total",
+				"Participants removed because they died", labels,
+				deadClientEvictions.get());
+		collector.gauge("chatservice_room_pending_deliveries",
+				"Deliveries scheduled but not yet completed", labels,
+				pendingDeliveries.sum());
+		collector.counter("chatservice_room_rate_limited_total",
+				"Messages rejected by a rate limit", clientScopeLabels,
+				clientRateLimited.get());
+		collector.counter("chatservice_room_rate_limited_total",
+				"Messages rejected by a rate limit", roomScopeLabels,
+				roomRateLimited.get());
+		collector.counter("chatservice_room_presence_changes_total",
+				"Clients that joined or left the chat room", labels,
+				presenceChanges.get());
+		collector.counter("chatservice_room_presence_notices_total",
+				"Presence notices broadcast to participants", labels,
+				presenceNotices.get());
+		collector.counter("chatservice_room_filtered_total",
+				"Deliveries skipped by a participant's filter", labels,
+				filtered.get());
+		collector.gauge("chatservice_room_queued_deliveries",
+				"Deliveries waiting for a participant's demand", labels,
+				queuedDeliveries.sum());
+		collector.counter("chatservice_room_shed_total",
+				"Deliveries dropped from a full outbox", labels, shed.get());
+		collector.summary("chatservice_room_search_seconds",
+				"Time spent searching the chat room's history", labels,
+				searches);
+		collector.counter("chatservice_room_duplicate_talks_total",
+				"Retried messages the chat room had already accepted", labels,
+				duplicateTalks.get());
+		collector.counter("chatservice_room_retransmits_total",
+				"Failed deliveries sent again", labels, retransmits.get());
+		collector.counter("chatservice_room_retransmits_expired_total",
+				"Failed deliveries too old to be sent again", labels,
+				retransmitsExpired.get());
+		collector.counter("chatservice_room_late_talks_total",
+				"Talks that returned before every delivery was made", labels,
+				lateTalks.get());
+	}
+
+}
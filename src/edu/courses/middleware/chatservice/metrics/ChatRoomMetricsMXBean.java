@@ -0,0 +1,53 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * The JMX management interface of a ChatRoom's metrics.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface ChatRoomMetricsMXBean {
+
+	public long getParticipants();
+
+	public long getMessages();
+
+	public long getFanOutCount();
+
+	public double getFanOutMeanMicros();
+
+	public double getFanOutMaxMicros();
+
+	public long getDeliveryFailures();
+
+	public long getDeadClientEvictions();
+
+	public long getPendingDeliveries();
+
+	public long getClientRateLimited();
+
+	public long getRoomRateLimited();
+
+	public long getPresenceChanges();
+
+	public long getPresenceNotices();
+
+	public long getFiltered();
+
+	public long getQueuedDeliveries();
+
+	public long getShed();
+
+	public long getSearchCount();
+
+	public double getSearchMeanMicros();
+
+	public long getDuplicateTalks();
+
+	public long getRetransmits();
+
+	public long getRetransmitsExpired();
+
+	public long getLateTalks();
+
+}
@@ -0,0 +1,46 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Counter is a monotonically increasing count. Updates are striped across
+ * cells so that concurrent increments from many RMI threads do not contend.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class Counter {
+	/** The striped count. */
+	private LongAdder count;
+
+	public Counter() {
+		count = new LongAdder();
+	}
+
+	/**
+	 * Increments the counter by one.
+	 */
+	public void inc() {
+		count.increment();
+	}
+
+	/**
+	 * Increments the counter by the given amount.
+	 * 
+	 * @param n
+	 *            the amount to add.
+	 */
+	public void add(long n) {
+		count.add(n);
+	}
+
+	/**
+	 * Returns the current count.
+	 * 
+	 * @return the current count.
+	 */
+	public long get() {
+		return count.sum();
+	}
+
+}
@@ -0,0 +1,19 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * A Gauge reports an instantaneous value that is sampled only when metrics
+ * are read.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface Gauge {
+
+	/**
+	 * Returns the gauge's current value.
+	 * 
+	 * @return the current value.
+	 */
+	public long getValue();
+
+}
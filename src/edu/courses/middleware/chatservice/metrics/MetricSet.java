@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * A MetricSet is a group of related metrics that can be published through the
+ * MetricsRegistry.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface MetricSet {
+
+	/**
+	 * Called to report the set's current metric values.
+	 * 
+	 * @param collector
+	 *            receives the metric values.
+	 */
+	public void collect(MetricsCollector collector);
+
+}
@@ -0,0 +1,141 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A MetricsCollector gathers metric samples from MetricSets and renders them
+ * in the Prometheus text exposition format. Samples that share a metric name
+ * (e.g., the same metric for several chat rooms) are grouped into a single
+ * family.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class MetricsCollector {
+	/** Holds the collected metric families in collection order. */
+	private Map<String, StringBuilder> families;
+
+	public MetricsCollector() {
+		families = new LinkedHashMap<String, StringBuilder>();
+	}
+
+	/**
+	 * Formats a label set with a single label.
+	 * 
+	 * @param name
+	 *            the label name.
+	 * @param value
+	 *            the label value.
+	 * @return a label set usable with the collector's sample methods.
+	 */
+	public static String label(String name, String value) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+
+		return sb.toString();
+	}
+
+	/**
+	 * Adds a counter sample.
+	 * 
+	 * @param name
+	 *            the metric name (should end with _total).
+	 * @param help
+	 *            the metric's description.
+	 * @param labels
+	 *            the sample's labels or null.
+	 * @param value
+	 *            the counter value.
+	 */
+	public void counter(String name, String help, String labels, long value) {
+		sample(family(name, help, "counter"), name, labels,
+				Long.toString(value));
+	}
+
+	/**
+	 * Adds a gauge sample.
+	 * 
+	 * @param name
+	 *            the metric name.
+	 * @param help
+	 *            the metric's description.
+	 * @param labels
+	 *            the sample's labels or null.
+	 * @param value
+	 *            the gauge value.
+	 */
+	public void gauge(String name, String help, String labels, long value) {
+		sample(family(name, help, "gauge"), name, labels, Long.toString(value));
+	}
+
+	/**
+	 * Adds a timer's samples as a summary (in seconds) along with a gauge for
+	 * the longest recorded event.
+	 * 
+	 * @param name
+	 *            the metric name (should end with _seconds).
+	 * @param help
+	 *            the metric's description.
+	 * @param labels
+	 *            the sample's labels or null.
+	 * @param timer
+	 *            the timer.
+	 */
+	public void summary(String name, String help, String labels, Timer timer) {
+		StringBuilder family = family(name, help, "summary");
+		sample(family, name + "_count", labels,
+				Long.toString(timer.getCount()));
+		sample(family, name + "_sum", labels,
+				Double.toString(timer.getTotalNanos() / 1e9));
+
+		sample(family(name + "_max", help + " (maximum)", "gauge"), name
+				+ "_max", labels, Double.toString(timer.getMaxNanos() / 1e9));
+	}
+
+	private StringBuilder family(String name, String help, String type) {
+		StringBuilder family = families.get(name);
+		if (family == null) {
+			family = new StringBuilder();
+			family.append("# HELP ").append(name).append(' ').append(help)
+					.append('\n');
+			family.append("# TYPE ").append(name).append(' ').append(type)
+					.append('\n');
+			families.put(name, family);
+		}
+
+		return family;
+	}
+
+	private void sample(StringBuilder family, String name, String labels,
+			String value) {
+		family.append(name);
+		if (labels != null)
+			family.append('{').append(labels).append('}');
+		family.append(' ').append(value).append('\n');
+	}
+
+	/**
+	 * Renders the collected samples.
+	 * 
+	 * @return the samples in the Prometheus text exposition format.
+	 */
+	public String toPrometheusText() {
+		StringBuilder sb = new StringBuilder();
+		for (StringBuilder family : families.values())
+			sb.append(family);
+
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,96 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * The MetricsHttpServer serves the MetricsRegistry's metrics in the
+ * Prometheus text exposition format at http://localhost:PORT/metrics. The
+ * server only listens on the loopback interface.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class MetricsHttpServer {
+	/** The system property holding the metrics port. */
+	public static final String PORT_PROPERTY = "chatservice.metrics.port";
+
+	/** The Prometheus text format content type. */
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/** The running server. */
+	private static HttpServer server;
+
+	private MetricsHttpServer() {
+	}
+
+	/**
+	 * Starts the metrics server if the chatservice.metrics.port system
+	 * property is set.
+	 */
+	public static void startFromSystemProperties() {
+		Integer port = Integer.getInteger(PORT_PROPERTY);
+		if (port == null)
+			return;
+
+		try {
+			start(port);
+		} catch (IOException e) {
+			System.err.println("Unable to start the metrics server on port "
+					+ port + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Starts the metrics server.
+	 * 
+	 * @param port
+	 *            the loopback port to listen on.
+	 * @throws IOException
+	 */
+	public static synchronized void start(int port) throws IOException {
+		if (server != null)
+			return;
+
+		server = HttpServer.create(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = MetricsRegistry.scrape().getBytes(
+						StandardCharsets.UTF_8);
+
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.length);
+
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Stops the metrics server.
+	 */
+	public static synchronized void stop() {
+		if (server == null)
+			return;
+
+		server.stop(0);
+		server = null;
+	}
+
+}
@@ -0,0 +1,109 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The MetricsRegistry publishes MetricSets through the platform MBean server
+ * (JMX) and makes them available to the MetricsHttpServer.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class MetricsRegistry {
+	/** The JMX domain of all chat service MBeans. */
+	public static final String DOMAIN = "edu.courses.middleware.chatservice";
+
+	/** Holds the registered metric sets. */
+	private static final Map<ObjectName, MetricSet> metricSets = new ConcurrentHashMap<ObjectName, MetricSet>();
+
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * Builds the JMX object name for a chat service component.
+	 * 
+	 * @param type
+	 *            the component type (e.g., ChatRoom).
+	 * @param name
+	 *            the component's name or null if there is only one.
+	 * @return the object name.
+	 */
+	public static ObjectName objectName(String type, String name) {
+		try {
+			if (name == null)
+				return new ObjectName(DOMAIN + ":type=" + type);
+
+			return new ObjectName(DOMAIN + ":type=" + type + ",name="
+					+ ObjectName.quote(name));
+
+		} catch (JMException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	/**
+	 * Publishes a metric set. The metric set must also be a compliant MBean
+	 * (e.g., implement an MXBean interface). A metric set previously
+	 * registered under the same name is replaced.
+	 * 
+	 * @param name
+	 *            the metric set's JMX object name.
+	 * @param metricSet
+	 *            the metric set.
+	 */
+	public static void register(ObjectName name, MetricSet metricSet) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+
+			server.registerMBean(metricSet, name);
+
+		} catch (JMException e) {
+			// JMX is best effort, the metrics remain available over HTTP
+			e.printStackTrace();
+		}
+
+		metricSets.put(name, metricSet);
+	}
+
+	/**
+	 * Withdraws a previously published metric set.
+	 * 
+	 * @param name
+	 *            the metric set's JMX object name.
+	 */
+	public static void unregister(ObjectName name) {
+		metricSets.remove(name);
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Collects the current values of every published metric set.
+	 * 
+	 * @return the metrics in the Prometheus text exposition format.
+	 */
+	public static String scrape() {
+		MetricsCollector collector = new MetricsCollector();
+		for (MetricSet metricSet : metricSets.values())
+			metricSet.collect(collector);
+
+		return collector.toPrometheusText();
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * Holds the metrics of a bounded message queue.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class QueueMetrics implements QueueMetricsMXBean, MetricSet {
+	/** The queue's name label. */
+	private String labels;
+
+	/** The number of queued messages. */
+	private Gauge depth;
+
+	/** The number of messages accepted by the queue. */
+	public final Counter enqueued = new Counter();
+
+	/** The number of messages dropped because the queue was full. */
+	public final Counter dropped = new Counter();
+
+	/** The number of messages summarized rather than shown individually. */
+	public final Counter coalesced = new Counter();
+
+	public QueueMetrics(String queue, Gauge depth) {
+		labels = MetricsCollector.label("queue", queue);
+		this.depth = depth;
+	}
+
+	/* QueueMetricsMXBean Interface Implementation */
+
+	@Override
+	public long getDepth() {
+		return depth.getValue();
+	}
+
+	@Override
+	public long getEnqueued() {
+		return enqueued.get();
+	}
+
+	@Override
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	@Override
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/* MetricSet Interface Implementation */
+
+	@Override
+	public void collect(MetricsCollector collector) {
+		collector.gauge("chatservice_queue_depth", "Number of queued messages",
+				labels, depth.getValue());
+		collector.counter("chatservice_queue_enqueued_total",
+				"Messages accepted by the queue", labels, enqueued.get());
+		collector.counter("chatservice_queue_dropped_total",
+				"Messages dropped because the queue was full", labels,
+				dropped.get());
+		collector.counter("chatservice_queue_coalesced_total",
+				"Messages summarized rather than shown individually", labels,
+				coalesced.get());
+	}
+
+}
@@ -0,0 +1,19 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * The JMX management interface of a bounded queue's metrics.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface QueueMetricsMXBean {
+
+	public long getDepth();
+
+	public long getEnqueued();
+
+	public long getDropped();
+
+	public long getCoalesced();
+
+}
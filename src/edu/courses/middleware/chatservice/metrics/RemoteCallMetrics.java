@@ -0,0 +1,134 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * Holds the metrics of a RemoteCallGuard: the outcome of the remote calls it
+ * guards and the state of its circuit breakers.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class RemoteCallMetrics implements RemoteCallMetricsMXBean, MetricSet {
+	/** The caller's label. */
+	private String labels;
+
+	/** The caller's label with a breaker state. */
+	private String closedLabels;
+	private String openLabels;
+	private String halfOpenLabels;
+
+	/** The number of endpoints called. */
+	private Gauge endpoints;
+
+	/** The number of endpoints whose breaker is open or half open. */
+	private Gauge openBreakers;
+	private Gauge halfOpenBreakers;
+
+	/** Times the calls that returned. */
+	public final Timer calls = new Timer();
+
+	/** The number of calls that failed, timeouts included. */
+	public final Counter failures = new Counter();
+
+	/** The number of calls abandoned because they took too long. */
+	public final Counter timeouts = new Counter();
+
+	/** The number of calls refused by an open breaker or busy callers. */
+	public final Counter rejected = new Counter();
+
+	/** The number of times a breaker opened. */
+	public final Counter breakersOpened = new Counter();
+
+	public RemoteCallMetrics(String caller, Gauge endpoints,
+			Gauge openBreakers, Gauge halfOpenBreakers) {
+		labels = MetricsCollector.label("caller", caller);
+		closedLabels = labels + "," + MetricsCollector.label("state", "closed");
+		openLabels = labels + "," + MetricsCollector.label("state", "open");
+		halfOpenLabels = labels + ","
+				+ MetricsCollector.label("state", "half_open");
+		this.endpoints = endpoints;
+		this.openBreakers = openBreakers;
+		this.halfOpenBreakers = halfOpenBreakers;
+	}
+
+	/* RemoteCallMetricsMXBean Interface Implementation */
+
+	@Override
+	public long getCalls() {
+		return calls.getCount();
+	}
+
+	@Override
+	public double getCallMeanMicros() {
+		return calls.getMeanMicros();
+	}
+
+	@Override
+	public double getCallMaxMicros() {
+		return calls.getMaxNanos() / 1000.0;
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	@Override
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public long getBreakersOpened() {
+		return breakersOpened.get();
+	}
+
+	@Override
+	public long getEndpoints() {
+		return endpoints.getValue();
+	}
+
+	@Override
+	public long getOpenBreakers() {
+		return openBreakers.getValue();
+	}
+
+	@Override
+	public long getHalfOpenBreakers() {
+		return halfOpenBreakers.getValue();
+	}
+
+	/* MetricSet Interface Implementation */
+
+	@Override
+	public void collect(MetricsCollector collector) {
+		collector.summary("chatservice_remote_call_seconds",
+				"Time spent in remote calls that returned", labels, calls);
+		collector.counter("chatservice_remote_call_failures_total",
+				"Remote calls that failed, timeouts included", labels,
+				failures.get());
+		collector.counter("chatservice_remote_call_timeouts_total",
+				"Remote calls abandoned because they took too long", labels,
+				timeouts.get());
+		collector.counter("chatservice_remote_call_rejected_total",
+				"Remote calls refused by an open breaker or busy callers", labels,
+				rejected.get());
+		collector.counter("chatservice_breakers_opened_total",
+				"Times a circuit breaker opened", labels, breakersOpened.get());
+
+		long open = openBreakers.getValue();
+		long halfOpen = halfOpenBreakers.getValue();
+		collector.gauge("chatservice_breakers",
+				"Circuit breakers by state", closedLabels,
+				endpoints.getValue() - open - halfOpen);
+		collector.gauge("chatservice_breakers",
+				"Circuit breakers by state", openLabels, open);
+		collector.gauge("chatservice_breakers",
+				"Circuit breakers by state", halfOpenLabels, halfOpen);
+	}
+
+}
@@ -0,0 +1,31 @@
+package edu.courses.middleware.chatservice.metrics;
+
+/**
+ * The JMX management interface of a RemoteCallGuard's metrics.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface RemoteCallMetricsMXBean {
+
+	public long getCalls();
+
+	public double getCallMeanMicros();
+
+	public double getCallMaxMicros();
+
+	public long getFailures();
+
+	public long getTimeouts();
+
+	public long getRejected();
+
+	public long getBreakersOpened();
+
+	public long getEndpoints();
+
+	public long getOpenBreakers();
+
+	public long getHalfOpenBreakers();
+
+}
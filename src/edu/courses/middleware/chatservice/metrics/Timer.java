@@ -0,0 +1,96 @@
+package edu.courses.middleware.chatservice.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Timer records the number, total and maximum duration of timed events.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class Timer {
+	/** The number of recorded events. */
+	private LongAdder count;
+
+	/** The total duration of recorded events in nanoseconds. */
+	private LongAdder totalNanos;
+
+	/** The longest recorded event in nanoseconds. */
+	private AtomicLong maxNanos;
+
+	public Timer() {
+		count = new LongAdder();
+		totalNanos = new LongAdder();
+		maxNanos = new AtomicLong();
+	}
+
+	/**
+	 * Records the duration of an event that started at the given time.
+	 * 
+	 * @param startNanos
+	 *            the event's start time as returned by System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records the duration of a single event.
+	 * 
+	 * @param nanos
+	 *            the event's duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		count.increment();
+		totalNanos.add(nanos);
+
+		long max;
+		while (nanos > (max = maxNanos.get())) {
+			if (maxNanos.compareAndSet(max, nanos))
+				break;
+		}
+	}
+
+	/**
+	 * Returns the number of recorded events.
+	 * 
+	 * @return the event count.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Returns the total duration of all recorded events.
+	 * 
+	 * @return the total duration in nanoseconds.
+	 */
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * Returns the longest recorded event.
+	 * 
+	 * @return the maximum duration in nanoseconds.
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Returns the mean duration of recorded events.
+	 * 
+	 * @return the mean duration in microseconds.
+	 */
+	public double getMeanMicros() {
+		long n = count.sum();
+		if (n == 0)
+			return 0;
+
+		return (double) totalNanos.sum() / n / TimeUnit.MICROSECONDS.toNanos(1);
+	}
+
+}
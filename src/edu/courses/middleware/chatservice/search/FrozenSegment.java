@@ -0,0 +1,127 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A FrozenSegment is an immutable part of a chat room's inverted index. Its
+ * terms are sorted for binary search and each posting list is stored as
+ * variable length encoded gaps between ascending message numbers, so common
+ * terms take little more than a byte per message.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class FrozenSegment {
+	/** The segment's sorted terms. */
+	private final String[] terms;
+
+	/** The start of each term's posting list in the data. */
+	private final int[] offsets;
+
+	/** The length of each term's posting list. */
+	private final int[] counts;
+
+	/** The encoded posting lists. */
+	private final byte[] data;
+
+	/** The number of messages indexed. */
+	private final int docCount;
+
+	FrozenSegment(String[] terms, int[][] lists, int docCount) {
+		this.terms = terms;
+		this.docCount = docCount;
+
+		offsets = new int[terms.length];
+		counts = new int[terms.length];
+
+		byte[] buffer = new byte[64];
+		int length = 0;
+		for (int i = 0; i < terms.length; i++) {
+			offsets[i] = length;
+			counts[i] = lists[i].length;
+
+			int previous = 0;
+			for (int id : lists[i]) {
+				if (buffer.length - length < 5)
+					buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+				int gap = id - previous;
+				previous = id;
+				while ((gap & ~0x7F) != 0) {
+					buffer[length++] = (byte) ((gap & 0x7F) | 0x80);
+					gap >>>= 7;
+				}
+				buffer[length++] = (byte) gap;
+			}
+		}
+		data = Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Merges adjacent segments, oldest first, into a single segment.
+	 */
+	static FrozenSegment merge(List<FrozenSegment> segments) {
+		Map<String, IntList> merged = new TreeMap<String, IntList>();
+		int docCount = 0;
+
+		for (FrozenSegment segment : segments) {
+			for (int i = 0; i < segment.terms.length; i++) {
+				IntList list = merged.get(segment.terms[i]);
+				if (list == null) {
+					list = new IntList();
+					merged.put(segment.terms[i], list);
+				}
+				for (int id : segment.decode(i))
+					list.add(id);
+			}
+			docCount += segment.docCount;
+		}
+
+		String[] terms = merged.keySet().toArray(new String[merged.size()]);
+		int[][] lists = new int[terms.length][];
+		for (int i = 0; i < terms.length; i++)
+			lists[i] = merged.get(terms[i]).toArray();
+
+		return new FrozenSegment(terms, lists, docCount);
+	}
+
+	int getDocCount() {
+		return docCount;
+	}
+
+	/**
+	 * Returns a term's posting list.
+	 * 
+	 * @return the ascending message numbers or null if the term is absent.
+	 */
+	int[] postings(String term) {
+		int i = Arrays.binarySearch(terms, term);
+		return i < 0 ? null : decode(i);
+	}
+
+	private int[] decode(int i) {
+		int[] ids = new int[counts[i]];
+		int position = offsets[i];
+		int previous = 0;
+
+		for (int n = 0; n < ids.length; n++) {
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = data[position++];
+				gap |= (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			previous += gap;
+			ids[n] = previous;
+		}
+
+		return ids;
+	}
+
+}
@@ -0,0 +1,40 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.util.Arrays;
+
+/**
+ * An IntList is a growable list of primitive ints.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class IntList {
+	/** The list's values. */
+	private int[] values;
+
+	/** The number of values in the list. */
+	private int size;
+
+	IntList() {
+		values = new int[4];
+	}
+
+	void add(int value) {
+		if (size == values.length)
+			values = Arrays.copyOf(values, size * 2);
+		values[size++] = value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	int last() {
+		return values[size - 1];
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+}
@@ -0,0 +1,108 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.util.Arrays;
+
+/**
+ * A MessageStore holds a chat room's message history in fixed size chunks, so
+ * it grows without copying the messages already stored. Messages are
+ * numbered from zero in the order they are added.
+ * 
+ * Adding and dropping are guarded by the owning SearchIndex; a message may be
+ * read by any thread once its number has been published by the index. The
+ * oldest messages are dropped a whole chunk at a time, and reading a dropped
+ * message finds nothing.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class MessageStore {
+	/** The number of messages in a chunk (a power of two). */
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/** The chunked message fields. */
+	private volatile long[][] timestamps;
+	private volatile String[][] senders;
+	private volatile String[][] messages;
+
+	/** The number of messages stored. */
+	private int size;
+
+	/** The number of oldest chunks dropped. */
+	private int dropped;
+
+	MessageStore() {
+		timestamps = new long[16][];
+		senders = new String[16][];
+		messages = new String[16][];
+	}
+
+	/**
+	 * Appends a message.
+	 * 
+	 * @return the message's number.
+	 */
+	int add(long timestamp, String sender, String message) {
+		int chunk = size >>> CHUNK_BITS;
+		if (chunk == messages.length) {
+			timestamps = Arrays.copyOf(timestamps, chunk * 2);
+			senders = Arrays.copyOf(senders, chunk * 2);
+			messages = Arrays.copyOf(messages, chunk * 2);
+		}
+		if (messages[chunk] == null) {
+			timestamps[chunk] = new long[CHUNK_SIZE];
+			senders[chunk] = new String[CHUNK_SIZE];
+			messages[chunk] = new String[CHUNK_SIZE];
+		}
+
+		int offset = size & CHUNK_MASK;
+		timestamps[chunk][offset] = timestamp;
+		senders[chunk][offset] = sender;
+		messages[chunk][offset] = message;
+
+		return size++;
+	}
+
+	/**
+	 * Returns a message.
+	 * 
+	 * @return the message or null if it has been dropped.
+	 */
+	SearchHit get(int id) {
+		int chunk = id >>> CHUNK_BITS;
+		int offset = id & CHUNK_MASK;
+
+		// a chunk may be dropped between reading its fields
+		long[] times = timestamps[chunk];
+		String[] from = senders[chunk];
+		String[] text = messages[chunk];
+		if (times == null || from == null || text == null)
+			return null;
+
+		return new SearchHit(id, times[offset], from[offset], text[offset]);
+	}
+
+	/**
+	 * Returns the time a stored message was sent.
+	 */
+	long getTimestamp(int id) {
+		return timestamps[id >>> CHUNK_BITS][id & CHUNK_MASK];
+	}
+
+	/**
+	 * Drops the chunks holding only messages older than a message.
+	 * 
+	 * @param before
+	 *            the number of the oldest message to keep.
+	 */
+	void drop(int before) {
+		int chunks = before >>> CHUNK_BITS;
+		for (; dropped < chunks; dropped++) {
+			timestamps[dropped] = null;
+			senders[dropped] = null;
+			messages[dropped] = null;
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MutableSegment indexes the most recent messages of a chat room in
+ * uncompressed posting lists until it is full, at which point it is frozen
+ * into a compact FrozenSegment. It is guarded by the owning SearchIndex.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+class MutableSegment {
+	/** Maps each term to the (ascending) numbers of the messages holding it. */
+	private Map<String, IntList> postings;
+
+	/** The number of messages indexed. */
+	private int docCount;
+
+	MutableSegment() {
+		postings = new HashMap<String, IntList>();
+	}
+
+	void add(int id, List<String> terms) {
+		for (String term : terms) {
+			IntList list = postings.get(term);
+			if (list == null) {
+				list = new IntList();
+				postings.put(term, list);
+			}
+
+			// a term repeated in a message is only posted once
+			if (list.size() == 0 || list.last() != id)
+				list.add(id);
+		}
+
+		docCount++;
+	}
+
+	int getDocCount() {
+		return docCount;
+	}
+
+	/**
+	 * Returns a copy of a term's posting list.
+	 * 
+	 * @return the ascending message numbers or null if the term is absent.
+	 */
+	int[] postings(String term) {
+		IntList list = postings.get(term);
+		return list == null ? null : list.toArray();
+	}
+
+	FrozenSegment freeze() {
+		String[] terms = postings.keySet().toArray(new String[postings.size()]);
+		Arrays.sort(terms);
+
+		int[][] lists = new int[terms.length][];
+		for (int i = 0; i < terms.length; i++)
+			lists[i] = postings.get(terms[i]).toArray();
+
+		return new FrozenSegment(terms, lists, docCount);
+	}
+
+}
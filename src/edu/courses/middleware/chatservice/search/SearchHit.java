@@ -0,0 +1,55 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.io.Serializable;
+
+/**
+ * A SearchHit is a chat message matched by a search.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class SearchHit implements Serializable {
+	private static final long serialVersionUID = -4517286930874210577L;
+
+	/** The message's position in the chat room's history. */
+	private int id;
+
+	/** The time the message was sent. */
+	private long timestamp;
+
+	/** The sender's screen name. */
+	private String sender;
+
+	/** The chat message. */
+	private String message;
+
+	public SearchHit(int id, long timestamp, String sender, String message) {
+		this.id = id;
+		this.timestamp = timestamp;
+		this.sender = sender;
+		this.message = message;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public String getSender() {
+		return sender;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return "SearchHit [id=" + id + ", timestamp=" + timestamp
+				+ ", sender=" + sender + ", message=" + message + "]";
+	}
+
+}
@@ -0,0 +1,405 @@
+package edu.courses.middleware.chatservice.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A SearchIndex is an incremental inverted index over a chat room's message
+ * history. Messages are indexed as they are sent by their words and by their
+ * sender, so they may be searched with queries such as "release party" or
+ * "from:alice lunch". A query matches the messages holding every one of its
+ * terms, ignoring case, most recent first.
+ *
+ * New messages go into a small mutable segment. Once it holds SEGMENT_SIZE
+ * messages it is frozen into a compressed segment, and whenever MERGE_FACTOR
+ * frozen segments of the same size have accumulated a background thread
+ * merges them into one. A search therefore consults a logarithmic number of
+ * segments and stops as soon as it has found enough hits, newest first.
+ *
+ * An index may retain only the most recent messages, by number or by age.
+ * Whenever a message is added or the index is searched, the oldest frozen
+ * segments are dropped together with their messages while the newer messages
+ * alone are enough to retain, or while every message they hold is too old,
+ * and the mutable segment too once every message it holds is too old. Merges
+ * don't make segments larger than a quarter of the messages retained (or
+ * SEGMENT_SIZE * MERGE_FACTOR messages if that is larger), so the oldest
+ * segment never holds much more than needs dropping and a capped index
+ * consults a bounded number of segments. An index that doesn't retain whole
+ * segments' worth of messages by count may hold a mutable segment's worth
+ * more, and age is only checked when the index is used, so a chat room that
+ * is neither talked in nor searched keeps its last messages.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class SearchIndex {
+	/** The number of messages in a freshly frozen segment. */
+	public static final int SEGMENT_SIZE = 8192;
+
+	/** The number of equally sized segments merged at once. */
+	private static final int MERGE_FACTOR = 4;
+
+	/** The prefix of a sender term. */
+	private static final String SENDER_PREFIX = "from:";
+
+	/** Merges frozen segments for every index. */
+	private static ExecutorService merger;
+
+	/** Holds the indexed messages. */
+	private MessageStore store;
+
+	/** Indexes the most recent messages. */
+	private MutableSegment mutable;
+
+	/** The frozen segments, oldest first. */
+	private volatile FrozenSegment[] frozen;
+
+	/** The number of messages indexed so far. */
+	private volatile int size;
+
+	/** The number of the oldest message retained. */
+	private int oldest;
+
+	/** Whether or not a merge is pending. */
+	private boolean merging;
+
+	/** The number of messages to retain (0 to retain every message). */
+	private int retainMessages;
+
+	/** How long to retain messages in milliseconds (0 to retain them all). */
+	private long retainMillis;
+
+	/** The largest segment a merge may make. */
+	private int maxMergedCount;
+
+	public SearchIndex() {
+		this(0, 0);
+	}
+
+	/**
+	 * Creates an index that retains only the most recent messages.
+	 *
+	 * @param retainMessages
+	 *            the number of messages to retain (0 to retain every
+	 *            message).
+	 * @param retainMillis
+	 *            how long to retain messages in milliseconds (0 to retain them
+	 *            however old).
+	 */
+	public SearchIndex(int retainMessages, long retainMillis) {
+		this.retainMessages = Math.max(0, retainMessages);
+		this.retainMillis = Math.max(0, retainMillis);
+		maxMergedCount = this.retainMessages > 0 ? Math.max(SEGMENT_SIZE
+				* MERGE_FACTOR, this.retainMessages / MERGE_FACTOR)
+				: Integer.MAX_VALUE;
+
+		store = new MessageStore();
+		mutable = new MutableSegment();
+		frozen = new FrozenSegment[0];
+	}
+
+	/**
+	 * Returns the shared merge thread, starting it if necessary.
+	 *
+	 * @return the merge executor.
+	 */
+	private static synchronized ExecutorService getMerger() {
+		if (merger == null) {
+			merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "chatservice-search-merger");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+		}
+
+		return merger;
+	}
+
+	/**
+	 * Indexes a chat message.
+	 *
+	 * @param timestamp
+	 *            the time the message was sent.
+	 * @param sender
+	 *            the sender's screen name.
+	 * @param message
+	 *            the chat message.
+	 */
+	public void add(long timestamp, String sender, String message) {
+		List<String> terms = tokenize(message, new ArrayList<String>());
+		terms.add(SENDER_PREFIX + sender.toLowerCase());
+
+		synchronized (this) {
+			int id = store.add(timestamp, sender, message);
+			mutable.add(id, terms);
+			size = id + 1;
+
+			if (mutable.getDocCount() < SEGMENT_SIZE) {
+				trim();
+				return;
+			}
+
+			FrozenSegment[] segments = Arrays
+					.copyOf(frozen, frozen.length + 1);
+			segments[frozen.length] = mutable.freeze();
+			frozen = segments;
+			mutable = new MutableSegment();
+			trim();
+
+			if (merging || mergeable(frozen) < 0)
+				return;
+			merging = true;
+		}
+
+		getMerger().execute(new Runnable() {
+			@Override
+			public void run() {
+				merge();
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of messages indexed so far, including those since
+	 * dropped.
+	 *
+	 * @return the number of messages.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of segments searched by a query.
+	 *
+	 * @return the number of segments.
+	 */
+	public int getSegmentCount() {
+		return frozen.length + 1;
+	}
+
+	/**
+	 * Finds the most recent messages matching a query.
+	 *
+	 * @param query
+	 *            the words to find; a word of the form from:name matches the
+	 *            messages sent by name.
+	 * @param limit
+	 *            the largest number of hits to return.
+	 * @return the matching messages, most recent first.
+	 */
+	public List<SearchHit> search(String query, int limit) {
+		List<SearchHit> hits = new ArrayList<SearchHit>();
+
+		List<String> terms = new ArrayList<String>();
+		for (String word : query.trim().split("\\s+")) {
+			if (word.regionMatches(true, 0, SENDER_PREFIX, 0,
+					SENDER_PREFIX.length()))
+				terms.add(word.toLowerCase());
+			else
+				tokenize(word, terms);
+		}
+		if (terms.isEmpty() || limit <= 0)
+			return hits;
+
+		// the mutable segment is only consistent under the lock
+		int[][] recent = new int[terms.size()][];
+		FrozenSegment[] segments = null;
+		synchronized (this) {
+			trim();
+			for (int t = 0; t < recent.length; t++)
+				recent[t] = mutable.postings(terms.get(t));
+			segments = frozen;
+		}
+
+		collect(recent, hits, limit);
+		for (int s = segments.length - 1; s >= 0 && hits.size() < limit; s--) {
+			int[][] postings = new int[terms.size()][];
+			for (int t = 0; t < postings.length; t++)
+				postings[t] = segments[s].postings(terms.get(t));
+			collect(postings, hits, limit);
+		}
+
+		return hits;
+	}
+
+	/**
+	 * Intersects a segment's posting lists and adds the newest matches to the
+	 * hits.
+	 */
+	private void collect(int[][] postings, List<SearchHit> hits, int limit) {
+		// start from the shortest list
+		int shortest = 0;
+		for (int t = 0; t < postings.length; t++) {
+			if (postings[t] == null)
+				return;
+			if (postings[t].length < postings[shortest].length)
+				shortest = t;
+		}
+
+		int[] candidates = postings[shortest];
+		int[] positions = new int[postings.length];
+		for (int t = 0; t < postings.length; t++)
+			positions[t] = postings[t].length - 1;
+
+		for (int c = candidates.length - 1; c >= 0 && hits.size() < limit; c--) {
+			int id = candidates[c];
+
+			boolean matched = true;
+			for (int t = 0; t < postings.length && matched; t++) {
+				if (t == shortest)
+					continue;
+
+				// posting lists are ascending, so walk them backwards
+				int p = positions[t];
+				while (p >= 0 && postings[t][p] > id)
+					p--;
+				positions[t] = p;
+				matched = p >= 0 && postings[t][p] == id;
+			}
+
+			// a segment being dropped may outlive its messages
+			SearchHit hit = matched ? store.get(id) : null;
+			if (hit != null)
+				hits.add(hit);
+		}
+	}
+
+	/**
+	 * Drops the oldest frozen segments and their messages while the newer
+	 * messages are enough to retain or while every message they hold is too
+	 * old, and then the mutable segment if every message it holds is too old.
+	 * Called with the lock held.
+	 */
+	private void trim() {
+		if (retainMessages == 0 && retainMillis == 0)
+			return;
+
+		FrozenSegment[] segments = frozen;
+		long expired = retainMillis > 0 ? System.currentTimeMillis()
+				- retainMillis : Long.MIN_VALUE;
+
+		int drop = 0;
+		int start = oldest;
+		while (drop < segments.length) {
+			int end = start + segments[drop].getDocCount();
+			boolean enough = retainMessages > 0
+					&& size - end >= retainMessages;
+			if (!enough && store.getTimestamp(end - 1) >= expired)
+				break;
+
+			start = end;
+			drop++;
+		}
+
+		// a quiet chat room's recent messages expire too
+		boolean expire = drop == segments.length && size > start
+				&& store.getTimestamp(size - 1) < expired;
+		if (drop == 0 && !expire)
+			return;
+
+		if (expire) {
+			mutable = new MutableSegment();
+			start = size;
+		}
+		frozen = Arrays.copyOfRange(segments, drop, segments.length);
+		oldest = start;
+		store.drop(start);
+	}
+
+	/**
+	 * Finds the oldest run of equally sized segments that should be merged.
+	 * Merging the oldest run keeps segment sizes decreasing from oldest to
+	 * newest, so no segment is left behind by a larger neighbor.
+	 *
+	 * @return the index of the run's first segment or -1 if there is none.
+	 */
+	private int mergeable(FrozenSegment[] segments) {
+		int run = 0;
+		for (int i = 0; i < segments.length; i++) {
+			int count = segments[i].getDocCount();
+			if ((long) count * MERGE_FACTOR > maxMergedCount)
+				run = 0;
+			else if (run > 0 && count == segments[i - 1].getDocCount())
+				run++;
+			else
+				run = 1;
+
+			if (run == MERGE_FACTOR)
+				return i - MERGE_FACTOR + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Merges runs of equally sized segments until none remain.
+	 */
+	private void merge() {
+		while (true) {
+			FrozenSegment[] segments = null;
+			int first;
+			synchronized (this) {
+				segments = frozen;
+				first = mergeable(segments);
+				if (first < 0) {
+					merging = false;
+					return;
+				}
+			}
+
+			FrozenSegment merged = FrozenSegment.merge(Arrays.asList(Arrays
+					.copyOfRange(segments, first, first + MERGE_FACTOR)));
+
+			synchronized (this) {
+				// the run may have been dropped since the merge began
+				FrozenSegment[] current = frozen;
+				first = Arrays.asList(current).indexOf(segments[first]);
+				if (first < 0)
+					continue;
+
+				// segments frozen since the merge began are kept after the run
+				FrozenSegment[] replaced = new FrozenSegment[current.length
+						- MERGE_FACTOR + 1];
+				System.arraycopy(current, 0, replaced, 0, first);
+				replaced[first] = merged;
+				System.arraycopy(current, first + MERGE_FACTOR, replaced,
+						first + 1, current.length - first - MERGE_FACTOR);
+				frozen = replaced;
+			}
+		}
+	}
+
+	/**
+	 * Splits text into lower case words.
+	 *
+	 * @param text
+	 *            the text.
+	 * @param terms
+	 *            receives the words.
+	 * @return the terms list.
+	 */
+	private static List<String> tokenize(String text, List<String> terms) {
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length()
+					&& Character.isLetterOrDigit(text.charAt(i));
+
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				terms.add(text.substring(start, i).toLowerCase());
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+}
@@ -0,0 +1,221 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.rmi.RemoteException;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
+import edu.courses.middleware.chatservice.entities.ChatRoom;
+import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.entities.RateLimits;
+
+/**
+ * The JoinStormBenchmark measures how quickly a chat room recovers from a
+ * reconnect storm, in which a large number of chat clients join a busy chat
+ * room at the same moment. Each storm is run three ways: individual joins
+ * with a presence notice per join (the original behavior), individual joins
+ * with coalesced presence notices, and a single joinAll call with coalesced
+ * presence notices.
+ *
+ * Every call crosses the loopback network through RMI stubs. The recovery
+ * time runs from the start of the storm until the last presence notice has
+ * been delivered.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class JoinStormBenchmark implements ChatClientDelegate,
+		ChatRoomDelegate {
+	/** The number of participants already in the chat room. */
+	private int members = 100;
+
+	/** The number of chat clients joining in the storm. */
+	private int storm = 200;
+
+	/** The number of threads issuing individual joins. */
+	private int threads = 16;
+
+	/** The coalesced presence notice interval in milliseconds. */
+	private long interval = 200;
+
+	/** The number of presence deliveries received by all chat clients. */
+	private AtomicLong deliveries = new AtomicLong();
+
+	/** The time of the most recent presence delivery. */
+	private AtomicLong lastDelivery = new AtomicLong();
+
+	/**
+	 * Creates a chat room holding the configured number of participants.
+	 *
+	 * @param name
+	 *            the chat room's name.
+	 * @param presenceInterval
+	 *            the chat room's presence interval.
+	 * @return the chat room's RMI stub.
+	 */
+	private IChatRoom setUpRoom(String name, long presenceInterval)
+			throws Exception {
+		ChatRoom chatRoom = new ChatRoom(name, this, RateLimits.UNLIMITED);
+		chatRoom.setPresenceInterval(presenceInterval);
+		IChatRoom room = (IChatRoom) RemoteObject.toStub(chatRoom);
+
+		room.joinAll(newClients(name + "-member-", members));
+		settle();
+
+		return room;
+	}
+
+	private List<IChatClient> newClients(String prefix, int count)
+			throws RemoteException {
+		List<IChatClient> clients = new ArrayList<IChatClient>(count);
+		for (int i = 0; i < count; i++)
+			clients.add(new ChatClient(prefix + i, this));
+		return clients;
+	}
+
+	/**
+	 * Waits until presence deliveries have stopped arriving.
+	 */
+	private void settle() throws InterruptedException {
+		long quiet = TimeUnit.MILLISECONDS.toNanos(Math.max(2 * interval, 250));
+		do {
+			Thread.sleep(50);
+		} while (System.nanoTime() - lastDelivery.get() < quiet);
+	}
+
+	/**
+	 * Runs a single reconnect storm.
+	 *
+	 * @param label
+	 *            describes the scenario.
+	 * @param presenceInterval
+	 *            the chat room's presence interval.
+	 * @param bulk
+	 *            whether the storm joins with a single joinAll call.
+	 */
+	public void measure(String label, long presenceInterval, boolean bulk)
+			throws Exception {
+		String name = "storm-" + label.replaceAll("\\W+", "-");
+		final IChatRoom room = setUpRoom(name, presenceInterval);
+		final List<IChatClient> clients = newClients(name + "-client-", storm);
+
+		deliveries.set(0);
+		long start = System.nanoTime();
+		lastDelivery.set(start);
+
+		if (bulk) {
+			room.joinAll(clients);
+		} else {
+			final CountDownLatch done = new CountDownLatch(threads);
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				new Thread("storm-joiner-" + t) {
+					@Override
+					public void run() {
+						try {
+							for (int i = first; i < clients.size(); i += threads)
+								room.join(clients.get(i));
+						} catch (RemoteException e) {
+							e.printStackTrace();
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			done.await();
+		}
+
+		long joined = System.nanoTime() - start;
+		settle();
+		long recovered = lastDelivery.get() - start;
+
+		System.out.println(String.format(
+				"\t%-28s joins %8.1fms  recovery %8.1fms  deliveries %8d",
+				label, joined / 1e6, recovered / 1e6, deliveries.get()));
+
+		room.empty();
+	}
+
+	/* ChatClientDelegate Interface Implementation */
+
+	@Override
+	public Map<String, IChatRoom> getHostedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map<String, IChatRoom> getJoinedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void deliver(ChatEnvelope envelope) {
+		if (envelope.getPriority() != MessagePriority.PRESENCE)
+			return;
+
+		deliveries.incrementAndGet();
+		lastDelivery.set(System.nanoTime());
+	}
+
+	@Override
+	public void closed(String name) {
+	}
+
+	/* ChatRoomDelegate Interface Implementation */
+
+	@Override
+	public void close(IChatRoom room) {
+	}
+
+	@Override
+	public void cleanup(IChatClient client) {
+	}
+
+	public static void main(String[] args) {
+		JoinStormBenchmark benchmark = new JoinStormBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-members"))
+				benchmark.members = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-storm"))
+				benchmark.storm = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-threads"))
+				benchmark.threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-interval"))
+				benchmark.interval = Long.parseLong(args[i + 1]);
+		}
+
+		try {
+			// warm up the JIT and connection pools before measuring
+			benchmark.measure("warmup", benchmark.interval, true);
+
+			System.out.println();
+			System.out.println("Reconnect storm of " + benchmark.storm
+					+ " clients into a chat room of " + benchmark.members);
+			benchmark.measure("join, presence per join", 0, false);
+			benchmark.measure("join, coalesced presence", benchmark.interval,
+					false);
+			benchmark.measure("joinAll, coalesced presence",
+					benchmark.interval, true);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,150 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A LatencyHistogram records latency samples (in nanoseconds) into log-linear
+ * buckets in the style of an HDR histogram. Each power-of-two range is split
+ * into 1024 linear sub-buckets, so any reported value is within 0.1% of the
+ * recorded value. Recording is lock-free and may be performed concurrently by
+ * any number of threads.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class LatencyHistogram {
+	/** The number of bits used to index a sub-bucket. */
+	private static final int SUB_BUCKET_BITS = 11;
+
+	/** Half the number of sub-buckets in each bucket. */
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+
+	/** Masks off the sub-bucket portion of a value. */
+	private static final long SUB_BUCKET_MASK = (1L << SUB_BUCKET_BITS) - 1;
+
+	/** The largest value that may be recorded, larger values are clamped. */
+	private long highestTrackableValue;
+
+	/** Holds the number of samples recorded in each sub-bucket. */
+	private AtomicLongArray counts;
+
+	/** The total number of recorded samples. */
+	private AtomicLong totalCount;
+
+	/** The largest recorded sample. */
+	private AtomicLong maxValue;
+
+	public LatencyHistogram(long highestTrackableValue) {
+		this.highestTrackableValue = highestTrackableValue;
+
+		int bucketIndex = bucketIndex(highestTrackableValue);
+		counts = new AtomicLongArray((bucketIndex + 2) << (SUB_BUCKET_BITS - 1));
+		totalCount = new AtomicLong();
+		maxValue = new AtomicLong();
+	}
+
+	/**
+	 * Records a single latency sample.
+	 *
+	 * @param value
+	 *            the sample in nanoseconds.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		if (value > highestTrackableValue)
+			value = highestTrackableValue;
+
+		counts.incrementAndGet(countsIndex(value));
+		totalCount.incrementAndGet();
+
+		long max;
+		while (value > (max = maxValue.get())) {
+			if (maxValue.compareAndSet(max, value))
+				break;
+		}
+	}
+
+	/**
+	 * Returns the total number of recorded samples.
+	 *
+	 * @return the sample count.
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the largest recorded sample.
+	 *
+	 * @return the maximum sample in nanoseconds.
+	 */
+	public long getMaxValue() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Returns the value at or below which the given percentage of samples
+	 * fall.
+	 *
+	 * @param percentile
+	 *            a percentile in the range [0, 100].
+	 * @return the value at the percentile in nanoseconds.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = totalCount.get();
+		if (total == 0)
+			return 0;
+
+		long target = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0
+				* total);
+		if (target < 1)
+			target = 1;
+
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= target)
+				return Math.min(highestEquivalentValue(i), maxValue.get());
+		}
+
+		return maxValue.get();
+	}
+
+	/**
+	 * Clears all recorded samples.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++)
+			counts.set(i, 0);
+		totalCount.set(0);
+		maxValue.set(0);
+	}
+
+	private static int bucketIndex(long value) {
+		return (64 - SUB_BUCKET_BITS)
+				- Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK);
+	}
+
+	private static int countsIndex(long value) {
+		int bucketIndex = bucketIndex(value);
+		int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << (SUB_BUCKET_BITS - 1))
+				+ (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+	}
+
+	private static long highestEquivalentValue(int index) {
+		int bucketIndex = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+		int subBucketIndex = (index & (SUB_BUCKET_HALF_COUNT - 1))
+				+ SUB_BUCKET_HALF_COUNT;
+		if (bucketIndex < 0) {
+			subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+			bucketIndex = 0;
+		}
+
+		long lowest = ((long) subBucketIndex) << bucketIndex;
+		return lowest + (1L << bucketIndex) - 1;
+	}
+
+}
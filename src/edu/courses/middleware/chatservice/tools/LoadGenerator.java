@@ -0,0 +1,455 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.ExportException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.ChatRegistry;
+import edu.courses.middleware.chatservice.IChatRegistry;
+import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
+import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
+import edu.courses.middleware.chatservice.entities.ChatRoom;
+import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.RateLimits;
+import edu.courses.middleware.chatservice.entities.TalkResult;
+import edu.courses.middleware.chatservice.metrics.MetricsHttpServer;
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.Tracer;
+
+/**
+ * The LoadGenerator is a capacity testing tool. It starts a Java RMI registry,
+ * a ChatRegistry and a number of headless providers in a single JVM, creates
+ * chat rooms with a configurable membership distribution and then drives a
+ * target message rate through IChatRoom.talk. All chat service calls are made
+ * through RMI stubs, so every talk and deliver crosses the loopback network.
+ *
+ * Delivery latency is measured from the moment a message was scheduled to be
+ * sent until IChatClient.deliver is invoked on each recipient. Measuring from
+ * the scheduled (rather than actual) send time keeps a stalled sender from
+ * hiding the latency it causes.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class LoadGenerator {
+	/** Marks messages generated by the load generator. */
+	private static final String MESSAGE_PREFIX = "lg:";
+
+	/** Latencies above this value (1 minute) are clamped. */
+	private static final long HIGHEST_TRACKABLE_LATENCY = 60L * 1000 * 1000 * 1000;
+
+	/** The number of providers. */
+	private int providerCount = 10;
+
+	/** The number of chat rooms. */
+	private int roomCount = 10;
+
+	/** Describes how many participants each chat room has. */
+	private String membership = "uniform:5";
+
+	/** The target number of talk calls per second. */
+	private int rate = 1000;
+
+	/** The number of threads issuing talk calls. */
+	private int senders = 4;
+
+	/** The measured run time in seconds. */
+	private int duration = 30;
+
+	/** The warmup time in seconds, excluded from the results. */
+	private int warmup = 5;
+
+	/** The size of each message's padding in characters. */
+	private int messageSize = 64;
+
+	/** The chat service's registry. */
+	private IChatRegistry chatRegistry;
+
+	/** The headless providers. */
+	private List<LoadProvider> providers;
+
+	/** The chat rooms under test and their members. */
+	private List<IChatRoom> rooms;
+	private List<List<LoadProvider>> roomMembers;
+
+	/** The delivery latency histogram. */
+	private LatencyHistogram latencies;
+
+	/** The number of talk calls completed, rate limited and failed. */
+	private AtomicLong sent;
+	private AtomicLong rejected;
+	private AtomicLong failed;
+
+	/** The number of deliveries expected and received. */
+	private AtomicLong expected;
+	private AtomicLong delivered;
+
+	/** Messages scheduled before this time are not measured. */
+	private volatile long measureFrom;
+
+	public LoadGenerator() {
+		providers = new ArrayList<LoadProvider>();
+		rooms = new ArrayList<IChatRoom>();
+		roomMembers = new ArrayList<List<LoadProvider>>();
+
+		latencies = new LatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
+		sent = new AtomicLong();
+		rejected = new AtomicLong();
+		failed = new AtomicLong();
+		expected = new AtomicLong();
+		delivered = new AtomicLong();
+
+		measureFrom = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Starts the RMI registry and the ChatRegistry, then registers the
+	 * providers' chat clients and the chat rooms under test.
+	 */
+	public void setUp() throws Exception {
+		try {
+			// start a local RMI registry unless one is already running
+			LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+		} catch (ExportException e) {
+			System.out.println("Using the already running RMI registry");
+		}
+
+		new ChatRegistry();
+
+		// obtain a chat service registry stub
+		Registry registry = LocateRegistry.getRegistry("localhost");
+		chatRegistry = (IChatRegistry) registry
+				.lookup(ChatRegistry.CHAT_REGISTRY_URL);
+
+		for (int i = 0; i < providerCount; i++) {
+			LoadProvider provider = new LoadProvider();
+			ChatClient client = new ChatClient("lg-client-" + i, provider);
+			provider.client = client;
+
+			int id = chatRegistry.register(client);
+			if (id == 0)
+				throw new IllegalStateException("Unable to register client "
+						+ i);
+			client.setId(id);
+
+			providers.add(provider);
+		}
+
+		int[] sizes = membershipSizes();
+		for (int i = 0; i < roomCount; i++) {
+			String name = "lg-room-" + i;
+			LoadProvider host = providers.get(i % providerCount);
+
+			ChatRoom chatRoom = new ChatRoom(name, host, RateLimits.UNLIMITED);
+			int id = chatRegistry.register(chatRoom);
+			if (id == 0)
+				throw new IllegalStateException("Unable to register room "
+						+ name);
+			chatRoom.setId(id);
+			host.hostedChatRooms.put(name, chatRoom);
+		}
+
+		// join the rooms through their remote stubs
+		Map<String, IChatRoom> chatRooms = chatRegistry.getChatRooms();
+		for (int i = 0; i < roomCount; i++) {
+			IChatRoom room = chatRooms.get("lg-room-" + i);
+			List<LoadProvider> members = new ArrayList<LoadProvider>();
+			List<IChatClient> memberClients = new ArrayList<IChatClient>();
+
+			for (int j = 0; j < sizes[i]; j++) {
+				LoadProvider member = providers.get((i + j) % providerCount);
+				members.add(member);
+				memberClients.add(member.client);
+			}
+
+			for (boolean joined : room.joinAll(memberClients)) {
+				if (!joined)
+					throw new IllegalStateException("Unable to join room " + i);
+			}
+
+			for (LoadProvider member : members)
+				member.joinedChatRooms.put("lg-room-" + i, room);
+
+			rooms.add(room);
+			roomMembers.add(members);
+		}
+
+		int participants = 0;
+		for (int size : sizes)
+			participants += size;
+
+		System.out.println("Set up " + providerCount + " providers, "
+				+ roomCount + " rooms, " + participants + " participants ("
+				+ membership + ")");
+	}
+
+	/**
+	 * Drives the target message rate for the warmup and measurement periods.
+	 */
+	public void run() throws InterruptedException {
+		final long start = System.nanoTime() + 100L * 1000 * 1000;
+		final long end = start + (warmup + duration) * 1000L * 1000 * 1000;
+		measureFrom = start + warmup * 1000L * 1000 * 1000;
+
+		final StringBuilder padding = new StringBuilder();
+		for (int i = 0; i < messageSize; i++)
+			padding.append('x');
+
+		final CountDownLatch done = new CountDownLatch(senders);
+		for (int s = 0; s < senders; s++) {
+			final long interval = 1000L * 1000 * 1000 * senders / rate;
+			final long offset = interval * s / senders;
+			final Random random = new Random(s);
+
+			Thread sender = new Thread("lg-sender-" + s) {
+				@Override
+				public void run() {
+					try {
+						for (long n = 0;; n++) {
+							long intended = start + offset + n * interval;
+							if (intended >= end)
+								break;
+
+							long wait = intended - System.nanoTime();
+							if (wait > 0)
+								Thread.sleep(wait / 1000000,
+										(int) (wait % 1000000));
+
+							send(random, intended, padding);
+						}
+					} catch (InterruptedException e) {
+						// stop sending
+					} finally {
+						done.countDown();
+					}
+				}
+			};
+			sender.setDaemon(true);
+			sender.start();
+		}
+
+		done.await();
+	}
+
+	private void send(Random random, long intended, CharSequence padding) {
+		int index = random.nextInt(rooms.size());
+		List<LoadProvider> members = roomMembers.get(index);
+		LoadProvider member = members.get(random.nextInt(members.size()));
+
+		Span span = Tracer.startTrace("loadgen.talk");
+		try {
+			TalkResult result = rooms.get(index).talk(member.client,
+					MESSAGE_PREFIX + intended + ":" + padding,
+					span == null ? null : span.context());
+			sent.incrementAndGet();
+
+			if (result != TalkResult.DELIVERED)
+				rejected.incrementAndGet();
+			else if (intended >= measureFrom)
+				expected.addAndGet(members.size());
+		} catch (RemoteException e) {
+			failed.incrementAndGet();
+			if (span != null)
+				span.setError();
+		} finally {
+			if (span != null)
+				span.end();
+		}
+	}
+
+	/**
+	 * Waits for outstanding deliveries and prints the results.
+	 */
+	public void report() throws InterruptedException {
+		// give in-flight deliveries a moment to arrive
+		long deadline = System.currentTimeMillis() + 5000;
+		while (delivered.get() < expected.get()
+				&& System.currentTimeMillis() < deadline)
+			Thread.sleep(50);
+
+		System.out.println();
+		System.out.println("Target rate:        " + rate + " msg/s");
+		System.out.println("Talk calls:         " + sent.get() + " ("
+				+ rejected.get() + " rate limited, " + failed.get()
+				+ " failed)");
+		System.out.println("Talk throughput:    "
+				+ String.format("%.1f", (double) sent.get()
+						/ (warmup + duration)) + " msg/s");
+		System.out.println("Deliveries:         " + delivered.get() + " of "
+				+ expected.get() + " expected");
+		System.out.println("Delivery rate:      "
+				+ String.format("%.1f", (double) delivered.get() / duration)
+				+ " deliveries/s");
+		System.out.println("Delivery latency:   p50="
+				+ millis(latencies.getValueAtPercentile(50.0)) + " p99="
+				+ millis(latencies.getValueAtPercentile(99.0)) + " p99.9="
+				+ millis(latencies.getValueAtPercentile(99.9)) + " max="
+				+ millis(latencies.getMaxValue()));
+	}
+
+	private static String millis(long nanos) {
+		return String.format("%.3fms", nanos / 1000000.0);
+	}
+
+	/**
+	 * Computes the number of participants in each chat room according to the
+	 * configured membership distribution. The following distributions are
+	 * supported:
+	 *
+	 * uniform:K - every room has K participants.
+	 *
+	 * random:MIN:MAX - each room has between MIN and MAX participants.
+	 *
+	 * zipf:S - the room ranked i has providers / i^S participants.
+	 *
+	 * @return the participant counts indexed by room.
+	 */
+	private int[] membershipSizes() {
+		String[] parts = membership.split(":");
+		int[] sizes = new int[roomCount];
+		Random random = new Random(42);
+
+		for (int i = 0; i < roomCount; i++) {
+			int size;
+			if (parts[0].equals("uniform")) {
+				size = Integer.parseInt(parts[1]);
+
+			} else if (parts[0].equals("random")) {
+				int min = Integer.parseInt(parts[1]);
+				int max = Integer.parseInt(parts[2]);
+				size = min + random.nextInt(max - min + 1);
+
+			} else if (parts[0].equals("zipf")) {
+				double s = Double.parseDouble(parts[1]);
+				size = (int) Math.round(providerCount / Math.pow(i + 1, s));
+
+			} else {
+				throw new IllegalArgumentException(
+						"Unknown membership distribution [" + membership + "]");
+			}
+
+			// a room always has its host and never more than every provider
+			sizes[i] = Math.max(1, Math.min(size, providerCount));
+		}
+
+		return sizes;
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i];
+			String value = args[i + 1];
+
+			if (option.equals("-providers"))
+				providerCount = Integer.parseInt(value);
+			else if (option.equals("-rooms"))
+				roomCount = Integer.parseInt(value);
+			else if (option.equals("-membership"))
+				membership = value;
+			else if (option.equals("-rate"))
+				rate = Integer.parseInt(value);
+			else if (option.equals("-senders"))
+				senders = Integer.parseInt(value);
+			else if (option.equals("-duration"))
+				duration = Integer.parseInt(value);
+			else if (option.equals("-warmup"))
+				warmup = Integer.parseInt(value);
+			else if (option.equals("-size"))
+				messageSize = Integer.parseInt(value);
+			else
+				throw new IllegalArgumentException("Unknown option " + option);
+		}
+	}
+
+	/**
+	 * A LoadProvider plays the part of a ChatProvider without a user
+	 * interface. It hosts chat rooms and owns a single chat client whose
+	 * deliveries are timed.
+	 */
+	private class LoadProvider implements ChatRoomDelegate, ChatClientDelegate {
+		/** The provider's chat client. */
+		private IChatClient client;
+
+		/** Holds the chat rooms hosted by the provider. */
+		private Map<String, IChatRoom> hostedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
+
+		/** Holds the chat rooms joined by the provider. */
+		private Map<String, IChatRoom> joinedChatRooms = new ConcurrentHashMap<String, IChatRoom>();
+
+		/* ChatRoomDelegate Interface Implementation */
+
+		@Override
+		public void close(IChatRoom room) {
+		}
+
+		@Override
+		public void cleanup(IChatClient client) {
+		}
+
+		/* ChatClientDelegate Interface Implementation */
+
+		@Override
+		public Map<String, IChatRoom> getHostedChatRooms() {
+			return hostedChatRooms;
+		}
+
+		@Override
+		public Map<String, IChatRoom> getJoinedChatRooms() {
+			return joinedChatRooms;
+		}
+
+		@Override
+		public void deliver(ChatEnvelope envelope) {
+			String message = envelope.getMessage();
+			if (!message.startsWith(MESSAGE_PREFIX))
+				return;
+
+			long now = System.nanoTime();
+			int end = message.indexOf(':', MESSAGE_PREFIX.length());
+			long intended = Long.parseLong(message.substring(
+					MESSAGE_PREFIX.length(), end));
+
+			if (intended < measureFrom)
+				return;
+
+			latencies.record(now - intended);
+			delivered.incrementAndGet();
+		}
+
+		@Override
+		public void closed(String name) {
+			joinedChatRooms.remove(name);
+		}
+	}
+
+	public static void main(String[] args) {
+		MetricsHttpServer.startFromSystemProperties();
+
+		LoadGenerator generator = new LoadGenerator();
+
+		try {
+			generator.parseArguments(args);
+			generator.setUp();
+			generator.run();
+			generator.report();
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
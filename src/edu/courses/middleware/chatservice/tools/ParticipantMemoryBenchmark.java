@@ -0,0 +1,148 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.rmi.MarshalledObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
+import edu.courses.middleware.chatservice.entities.ChatRoom;
+import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.RateLimits;
+
+/**
+ * The ParticipantMemoryBenchmark measures how much heap a chat room spends
+ * per participant. A chat room holds an RMI stub for every participant, as
+ * it would for remote clients, so the stubs are made by marshalling each
+ * chat client and unmarshalling it again. The benchmark reports the size of
+ * those stubs and, separately, the chat room's own bookkeeping for each
+ * participant (its table slots, Participant and copy of the screen name).
+ *
+ * Sizes are differences in used heap after garbage collection, divided by the
+ * number of participants, so the larger the chat room the more accurate they
+ * are.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class ParticipantMemoryBenchmark implements ChatClientDelegate,
+		ChatRoomDelegate {
+	/** The number of participants. */
+	private int members = 20000;
+
+	/** The number of chat clients joined per joinAll call. */
+	private int batch = 500;
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public void measure() throws Exception {
+		List<ChatClient> clients = new ArrayList<ChatClient>(members);
+		for (int m = 0; m < members; m++)
+			clients.add(new ChatClient("member-" + m, this));
+		long exported = usedHeap();
+
+		List<IChatClient> stubs = new ArrayList<IChatClient>(members);
+		for (ChatClient client : clients)
+			stubs.add(new MarshalledObject<IChatClient>(client).get());
+		long stubbed = usedHeap();
+
+		ChatRoom room = new ChatRoom("memory", this, RateLimits
+				.fromSystemProperties());
+
+		// keep the join notice from being broadcast while measuring
+		room.setPresenceInterval(TimeUnit.HOURS.toMillis(1));
+		long empty = usedHeap();
+
+		long start = System.nanoTime();
+		for (int from = 0; from < members; from += batch)
+			room.joinAll(stubs.subList(from, Math.min(from + batch, members)));
+		long joinNanos = System.nanoTime() - start;
+		long joined = usedHeap();
+
+		System.out.println(String.format("%d participants", members));
+		System.out.println(String.format("\tstub          %6.1f bytes each",
+				(stubbed - exported) / (double) members));
+		System.out.println(String.format("\tchat room     %6.1f bytes each",
+				(joined - empty) / (double) members));
+		System.out.println(String.format("\tjoin          %6.1f us each",
+				joinNanos / 1e3 / members));
+
+		// keep everything reachable until measured
+		if (clients.size() + stubs.size() < 0)
+			System.out.println(room);
+	}
+
+	/**
+	 * Returns the heap in use once garbage has been collected.
+	 */
+	private static long usedHeap() throws InterruptedException {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			TimeUnit.MILLISECONDS.sleep(50);
+			used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+		}
+		return used;
+	}
+
+	/* ChatClientDelegate Interface Implementation */
+
+	@Override
+	public Map<String, IChatRoom> getHostedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map<String, IChatRoom> getJoinedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void deliver(ChatEnvelope envelope) {
+	}
+
+	@Override
+	public void closed(String name) {
+	}
+
+	/* ChatRoomDelegate Interface Implementation */
+
+	@Override
+	public void close(IChatRoom room) {
+	}
+
+	@Override
+	public void cleanup(IChatClient client) {
+	}
+
+	public static void main(String[] args) {
+		ParticipantMemoryBenchmark benchmark = new ParticipantMemoryBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-members"))
+				benchmark.members = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-batch"))
+				benchmark.batch = Integer.parseInt(args[i + 1]);
+		}
+
+		try {
+			benchmark.measure();
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,202 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.ExportException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.ChatRegistry;
+import edu.courses.middleware.chatservice.IChatRegistry;
+import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
+import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
+import edu.courses.middleware.chatservice.entities.ChatRoom;
+import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.logging.EventLog;
+import edu.courses.middleware.chatservice.logging.Level;
+import edu.courses.middleware.chatservice.logging.RingBufferAppender;
+
+/**
+ * The RegistryLoggingBenchmark measures ChatRegistry throughput with event
+ * logging disabled, at INFO and at DEBUG. A number of threads issue a mix of
+ * getChatRooms, getInfo and register/deregister calls through the registry's
+ * RMI stub for a fixed period at each logging level.
+ *
+ * Run it with -Dchatservice.log.file=... to keep log output off the console.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class RegistryLoggingBenchmark implements ChatClientDelegate,
+		ChatRoomDelegate {
+	/** The number of idle entities registered before measuring. */
+	private int entityCount = 200;
+
+	/** The number of threads calling the registry. */
+	private int threads = 8;
+
+	/** The measured time per logging level in seconds. */
+	private int duration = 10;
+
+	/** The chat service's registry. */
+	private IChatRegistry chatRegistry;
+
+	public void setUp() throws Exception {
+		try {
+			// start a local RMI registry unless one is already running
+			LocateRegistry.createRegistry(Registry.REGISTRY_PORT);
+		} catch (ExportException e) {
+			System.out.println("Using the already running RMI registry");
+		}
+
+		new ChatRegistry();
+
+		// obtain a chat service registry stub
+		Registry registry = LocateRegistry.getRegistry("localhost");
+		chatRegistry = (IChatRegistry) registry
+				.lookup(ChatRegistry.CHAT_REGISTRY_URL);
+
+		// one in ten idle entities is a chat room
+		for (int i = 0; i < entityCount; i++) {
+			if (i % 10 == 0)
+				chatRegistry.register(new ChatRoom("bench-room-" + i, this));
+			else
+				chatRegistry.register(new ChatClient("bench-client-" + i, this));
+		}
+	}
+
+	/**
+	 * Runs the workload at the given logging level.
+	 *
+	 * @param level
+	 *            the logging threshold.
+	 * @return the number of registry calls per second.
+	 */
+	public double measure(Level level) throws Exception {
+		EventLog.setLevel(level);
+
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+		final AtomicLong operations = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			final IChatClient own = new ChatClient("bench-worker-" + level
+					+ "-" + t, this);
+			final Random random = new Random(t);
+
+			Thread worker = new Thread("bench-worker-" + t) {
+				@Override
+				public void run() {
+					long n = 0;
+					try {
+						while (System.nanoTime() < end) {
+							int op = random.nextInt(10);
+							if (op < 4) {
+								chatRegistry.getChatRooms();
+							} else if (op < 8) {
+								chatRegistry.getInfo("bench-client-"
+										+ (1 + random.nextInt(entityCount - 1)));
+							} else {
+								chatRegistry.register(own);
+								chatRegistry.deregister(own);
+								n++;
+							}
+							n++;
+						}
+					} catch (RemoteException e) {
+						e.printStackTrace();
+					} finally {
+						operations.addAndGet(n);
+						done.countDown();
+					}
+				}
+			};
+			worker.start();
+		}
+
+		done.await();
+		return (double) operations.get() / duration;
+	}
+
+	/* ChatClientDelegate Interface Implementation */
+
+	@Override
+	public Map<String, IChatRoom> getHostedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map<String, IChatRoom> getJoinedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void deliver(ChatEnvelope envelope) {
+	}
+
+	@Override
+	public void closed(String name) {
+	}
+
+	/* ChatRoomDelegate Interface Implementation */
+
+	@Override
+	public void close(IChatRoom room) {
+	}
+
+	@Override
+	public void cleanup(IChatClient client) {
+	}
+
+	public static void main(String[] args) {
+		RegistryLoggingBenchmark benchmark = new RegistryLoggingBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-entities"))
+				benchmark.entityCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-threads"))
+				benchmark.threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-duration"))
+				benchmark.duration = Integer.parseInt(args[i + 1]);
+		}
+
+		try {
+			benchmark.setUp();
+
+			// warm up the JIT and connection pools before measuring
+			benchmark.measure(Level.OFF);
+
+			Level[] levels = { Level.OFF, Level.INFO, Level.DEBUG };
+			double[] results = new double[levels.length];
+			for (int i = 0; i < levels.length; i++)
+				results[i] = benchmark.measure(levels[i]);
+
+			RingBufferAppender.getInstance().drain(
+					TimeUnit.SECONDS.toNanos(5));
+
+			System.err.println();
+			System.err.println("Registry throughput (" + benchmark.threads
+					+ " threads, " + benchmark.entityCount + " entities)");
+			for (int i = 0; i < levels.length; i++)
+				System.err.println("\tlogging " + levels[i] + ":\t"
+						+ String.format("%.1f", results[i]) + " calls/s");
+			System.err.println("\tdropped log events:\t"
+					+ RingBufferAppender.getInstance().getDropped());
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
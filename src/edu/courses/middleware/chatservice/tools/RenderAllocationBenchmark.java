@@ -0,0 +1,164 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.ui.ChatMessage;
+import edu.courses.middleware.chatservice.ui.MessageRenderer;
+
+/**
+ * The RenderAllocationBenchmark measures the heap allocated per chat message
+ * on its way from delivery to the console. Messages are delivered to a
+ * MessageRenderer writing to a discarding stream, and the bytes allocated by
+ * the delivering thread and the renderer thread are read from the JVM's
+ * ThreadMXBean, much as a profiler's allocation counter would report them.
+ *
+ * Three paths are compared:
+ *
+ * legacy - a new ChatMessage per delivery, printed with string concatenation
+ * and two println calls as the UIHandler once did.
+ *
+ * new - a new ChatMessage per delivery, rendered by the MessageRenderer.
+ *
+ * pooled - a pooled ChatMessage per delivery, rendered and recycled by the
+ * MessageRenderer.
+ *
+ * Allocated bytes are only available on JVMs whose ThreadMXBean is a
+ * com.sun.management.ThreadMXBean (e.g., HotSpot).
+ *
+ * @author Jonas Michel
+ *
+ */
+public class RenderAllocationBenchmark {
+	/** The number of messages measured per path. */
+	private int messages = 500000;
+
+	/** The number of messages delivered before the renderer catches up. */
+	private int burst = 512;
+
+	/** The chat rooms, senders and texts the messages are made of. */
+	private String[] rooms = new String[16];
+	private String[] senders = new String[64];
+	private String[] texts = { "hello", "how is everyone doing today?",
+			"the build is green again", "lunch in ten minutes",
+			"has anyone seen the latest release notes?" };
+
+	/** Discards everything written to it. */
+	private PrintStream sink = new PrintStream(new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	});
+
+	/** Reads per-thread allocation counters. */
+	private com.sun.management.ThreadMXBean threads;
+
+	/** Renders the new and pooled paths' messages. */
+	private MessageRenderer renderer;
+
+	public RenderAllocationBenchmark() {
+		for (int i = 0; i < rooms.length; i++)
+			rooms[i] = "room-" + i;
+		for (int i = 0; i < senders.length; i++)
+			senders[i] = "user-" + i;
+	}
+
+	/**
+	 * Runs the benchmark.
+	 */
+	public void measure() throws Exception {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("This JVM doesn't count allocated bytes per thread");
+			return;
+		}
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		renderer = new MessageRenderer(sink);
+		renderer.start();
+
+		System.out.println(messages + " messages per path");
+		for (String path : new String[] { "legacy", "new", "pooled" }) {
+			// the first run warms up the path
+			run(path);
+			double bytes = run(path);
+			System.out.println(String.format("\t%-7s %8.1f bytes per message",
+					path, bytes));
+		}
+	}
+
+	/**
+	 * Delivers messages along a path.
+	 *
+	 * @return the bytes allocated per message.
+	 */
+	private double run(String path) throws InterruptedException {
+		long before = allocated();
+
+		for (int i = 0; i < messages; i++) {
+			String room = rooms[i % rooms.length];
+			String sender = senders[i % senders.length];
+			String text = texts[i % texts.length];
+
+			if (path.equals("legacy")) {
+				ChatMessage message = new ChatMessage(room, sender, text,
+						MessagePriority.CHAT, null);
+				sink.println();
+				sink.println("\t" + message.toChatString());
+				continue;
+			}
+
+			renderer.deliver(path.equals("pooled") ? ChatMessage.obtain(room,
+					sender, text, MessagePriority.CHAT, null) : new ChatMessage(
+					room, sender, text, MessagePriority.CHAT, null));
+
+			// let the renderer catch up rather than drop messages
+			if (i % burst == burst - 1)
+				while (renderer.getQueued() > 0)
+					TimeUnit.MILLISECONDS.sleep(1);
+		}
+
+		while (renderer.getQueued() > 0)
+			TimeUnit.MILLISECONDS.sleep(1);
+		TimeUnit.MILLISECONDS.sleep(100);
+
+		return (allocated() - before) / (double) messages;
+	}
+
+	/**
+	 * Returns the bytes allocated so far by this thread and the renderer.
+	 */
+	private long allocated() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId())
+				+ threads.getThreadAllocatedBytes(renderer.getId());
+	}
+
+	public static void main(String[] args) {
+		RenderAllocationBenchmark benchmark = new RenderAllocationBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-messages"))
+				benchmark.messages = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-burst"))
+				benchmark.burst = Integer.parseInt(args[i + 1]);
+		}
+
+		try {
+			benchmark.measure();
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,160 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.courses.middleware.chatservice.search.SearchIndex;
+
+/**
+ * The SearchBenchmark measures the SearchIndex used for chat room history. It
+ * indexes a large number of synthetic chat messages, whose words follow a
+ * skewed distribution over a fixed vocabulary, and then times a mix of
+ * queries for common words, rare words, word pairs and senders.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class SearchBenchmark {
+	/** The number of messages indexed. */
+	private int messages = 2000000;
+
+	/** The number of distinct words. */
+	private int vocabulary = 50000;
+
+	/** The number of distinct senders. */
+	private int senders = 1000;
+
+	/** The number of queries of each kind. */
+	private int queries = 2000;
+
+	/** The number of hits requested per query. */
+	private int limit = 20;
+
+	/** The index under test. */
+	private SearchIndex index;
+
+	/** Generates messages and queries. */
+	private Random random;
+
+	public SearchBenchmark() {
+		random = new Random(42);
+	}
+
+	/**
+	 * Picks a word, favoring the start of the vocabulary.
+	 */
+	private String word() {
+		double r = random.nextDouble();
+		return "w" + (int) (vocabulary * r * r * r);
+	}
+
+	/**
+	 * Indexes the synthetic messages.
+	 */
+	public void load() throws InterruptedException {
+		index = new SearchIndex();
+
+		StringBuilder sb = new StringBuilder();
+		long start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sb.setLength(0);
+			int words = 3 + random.nextInt(10);
+			for (int w = 0; w < words; w++)
+				sb.append(word()).append(' ');
+
+			index.add(System.currentTimeMillis(),
+					"user" + random.nextInt(senders), sb.toString());
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println("Indexed " + messages + " messages in "
+				+ TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms ("
+				+ String.format("%.0f", messages / (elapsed / 1e9))
+				+ " messages/s)");
+
+		// let background merges settle
+		int segments;
+		do {
+			segments = index.getSegmentCount();
+			Thread.sleep(3000);
+		} while (segments != index.getSegmentCount());
+		System.out.println("Segments after merging: " + segments);
+	}
+
+	/**
+	 * Times one kind of query.
+	 */
+	private void measure(String label, int kind) {
+		LatencyHistogram latencies = new LatencyHistogram(
+				TimeUnit.SECONDS.toNanos(10));
+		long hits = 0;
+
+		for (int q = 0; q < queries; q++) {
+			String query = null;
+			switch (kind) {
+			case 0:
+				query = "w" + random.nextInt(10);
+				break;
+			case 1:
+				query = "w" + (vocabulary / 2 + random.nextInt(vocabulary / 2));
+				break;
+			case 2:
+				query = word() + " " + word();
+				break;
+			default:
+				query = "from:user" + random.nextInt(senders) + " " + word();
+				break;
+			}
+
+			long start = System.nanoTime();
+			hits += index.search(query, limit).size();
+			latencies.record(System.nanoTime() - start);
+		}
+
+		System.out.println(String.format(
+				"\t%-16s p50=%7.3fms  p99=%7.3fms  max=%7.3fms  hits/query=%.1f",
+				label, latencies.getValueAtPercentile(50.0) / 1e6,
+				latencies.getValueAtPercentile(99.0) / 1e6,
+				latencies.getMaxValue() / 1e6, (double) hits / queries));
+	}
+
+	public static void main(String[] args) {
+		SearchBenchmark benchmark = new SearchBenchmark();
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-messages"))
+				benchmark.messages = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-vocabulary"))
+				benchmark.vocabulary = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-senders"))
+				benchmark.senders = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-queries"))
+				benchmark.queries = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-limit"))
+				benchmark.limit = Integer.parseInt(args[i + 1]);
+		}
+
+		try {
+			benchmark.load();
+
+			// warm up the JIT before measuring
+			for (int kind = 0; kind < 4; kind++)
+				benchmark.measure("warmup", kind);
+
+			System.out.println();
+			System.out.println("Query latency (" + benchmark.queries
+					+ " queries each, limit " + benchmark.limit + ")");
+			benchmark.measure("common word", 0);
+			benchmark.measure("rare word", 1);
+			benchmark.measure("two words", 2);
+			benchmark.measure("sender and word", 3);
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,233 @@
+package edu.courses.middleware.chatservice.tools;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.courses.middleware.chatservice.concurrent.ChatExecutors;
+import edu.courses.middleware.chatservice.entities.ChatClient;
+import edu.courses.middleware.chatservice.entities.ChatClientDelegate;
+import edu.courses.middleware.chatservice.entities.ChatEnvelope;
+import edu.courses.middleware.chatservice.entities.ChatRoom;
+import edu.courses.middleware.chatservice.entities.ChatRoomDelegate;
+import edu.courses.middleware.chatservice.entities.IChatClient;
+import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.entities.RateLimits;
+
+/**
+ * The ThreadFootprintBenchmark compares the execution models offered by
+ * ChatExecutors. A number of chat rooms are all busy at once, each talked to
+ * by its own caller thread (as RMI would dedicate a connection thread to
+ * each), and every delivery takes a fixed time to simulate a slow network.
+ * For each model it reports how long the rooms took to fan out their
+ * messages, how many rooms were fanning out at the same moment and how many
+ * live threads that cost.
+ *
+ * Each model runs in its own JVM (the model is fixed when ChatExecutors is
+ * loaded), so the benchmark relaunches itself once per model. Chat clients
+ * are called directly rather than through RMI stubs so that RMI's own
+ * connection threads don't blur the comparison.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class ThreadFootprintBenchmark implements ChatClientDelegate,
+		ChatRoomDelegate {
+	/** The number of chat rooms. */
+	private int rooms = 200;
+
+	/** The number of participants per chat room. */
+	private int members = 20;
+
+	/** The number of messages sent to each chat room. */
+	private int messages = 5;
+
+	/** The time a single delivery takes in milliseconds. */
+	private long latency = 20;
+
+	/** The number of chat rooms fanning out right now and at most. */
+	private AtomicInteger active = new AtomicInteger();
+	private AtomicInteger maxActive = new AtomicInteger();
+
+	/** The total time spent in talk calls. */
+	private AtomicLong talkNanos = new AtomicLong();
+
+	/**
+	 * Runs the benchmark with the execution model of this JVM.
+	 */
+	public void measure() throws Exception {
+		List<ChatRoom> chatRooms = new ArrayList<ChatRoom>();
+		List<IChatClient> talkers = new ArrayList<IChatClient>();
+		for (int r = 0; r < rooms; r++) {
+			ChatRoom room = new ChatRoom("footprint-" + r, this,
+					RateLimits.UNLIMITED);
+
+			List<IChatClient> clients = new ArrayList<IChatClient>();
+			for (int m = 0; m < members; m++)
+				clients.add(new ChatClient("footprint-" + r + "-" + m, this));
+			room.joinAll(clients);
+
+			chatRooms.add(room);
+			talkers.add(clients.get(0));
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int idle = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+
+		final CountDownLatch go = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(rooms);
+		for (int r = 0; r < rooms; r++) {
+			final IChatRoom room = chatRooms.get(r);
+			final IChatClient talker = talkers.get(r);
+			new Thread("footprint-caller-" + r) {
+				@Override
+				public void run() {
+					try {
+						go.await();
+						for (int i = 0; i < messages; i++) {
+							int now = active.incrementAndGet();
+							if (now > maxActive.get())
+								maxActive.set(now);
+
+							long start = System.nanoTime();
+							room.talk(talker, "message " + i);
+							talkNanos.addAndGet(System.nanoTime() - start);
+							active.decrementAndGet();
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+
+		long start = System.nanoTime();
+		go.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println(String.format(
+				"\t%-9s elapsed %8.1fms  talk mean %8.1fms  concurrent rooms %5d"
+						+ "  threads idle %5d  peak %6d",
+				ChatExecutors.getModel().toString().toLowerCase(),
+				elapsed / 1e6, talkNanos.get() / 1e6 / (rooms * messages),
+				maxActive.get(), idle, threads.getPeakThreadCount()));
+	}
+
+	/**
+	 * Runs the benchmark in a new JVM with the given execution model.
+	 */
+	private static void launch(String model, String[] args) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("-D" + ChatExecutors.MODEL_PROPERTY + "=" + model);
+		command.add("-Dchatservice.log.level=OFF");
+		if (System.getProperty("java.security.policy") != null)
+			command.add("-Djava.security.policy="
+					+ System.getProperty("java.security.policy"));
+		command.add(ThreadFootprintBenchmark.class.getName());
+		command.add("-child");
+		command.add(model);
+		Collections.addAll(command, args);
+
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		process.waitFor();
+	}
+
+	/* ChatClientDelegate Interface Implementation */
+
+	@Override
+	public Map<String, IChatRoom> getHostedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Map<String, IChatRoom> getJoinedChatRooms() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public void deliver(ChatEnvelope envelope) {
+		if (envelope.getPriority() == MessagePriority.PRESENCE)
+			return;
+
+		// simulate a slow network
+		try {
+			TimeUnit.MILLISECONDS.sleep(latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void closed(String name) {
+	}
+
+	/* ChatRoomDelegate Interface Implementation */
+
+	@Override
+	public void close(IChatRoom room) {
+	}
+
+	@Override
+	public void cleanup(IChatClient client) {
+	}
+
+	public static void main(String[] args) {
+		ThreadFootprintBenchmark benchmark = new ThreadFootprintBenchmark();
+
+		boolean child = false;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-rooms"))
+				benchmark.rooms = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-members"))
+				benchmark.members = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-messages"))
+				benchmark.messages = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-latency"))
+				benchmark.latency = Long.parseLong(args[i + 1]);
+			else if (args[i].equals("-child"))
+				child = true;
+		}
+
+		try {
+			if (child) {
+				benchmark.measure();
+			} else {
+				System.out.println(benchmark.rooms + " busy chat rooms of "
+						+ benchmark.members + ", " + benchmark.messages
+						+ " messages each, " + benchmark.latency
+						+ "ms per delivery");
+				launch("inline", args);
+				launch("platform", args);
+				if (ChatExecutors.isVirtualSupported())
+					launch("virtual", args);
+				else
+					System.out.println("\tvirtual   unavailable on Java "
+							+ System.getProperty("java.specification.version"));
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,46 @@
+package edu.courses.middleware.chatservice.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The InMemorySpanExporter keeps the most recently ended spans in memory
+ * where they can be inspected (e.g., from a debugger or an embedding
+ * application). The oldest spans are discarded once the exporter is full.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class InMemorySpanExporter implements SpanExporter {
+	/** Holds the most recently ended spans. */
+	private BlockingQueue<Span> spans;
+
+	public InMemorySpanExporter(int capacity) {
+		spans = new ArrayBlockingQueue<Span>(capacity);
+	}
+
+	@Override
+	public void export(Span span) {
+		while (!spans.offer(span))
+			spans.poll();
+	}
+
+	/**
+	 * Returns the spans exported so far.
+	 * 
+	 * @return a copy of the retained spans, oldest first.
+	 */
+	public List<Span> getFinishedSpans() {
+		return new ArrayList<Span>(spans);
+	}
+
+	/**
+	 * Discards all retained spans.
+	 */
+	public void reset() {
+		spans.clear();
+	}
+
+}
@@ -0,0 +1,140 @@
+package edu.courses.middleware.chatservice.tracing;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The OtlpJsonFileSpanExporter appends ended spans to a file in the
+ * OpenTelemetry protocol's JSON encoding, one ExportTraceServiceRequest per
+ * line (the format read by the OpenTelemetry collector's file receiver).
+ * Spans are queued and written in batches by a background thread; spans that
+ * arrive while the queue is full are dropped.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class OtlpJsonFileSpanExporter extends Thread implements SpanExporter {
+	/** The largest number of spans written in one request. */
+	private static final int MAX_BATCH = 512;
+
+	/** The service name reported in each request's resource. */
+	private String serviceName;
+
+	/** Holds spans waiting to be written. */
+	private BlockingQueue<Span> queue;
+
+	/** The output file. */
+	private Writer out;
+
+	public OtlpJsonFileSpanExporter(String file, String serviceName)
+			throws IOException {
+		super("chatservice-trace-writer");
+		setDaemon(true);
+
+		this.serviceName = serviceName;
+		queue = new ArrayBlockingQueue<Span>(8192);
+		out = new OutputStreamWriter(new FileOutputStream(file, true),
+				StandardCharsets.UTF_8);
+
+		start();
+	}
+
+	@Override
+	public void export(Span span) {
+		queue.offer(span);
+	}
+
+	@Override
+	public void run() {
+		List<Span> batch = new ArrayList<Span>(MAX_BATCH);
+		StringBuilder sb = new StringBuilder();
+
+		while (true) {
+			try {
+				Span first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null)
+					continue;
+
+				batch.add(first);
+				queue.drainTo(batch, MAX_BATCH - 1);
+
+				write(batch, sb);
+				out.write(sb.toString());
+				out.flush();
+
+			} catch (InterruptedException e) {
+				return;
+
+			} catch (IOException e) {
+				e.printStackTrace();
+
+			} finally {
+				batch.clear();
+				sb.setLength(0);
+			}
+		}
+	}
+
+	private void write(List<Span> spans, StringBuilder sb) {
+		sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+		attribute(sb, "service.name", serviceName);
+		sb.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"")
+				.append(Tracer.class.getPackage().getName())
+				.append("\"},\"spans\":[");
+
+		for (int i = 0; i < spans.size(); i++) {
+			Span span = spans.get(i);
+			if (i > 0)
+				sb.append(',');
+
+			sb.append("{\"traceId\":\"").append(span.getTraceId())
+					.append("\",\"spanId\":\"").append(span.getSpanId())
+					.append("\",\"parentSpanId\":\"")
+					.append(span.getParentSpanId()).append("\",\"name\":");
+			string(sb, span.getName());
+			sb.append(",\"kind\":").append(span.getKind())
+					.append(",\"startTimeUnixNano\":\"")
+					.append(span.getStartEpochNanos())
+					.append("\",\"endTimeUnixNano\":\"")
+					.append(span.getEndEpochNanos())
+					.append("\",\"attributes\":[");
+			if (span.getAttributeKey() != null)
+				attribute(sb, span.getAttributeKey(), span.getAttributeValue());
+			sb.append("],\"status\":{\"code\":")
+					.append(span.isError() ? 2 : 0).append("}}");
+		}
+
+		sb.append("]}]}]}\n");
+	}
+
+	private static void attribute(StringBuilder sb, String key, String value) {
+		sb.append("{\"key\":");
+		string(sb, key);
+		sb.append(",\"value\":{\"stringValue\":");
+		string(sb, value);
+		sb.append("}}");
+	}
+
+	private static void string(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		sb.append('"');
+	}
+
+}
@@ -0,0 +1,149 @@
+package edu.courses.middleware.chatservice.tracing;
+
+/**
+ * A Span records the timing of one stage of a message's path through the
+ * chat service. Spans are created by the Tracer and exported when ended.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class Span {
+	/** The span kinds, numbered as in the OpenTelemetry protocol. */
+	public static final int KIND_INTERNAL = 1;
+	public static final int KIND_SERVER = 2;
+	public static final int KIND_CLIENT = 3;
+
+	/** The stage's name. */
+	private String name;
+
+	/** The span's kind. */
+	private int kind;
+
+	/** The trace the span belongs to. */
+	private long traceIdHigh;
+	private long traceIdLow;
+
+	/** The span's and its parent's identifiers (0 if the span is a root). */
+	private long spanId;
+	private long parentSpanId;
+
+	/** When the stage started and ended (nanoseconds since the epoch). */
+	private long startEpochNanos;
+	private long endEpochNanos;
+
+	/** A single descriptive attribute. */
+	private String attributeKey;
+	private String attributeValue;
+
+	/** Whether or not the stage failed. */
+	private boolean error;
+
+	Span(String name, int kind, long traceIdHigh, long traceIdLow,
+			long spanId, long parentSpanId) {
+		this.name = name;
+		this.kind = kind;
+		this.traceIdHigh = traceIdHigh;
+		this.traceIdLow = traceIdLow;
+		this.spanId = spanId;
+		this.parentSpanId = parentSpanId;
+
+		startEpochNanos = Tracer.epochNanos();
+	}
+
+	/**
+	 * Returns the context that must be passed to the span's children.
+	 * 
+	 * @return the span's trace context.
+	 */
+	public TraceContext context() {
+		return new TraceContext(traceIdHigh, traceIdLow, spanId);
+	}
+
+	/**
+	 * Attaches a descriptive attribute to the span.
+	 * 
+	 * @param key
+	 *            the attribute's key.
+	 * @param value
+	 *            the attribute's value.
+	 * @return this span.
+	 */
+	public Span setAttribute(String key, String value) {
+		attributeKey = key;
+		attributeValue = value;
+		return this;
+	}
+
+	/**
+	 * Marks the span's stage as failed.
+	 */
+	public void setError() {
+		error = true;
+	}
+
+	/**
+	 * Ends the span and hands it to the Tracer's exporter.
+	 */
+	public void end() {
+		endEpochNanos = Tracer.epochNanos();
+		Tracer.export(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public String getTraceId() {
+		return hex(traceIdHigh) + hex(traceIdLow);
+	}
+
+	public String getSpanId() {
+		return hex(spanId);
+	}
+
+	public String getParentSpanId() {
+		return parentSpanId == 0 ? "" : hex(parentSpanId);
+	}
+
+	public long getStartEpochNanos() {
+		return startEpochNanos;
+	}
+
+	public long getEndEpochNanos() {
+		return endEpochNanos;
+	}
+
+	public long getDurationNanos() {
+		return endEpochNanos - startEpochNanos;
+	}
+
+	public String getAttributeKey() {
+		return attributeKey;
+	}
+
+	public String getAttributeValue() {
+		return attributeValue;
+	}
+
+	public boolean isError() {
+		return error;
+	}
+
+	static String hex(long value) {
+		String digits = Long.toHexString(value);
+		return "0000000000000000".substring(digits.length()) + digits;
+	}
+
+	@Override
+	public String toString() {
+		return "Span [name=" + name + ", traceId=" + getTraceId()
+				+ ", spanId=" + getSpanId() + ", parentSpanId="
+				+ getParentSpanId() + ", duration=" + getDurationNanos()
+				+ "ns]";
+	}
+
+}
@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.tracing;
+
+/**
+ * A SpanExporter receives ended spans from the Tracer. Implementations must
+ * not block the caller.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface SpanExporter {
+
+	/**
+	 * Called when a span ends.
+	 * 
+	 * @param span
+	 *            the ended span.
+	 */
+	public void export(Span span);
+
+}
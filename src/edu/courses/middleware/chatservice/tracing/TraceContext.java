@@ -0,0 +1,48 @@
+package edu.courses.middleware.chatservice.tracing;
+
+import java.io.Serializable;
+
+/**
+ * A TraceContext identifies a sampled trace and the span that caused the
+ * current remote call. It is passed alongside a chat message through
+ * IChatRoom.talk and IChatClient.deliver. Unsampled messages carry no trace
+ * context at all (null), so tracing costs nothing on the wire for them.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class TraceContext implements Serializable {
+	private static final long serialVersionUID = 3391427816554190236L;
+
+	/** The 128 bit trace identifier. */
+	private long traceIdHigh;
+	private long traceIdLow;
+
+	/** The identifier of the parent span. */
+	private long spanId;
+
+	public TraceContext(long traceIdHigh, long traceIdLow, long spanId) {
+		this.traceIdHigh = traceIdHigh;
+		this.traceIdLow = traceIdLow;
+		this.spanId = spanId;
+	}
+
+	public long getTraceIdHigh() {
+		return traceIdHigh;
+	}
+
+	public long getTraceIdLow() {
+		return traceIdLow;
+	}
+
+	public long getSpanId() {
+		return spanId;
+	}
+
+	@Override
+	public String toString() {
+		return "TraceContext [traceId=" + Span.hex(traceIdHigh)
+				+ Span.hex(traceIdLow) + ", spanId=" + Span.hex(spanId) + "]";
+	}
+
+}
@@ -0,0 +1,166 @@
+package edu.courses.middleware.chatservice.tracing;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The Tracer decides which messages are traced and creates the spans that
+ * time each stage of a traced message's path (provider talk, room fan-out,
+ * per-recipient delivery, client delivery and UI display).
+ * 
+ * Sampling is decided once, when a message is sent, using the probability
+ * held in the chatservice.trace.sample system property (0 by default, e.g.
+ * 0.01 traces 1% of messages). Every later stage is traced if and only if it
+ * received a trace context. Spans are written in OTLP JSON to the file named
+ * by chatservice.trace.file, or otherwise kept in an InMemorySpanExporter.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public class Tracer {
+	/** The system property holding the sampling probability. */
+	public static final String SAMPLE_PROPERTY = "chatservice.trace.sample";
+
+	/** The system property naming the span output file. */
+	public static final String FILE_PROPERTY = "chatservice.trace.file";
+
+	/** The probability that a new message is traced. */
+	private static volatile double sampleRate = Double.parseDouble(System
+			.getProperty(SAMPLE_PROPERTY, "0"));
+
+	/** Receives ended spans. */
+	private static volatile SpanExporter exporter = createExporter();
+
+	/** Converts System.nanoTime() to nanoseconds since the epoch. */
+	private static final long EPOCH_OFFSET = System.currentTimeMillis()
+			* 1000000 - System.nanoTime();
+
+	/** Holds the trace context of the stage running on this thread. */
+	private static final ThreadLocal<TraceContext> current = new ThreadLocal<TraceContext>();
+
+	private Tracer() {
+	}
+
+	private static SpanExporter createExporter() {
+		String file = System.getProperty(FILE_PROPERTY);
+		if (file != null) {
+			try {
+				return new OtlpJsonFileSpanExporter(file, "chatservice");
+			} catch (IOException e) {
+				System.err.println("Unable to open trace file [" + file
+						+ "], keeping spans in memory");
+			}
+		}
+
+		return new InMemorySpanExporter(10000);
+	}
+
+	/**
+	 * Changes the sampling probability.
+	 * 
+	 * @param rate
+	 *            the probability in the range [0, 1].
+	 */
+	public static void setSampleRate(double rate) {
+		sampleRate = rate;
+	}
+
+	/**
+	 * Replaces the span exporter.
+	 * 
+	 * @param spanExporter
+	 *            the new exporter.
+	 */
+	public static void setExporter(SpanExporter spanExporter) {
+		exporter = spanExporter;
+	}
+
+	/**
+	 * Returns the span exporter.
+	 * 
+	 * @return the current exporter.
+	 */
+	public static SpanExporter getExporter() {
+		return exporter;
+	}
+
+	/**
+	 * Starts a new trace if the message is sampled.
+	 * 
+	 * @param name
+	 *            the first stage's name.
+	 * @return the trace's root span or null if the message isn't sampled.
+	 */
+	public static Span startTrace(String name) {
+		double rate = sampleRate;
+		if (rate <= 0)
+			return null;
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (rate < 1 && random.nextDouble() >= rate)
+			return null;
+
+		return new Span(name, Span.KIND_CLIENT, random.nextLong(),
+				random.nextLong(), nextSpanId(random), 0);
+	}
+
+	/**
+	 * Starts a span for a stage of a traced message.
+	 * 
+	 * @param name
+	 *            the stage's name.
+	 * @param kind
+	 *            the span's kind.
+	 * @param parent
+	 *            the trace context received by the stage (may be null).
+	 * @return a new span or null if the message isn't traced.
+	 */
+	public static Span startSpan(String name, int kind, TraceContext parent) {
+		if (parent == null)
+			return null;
+
+		return new Span(name, kind, parent.getTraceIdHigh(),
+				parent.getTraceIdLow(),
+				nextSpanId(ThreadLocalRandom.current()), parent.getSpanId());
+	}
+
+	/**
+	 * Returns the trace context of the stage running on the calling thread.
+	 * 
+	 * @return the current trace context or null.
+	 */
+	public static TraceContext current() {
+		return current.get();
+	}
+
+	/**
+	 * Sets the trace context of the stage running on the calling thread.
+	 * 
+	 * @param context
+	 *            a trace context or null to clear it.
+	 */
+	public static void setCurrent(TraceContext context) {
+		if (context == null)
+			current.remove();
+		else
+			current.set(context);
+	}
+
+	static void export(Span span) {
+		exporter.export(span);
+	}
+
+	static long epochNanos() {
+		return EPOCH_OFFSET + System.nanoTime();
+	}
+
+	private static long nextSpanId(ThreadLocalRandom random) {
+		long id;
+		do {
+			id = random.nextLong();
+		} while (id == 0);
+
+		return id;
+	}
+
+}
@@ -1,13 +1,33 @@
 package edu.courses.middleware.chatservice.ui;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.TraceContext;
+
 /**
  * This is a helpful class for managing and displaying messages received in a
  * chat room.
  * 
+ * Messages bound only for the UI may be taken from a pool of
+ * chatservice.ui.pool messages (2048 by default) with obtain, so that a busy
+ * console doesn't allocate a message per delivery. A pooled message belongs
+ * to whoever it was handed to, which recycles it once it is displayed or
+ * dropped. Pooled messages are never handed to ChatMessageListeners.
+ * 
  * @author Jonas Michel
  * 
  */
 public class ChatMessage {
+	/** The system property holding the pool capacity. */
+	public static final String POOL_PROPERTY = "chatservice.ui.pool";
+
+	/** Holds recycled messages. */
+	private static final BlockingQueue<ChatMessage> pool = new ArrayBlockingQueue<ChatMessage>(
+			Integer.getInteger(POOL_PROPERTY, 2048));
+
 	/** The chat room name. */
 	private String room;
 
@@ -17,10 +37,100 @@ public class ChatMessage {
 	/** The chat message's content. */
 	private String message;
 
+	/** The message's priority class. */
+	private MessagePriority priority;
+
+	/** The message's trace context or null if it isn't traced. */
+	private TraceContext trace;
+
+	/** Times the message's display if it is traced. */
+	private Span span;
+
+	/** Whether or not the message was taken from the pool and is in use. */
+	private boolean pooled;
+
 	public ChatMessage(String room, String sender, String message) {
+		this(room, sender, message, null);
+	}
+
+	public ChatMessage(String room, String sender, String message,
+			TraceContext trace) {
+		this(room, sender, message, MessagePriority.CHAT, trace);
+	}
+
+	public ChatMessage(String room, String sender, String message,
+			MessagePriority priority, TraceContext trace) {
 		this.room = room;
 		this.sender = sender;
 		this.message = message;
+		this.priority = priority;
+		this.trace = trace;
+	}
+
+	/**
+	 * Takes a message from the pool, or creates one if the pool is empty.
+	 * The caller must hand the message to a single owner that recycles it.
+	 * 
+	 * @return a pooled message.
+	 */
+	public static ChatMessage obtain(String room, String sender,
+			String message, MessagePriority priority, TraceContext trace) {
+		ChatMessage m = pool.poll();
+		if (m == null)
+			m = new ChatMessage(room, sender, message, priority, trace);
+
+		m.room = room;
+		m.sender = sender;
+		m.message = message;
+		m.priority = priority;
+		m.trace = trace;
+		m.pooled = true;
+		return m;
+	}
+
+	/**
+	 * Returns a pooled message to the pool. Messages that weren't taken from
+	 * the pool are left alone.
+	 */
+	public void recycle() {
+		if (!pooled)
+			return;
+
+		pooled = false;
+		room = null;
+		sender = null;
+		message = null;
+		trace = null;
+		span = null;
+		pool.offer(this);
+	}
+
+	public String getRoom() {
+		return room;
+	}
+
+	public String getSender() {
+		return sender;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public MessagePriority getPriority() {
+		return priority;
+	}
+
+	public TraceContext getTrace() {
+		return trace;
+	}
+
+	public Span getSpan() {
+		return span;
+	}
+
+	public void setSpan(Span span) {
+		this.span = span;
 	}
 
 	/**
@@ -29,13 +139,26 @@ public class ChatMessage {
 	 * @return
 	 */
 	public String toChatString() {
-		return "[" + room + "] " + sender + " says: " + message;
+		return appendChatString(new StringBuilder()).toString();
+	}
+
+	/**
+	 * Appends the message as displayed in the CLI without creating an
+	 * intermediate string.
+	 * 
+	 * @param sb
+	 *            receives the message.
+	 * @return the string builder.
+	 */
+	public StringBuilder appendChatString(StringBuilder sb) {
+		return sb.append('[').append(room).append("] ").append(sender)
+				.append(" says: ").append(message);
 	}
 
 	@Override
 	public String toString() {
 		return "ChatMessage [room=" + room + ", sender=" + sender
-				+ ", message=" + message + "]";
+				+ ", message=" + message + ", priority=" + priority + "]";
 	}
 
 }
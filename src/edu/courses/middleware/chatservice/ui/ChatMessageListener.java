@@ -0,0 +1,20 @@
+package edu.courses.middleware.chatservice.ui;
+
+/**
+ * A ChatMessageListener is notified of the chat messages delivered to a
+ * ChatProvider's chat client.
+ * 
+ * @author Jonas Michel
+ * 
+ */
+public interface ChatMessageListener {
+
+	/**
+	 * Called when a chat message is delivered.
+	 * 
+	 * @param message
+	 *            the delivered chat message.
+	 */
+	public void deliver(ChatMessage message);
+
+}
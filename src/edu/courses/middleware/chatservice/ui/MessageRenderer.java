@@ -0,0 +1,352 @@
+package edu.courses.middleware.chatservice.ui;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.courses.middleware.chatservice.entities.MessagePriority;
+import edu.courses.middleware.chatservice.metrics.Gauge;
+import edu.courses.middleware.chatservice.metrics.MetricsRegistry;
+import edu.courses.middleware.chatservice.metrics.QueueMetrics;
+import edu.courses.middleware.chatservice.tracing.Span;
+
+/**
+ * The MessageRenderer displays delivered chat messages on behalf of the
+ * UIHandler. Delivering a message only places it in a bounded queue, so the
+ * RMI callback that delivered it returns immediately however slow the output
+ * is. The renderer thread drains the queue in batches and writes each batch
+ * with a single call. During a flood only the first few messages of each
+ * chat room in a batch are shown, followed by a summary such as
+ * "37 more messages in [room]"; messages that didn't fit in the queue are
+ * summarized the same way.
+ *
+ * Messages are handled according to their priority class. Control notices
+ * (e.g., a chat room closing) bypass the queue and are displayed at once.
+ * Presence notices may only occupy half of the queue, so they are shed first
+ * when chat backs up, and only the latest presence notice of each chat room
+ * in a batch is shown, in its place among the batch's chat messages and
+ * followed by a count of the earlier ones.
+ *
+ * The queue holds chatservice.ui.queue messages (1024 by default).
+ *
+ * A batch is rendered into a reused StringBuilder and encoded into reused
+ * buffers that are written to the output stream directly, and pooled messages
+ * are recycled once displayed or dropped, so rendering allocates next to
+ * nothing per message.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class MessageRenderer extends Thread {
+	/** The system property holding the queue capacity. */
+	public static final String QUEUE_PROPERTY = "chatservice.ui.queue";
+
+	/** The largest number of messages rendered in one batch. */
+	private static final int MAX_BATCH = 256;
+
+	/** The number of messages shown per chat room in one batch. */
+	private static final int MAX_PER_ROOM = 10;
+
+	/** Where messages are displayed. */
+	private PrintStream out;
+
+	/** Holds messages waiting to be displayed. */
+	private BlockingQueue<ChatMessage> queue;
+
+	/** Counts, per chat room, the messages that didn't fit in the queue. */
+	private Map<String, AtomicInteger> overflow;
+
+	/** The queue's metrics. */
+	private QueueMetrics metrics;
+
+	/** The messages being rendered. */
+	private List<ChatMessage> batch;
+
+	/** Counts the messages of each chat room in the current batch. */
+	private Map<String, Integer> perRoom;
+
+	/** Holds the latest presence notice of each chat room in the batch. */
+	private Map<String, ChatMessage> presence;
+
+	/** Counts the superseded presence notices of each chat room. */
+	private Map<String, Integer> presenceHidden;
+
+	/** The queue size beyond which presence notices are dropped. */
+	private int presenceLimit;
+
+	/** Holds the rendered batch. */
+	private StringBuilder sb;
+
+	/** Encodes rendered batches for the output stream. */
+	private CharsetEncoder encoder;
+
+	/** Holds a rendered batch's characters while it is encoded. */
+	private char[] chars;
+	private CharBuffer charBuffer;
+
+	/** Holds encoded bytes until they are written. */
+	private ByteBuffer bytes;
+
+	public MessageRenderer(PrintStream out) {
+		super("chatservice-ui-renderer");
+		setDaemon(true);
+
+		this.out = out;
+		int capacity = Integer.getInteger(QUEUE_PROPERTY, 1024);
+		queue = new ArrayBlockingQueue<ChatMessage>(capacity);
+		presenceLimit = capacity / 2;
+		overflow = new ConcurrentHashMap<String, AtomicInteger>();
+
+		batch = new ArrayList<ChatMessage>(MAX_BATCH);
+		perRoom = new LinkedHashMap<String, Integer>();
+		presence = new HashMap<String, ChatMessage>();
+		presenceHidden = new HashMap<String, Integer>();
+		sb = new StringBuilder();
+
+		encoder = Charset.defaultCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = new char[8192];
+		charBuffer = CharBuffer.wrap(chars);
+		bytes = ByteBuffer.allocate(8192);
+
+		metrics = new QueueMetrics("ui", new Gauge() {
+			@Override
+			public long getValue() {
+				return queue.size();
+			}
+		});
+		MetricsRegistry.register(MetricsRegistry.objectName("Queue", "ui"),
+				metrics);
+	}
+
+	/**
+	 * Queues a chat message for display. This method never blocks.
+	 *
+	 * @param message
+	 *            a chat message.
+	 */
+	public void deliver(ChatMessage message) {
+		switch (message.getPriority()) {
+		case CONTROL:
+			renderNow(message);
+			return;
+
+		case PRESENCE:
+			// leave the rest of the queue to chat messages
+			if (queue.size() >= presenceLimit) {
+				drop(message);
+				return;
+			}
+			break;
+
+		default:
+			break;
+		}
+
+		if (queue.offer(message)) {
+			metrics.enqueued.inc();
+			return;
+		}
+
+		if (message.getPriority() != MessagePriority.PRESENCE) {
+			AtomicInteger count = overflow.get(message.getRoom());
+			if (count == null) {
+				AtomicInteger created = new AtomicInteger();
+				count = overflow.putIfAbsent(message.getRoom(), created);
+				if (count == null)
+					count = created;
+			}
+			count.incrementAndGet();
+		}
+
+		drop(message);
+	}
+
+	/**
+	 * Returns the number of messages waiting to be displayed.
+	 *
+	 * @return the queue's depth.
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Displays a message immediately, ahead of any queued messages.
+	 *
+	 * @param message
+	 *            a control message.
+	 */
+	private void renderNow(ChatMessage message) {
+		out.print(System.lineSeparator() + "\t" + message.toChatString()
+				+ System.lineSeparator());
+		out.flush();
+
+		if (message.getSpan() != null)
+			message.getSpan().end();
+		message.recycle();
+	}
+
+	private void drop(ChatMessage message) {
+		metrics.dropped.inc();
+		if (message.getSpan() != null) {
+			message.getSpan().setError();
+			message.getSpan().end();
+		}
+		message.recycle();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				batch.add(queue.take());
+				queue.drainTo(batch, MAX_BATCH - 1);
+
+				render();
+
+			} catch (InterruptedException e) {
+				return;
+
+			} finally {
+				batch.clear();
+				perRoom.clear();
+				presence.clear();
+				presenceHidden.clear();
+				sb.setLength(0);
+			}
+		}
+	}
+
+	private void render() {
+		// find the latest presence notice of each chat room
+		for (ChatMessage message : batch) {
+			if (message.getPriority() != MessagePriority.PRESENCE)
+				continue;
+
+			ChatMessage previous = presence.put(message.getRoom(), message);
+			if (previous != null) {
+				metrics.coalesced.inc();
+				Integer hidden = presenceHidden.get(message.getRoom());
+				presenceHidden.put(message.getRoom(), hidden == null ? 1
+						: hidden + 1);
+			}
+		}
+
+		for (ChatMessage message : batch) {
+			if (message.getPriority() == MessagePriority.PRESENCE) {
+				// show only the latest presence notice, where it arrived
+				if (presence.get(message.getRoom()) != message)
+					continue;
+
+				sb.append(System.lineSeparator()); // make some space
+				message.appendChatString(sb.append('\t')).append(
+						System.lineSeparator());
+
+				Integer hidden = presenceHidden.get(message.getRoom());
+				if (hidden != null)
+					sb.append('\t').append(hidden).append(" earlier presence notice")
+							.append(hidden == 1 ? "" : "s").append(" in [")
+							.append(message.getRoom()).append(']')
+							.append(System.lineSeparator());
+				continue;
+			}
+
+			Integer shown = perRoom.get(message.getRoom());
+			int count = shown == null ? 1 : shown + 1;
+			perRoom.put(message.getRoom(), count);
+
+			if (count <= MAX_PER_ROOM) {
+				sb.append(System.lineSeparator()); // make some space
+				message.appendChatString(sb.append('\t')).append(
+						System.lineSeparator());
+			} else {
+				metrics.coalesced.inc();
+			}
+		}
+
+		for (Map.Entry<String, Integer> entry : perRoom.entrySet()) {
+			int hidden = Math.max(0, entry.getValue() - MAX_PER_ROOM);
+
+			AtomicInteger dropped = overflow.get(entry.getKey());
+			if (dropped != null)
+				hidden += dropped.getAndSet(0);
+
+			summarize(entry.getKey(), hidden);
+		}
+
+		// summarize overflow in chat rooms that have no queued messages
+		for (Map.Entry<String, AtomicInteger> entry : overflow.entrySet()) {
+			if (!perRoom.containsKey(entry.getKey()))
+				summarize(entry.getKey(), entry.getValue().getAndSet(0));
+		}
+
+		write(sb);
+
+		for (ChatMessage message : batch) {
+			Span span = message.getSpan();
+			if (span != null)
+				span.end();
+			message.recycle();
+		}
+	}
+
+	/**
+	 * Encodes text into the byte buffer and writes it to the output stream.
+	 *
+	 * @param text
+	 *            the rendered text.
+	 */
+	private void write(StringBuilder text) {
+		int length = text.length();
+		if (length > chars.length) {
+			chars = new char[Math.max(length, chars.length * 2)];
+			charBuffer = CharBuffer.wrap(chars);
+		}
+		text.getChars(0, length, chars, 0);
+		charBuffer.clear();
+		charBuffer.limit(length);
+
+		encoder.reset();
+		CoderResult result;
+		do {
+			result = encoder.encode(charBuffer, bytes, true);
+			drainBytes();
+		} while (result.isOverflow());
+
+		while (encoder.flush(bytes).isOverflow())
+			drainBytes();
+		drainBytes();
+
+		out.flush();
+	}
+
+	private void drainBytes() {
+		out.write(bytes.array(), 0, bytes.position());
+		bytes.clear();
+	}
+
+	private void summarize(String room, int hidden) {
+		if (hidden <= 0)
+			return;
+
+		sb.append('\t').append(hidden).append(" more message")
+				.append(hidden == 1 ? "" : "s").append(" in [").append(room)
+				.append(']').append(System.lineSeparator());
+	}
+
+}
@@ -3,10 +3,22 @@ package edu.courses.middleware.chatservice.ui;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import edu.courses.middleware.chatservice.RoomDescriptor;
+import edu.courses.middleware.chatservice.RoomOrder;
+import edu.courses.middleware.chatservice.RoomPage;
+import edu.courses.middleware.chatservice.entities.DeliveryFilter;
 import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.TalkResult;
+import edu.courses.middleware.chatservice.search.SearchHit;
+import edu.courses.middleware.chatservice.tracing.Span;
+import edu.courses.middleware.chatservice.tracing.Tracer;
 
 /**
  * The UIHandler class represents the command line user interface exposed by a
@@ -23,6 +35,9 @@ public class UIHandler extends Thread {
 	/** We make callbacks on the delegate. */
 	private UIHandlerDelegate delegate;
 
+	/** Displays delivered chat messages. */
+	private MessageRenderer renderer;
+
 	/** Holds a map of commands and their explanations. */
 	protected Map<String, String> commands;
 
@@ -38,6 +53,15 @@ public class UIHandler extends Thread {
 	public static final String JOIN_COMMAND = "j";
 	public static final String TALK_COMMAND = "t";
 	public static final String LEAVE_COMMAND = "l";
+	public static final String FILTER_COMMAND = "f";
+	public static final String DIRECT_COMMAND = "w";
+	public static final String SEARCH_COMMAND = "s";
+
+	/** The largest number of search results displayed. */
+	private static final int SEARCH_LIMIT = 20;
+
+	/** The number of chat rooms displayed at a time. */
+	private static final int ROOM_PAGE_SIZE = 20;
 
 	public UIHandler(UIHandlerDelegate delegate) {
 		super();
@@ -45,6 +69,9 @@ public class UIHandler extends Thread {
 		br = new BufferedReader(new InputStreamReader(System.in));
 		this.delegate = delegate;
 
+		renderer = new MessageRenderer(System.out);
+		renderer.start();
+
 		commands = new HashMap<String, String>();
 		commands.put(HELP_COMMAND, "Display this help message");
 		commands.put(QUIT_COMMAND, "Quit");
@@ -84,26 +111,22 @@ public class UIHandler extends Thread {
 
 				String command = br.readLine();
 
-				synchronized (this) {
-					if (command.equals("") || command.equals(" ")) {
-						// do nothing, the user hit enter to clear alerts
-					} else if (!commands.containsKey(command)) {
-						System.out.println("Sorry, " + command
-								+ " is not a valid command");
-						showHelp();
-
-					} else if (command.equals(HELP_COMMAND)) {
-						showHelp();
+				if (command.equals("") || command.equals(" ")) {
+					// do nothing, the user hit enter to clear alerts
+				} else if (!commands.containsKey(command)) {
+					System.out.println("Sorry, " + command
+							+ " is not a valid command");
+					showHelp();
 
-					} else if (command.equals(QUIT_COMMAND)) {
-						delegate.quit();
+				} else if (command.equals(HELP_COMMAND)) {
+					showHelp();
 
-					} else {
-						process(command);
+				} else if (command.equals(QUIT_COMMAND)) {
+					delegate.quit();
 
-					}
+				} else {
+					process(command);
 
-					this.notify();
 				}
 
 			} catch (IOException e) {
@@ -119,23 +142,30 @@ public class UIHandler extends Thread {
 		commands.put(REGISTER_COMMAND, "Register a new chat room");
 		commands.put(DEREGISTER_COMMAND, "Deregister one of your chat rooms");
 		commands.put(GET_INFO_COMMAND, "Get info about a registered entity");
-		commands.put(GET_ROOMS_COMMAND, "View all registered chat rooms");
+		commands.put(GET_ROOMS_COMMAND,
+				"Find registered chat rooms, a page at a time");
 		commands.put(GET_HOSTED_ROOMS_COMMAND, "View your hosted chat rooms");
 		commands.put(GET_JOINED_ROOMS_COMMAND, "View your joined chat rooms");
 		commands.put(JOIN_COMMAND, "Join a chat room");
 		commands.put(TALK_COMMAND, "Send a chat message");
 		commands.put(LEAVE_COMMAND, "Leave a chat room");
+		commands.put(FILTER_COMMAND, "Filter a joined chat room's messages");
+		commands.put(DIRECT_COMMAND, "Send a direct message to a user");
+		commands.put(SEARCH_COMMAND, "Search a joined chat room's messages");
 	}
 
 	/**
-	 * Displays a delivered chat message in the UI.
+	 * Queues a delivered chat message for display in the UI. This method
+	 * returns without waiting for the message to be displayed.
 	 * 
 	 * @param message
 	 *            a chat message.
 	 */
 	public void deliver(ChatMessage message) {
-		System.out.println(); // make some space
-		System.out.println("\t" + message.toChatString());
+		message.setSpan(Tracer.startSpan("ui.deliver", Span.KIND_INTERNAL,
+				message.getTrace()));
+
+		renderer.deliver(message);
 	}
 
 	/**
@@ -172,6 +202,15 @@ public class UIHandler extends Thread {
 		} else if (command.equals(LEAVE_COMMAND)) {
 			doLeave();
 
+		} else if (command.equals(FILTER_COMMAND)) {
+			doFilter();
+
+		} else if (command.equals(DIRECT_COMMAND)) {
+			doDirect();
+
+		} else if (command.equals(SEARCH_COMMAND)) {
+			doSearch();
+
 		} else {
 			showHelp();
 		}
@@ -252,30 +291,70 @@ public class UIHandler extends Thread {
 	}
 
 	/**
-	 * Retrieves and displays a list of the chat service's registered chat
-	 * rooms.
+	 * Retrieves and displays the chat service's registered chat rooms matching
+	 * a name prefix or pattern, a page at a time.
 	 */
 	public void doGetChatRooms() {
-		Map<String, IChatRoom> chatRooms = delegate.getChatRooms();
+		try {
+			System.out.print("Enter name prefix or pattern (blank for all): ");
+			String pattern = br.readLine().trim();
+
+			System.out
+					.print("Order by [n]ame, [p]articipants or [a]ctivity: ");
+			String o = br.readLine().trim();
+			RoomOrder order = o.equals("p") ? RoomOrder.PARTICIPANTS : o
+					.equals("a") ? RoomOrder.ACTIVITY : RoomOrder.NAME;
+
+			String cursor = null;
+			boolean first = true;
+			do {
+				RoomPage page = delegate.findChatRooms(pattern, order, cursor,
+						ROOM_PAGE_SIZE);
+				if (page == null)
+					return;
+
+				if (first) {
+					if (page.getRooms().isEmpty()) {
+						System.out.println("There are no matching chat rooms");
+						return;
+					}
 
-		if (chatRooms.size() == 0) {
-			System.out.println("There are no registered chat rooms");
-			return;
-		}
+					System.out.println("Registered chat rooms:");
+					System.out
+							.println("[(*) indicates you are hosting the chat room]");
+					System.out
+							.println("[(**) indicates you have joined the chat room]");
+					first = false;
+				}
+
+				for (RoomDescriptor room : page.getRooms()) {
+					String chatRoom = room.getName();
+					System.out.print("\t" + chatRoom);
+
+					if (order != RoomOrder.NAME)
+						System.out.print(" [" + room.getParticipants()
+								+ " participants, " + room.getMessages()
+								+ " messages]");
 
-		System.out.println("Registered chat rooms:");
-		System.out.println("[(*) indicates you are hosting the chat room]");
-		System.out.println("[(**) indicates you have joined the chat room]");
-		for (String chatRoom : chatRooms.keySet()) {
-			System.out.print("\t" + chatRoom);
+					if (delegate.getHostedChatRooms().containsKey(chatRoom))
+						System.out.print(" (*)");
 
-			if (delegate.getHostedChatRooms().containsKey(chatRoom))
-				System.out.print(" (*)");
+					if (delegate.getJoinedChatRooms().containsKey(chatRoom))
+						System.out.print(" (**)");
 
-			if (delegate.getJoinedChatRooms().containsKey(chatRoom))
-				System.out.print(" (**)");
+					System.out.println();
+				}
+
+				cursor = page.getCursor();
+				if (cursor == null)
+					return;
+
+				System.out.print("Show more? [y/n]: ");
+			} while (br.readLine().trim().equals("y"));
 
-			System.out.println();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
 		}
 	}
 
@@ -343,11 +422,77 @@ public class UIHandler extends Thread {
 			System.out.print("Enter chat message: ");
 			String message = br.readLine().trim();
 
-			if (!delegate.talkChatRoom(name, message))
+			TalkResult result = delegate.talkChatRoom(name, message);
+
+			if (result == TalkResult.NOT_JOINED)
 				System.out
 						.println("You have not joined a chat room with the name ["
 								+ name + "]");
 
+			else if (result == TalkResult.CLIENT_RATE_LIMITED)
+				System.out.println("You are sending messages too quickly to ["
+						+ name + "], please slow down");
+
+			else if (result == TalkResult.ROOM_RATE_LIMITED)
+				System.out.println("Chat room [" + name
+						+ "] is too busy right now, please try again");
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Searches a chat room's message history and displays the results.
+	 */
+	public void doSearch() {
+		try {
+			System.out.print("Enter chat room name: ");
+			String name = br.readLine().trim();
+
+			System.out.print("Enter search words (from:name matches a sender): ");
+			String query = br.readLine().trim();
+
+			List<SearchHit> hits = delegate.searchChatRoom(name, query,
+					SEARCH_LIMIT);
+
+			if (hits == null) {
+				System.out.println("Unable to search chat room [" + name + "]");
+				return;
+			}
+
+			if (hits.size() == 0) {
+				System.out.println("No messages found in [" + name + "]");
+				return;
+			}
+
+			System.out.println("Most recent matches in [" + name + "]:");
+			for (SearchHit hit : hits)
+				System.out.println("\t" + new Date(hit.getTimestamp()) + " "
+						+ hit.getSender() + ": " + hit.getMessage());
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Performs the necessary steps for sending a direct message.
+	 */
+	public void doDirect() {
+		try {
+			System.out.print("Enter screen name: ");
+			String name = br.readLine().trim();
+
+			System.out.print("Enter message: ");
+			String message = br.readLine().trim();
+
+			if (!delegate.sendDirectMessage(name, message))
+				System.out.println("Unable to reach a user with the screen name ["
+						+ name + "]");
+
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -375,6 +520,66 @@ public class UIHandler extends Thread {
 		}
 	}
 
+	/**
+	 * Performs the necessary steps for filtering a chat room's messages.
+	 */
+	public void doFilter() {
+		try {
+			System.out.print("Enter chat room name: ");
+			String name = br.readLine().trim();
+
+			if (!delegate.getJoinedChatRooms().containsKey(name)) {
+				System.out.println("You have not joined a chat room with the name ["
+						+ name + "]");
+				return;
+			}
+
+			System.out.print("Enter screen names to mute (comma separated): ");
+			Set<String> muted = splitList(br.readLine());
+
+			System.out.print("Show join and leave notices? (y/n): ");
+			boolean presence = !br.readLine().trim().equalsIgnoreCase("n");
+
+			System.out.print("Show all messages, mentions of you "
+					+ "or messages with keywords? (a/m/k): ");
+			String choice = br.readLine().trim();
+
+			DeliveryFilter.Mode mode = DeliveryFilter.Mode.ALL;
+			Set<String> keywords = new HashSet<String>();
+			if (choice.equalsIgnoreCase("m")) {
+				mode = DeliveryFilter.Mode.MENTIONS;
+
+			} else if (choice.equalsIgnoreCase("k")) {
+				mode = DeliveryFilter.Mode.KEYWORDS;
+
+				System.out.print("Enter keywords (comma separated): ");
+				keywords = splitList(br.readLine());
+			}
+
+			if (delegate.filterChatRoom(name, new DeliveryFilter(muted,
+					presence, mode, keywords)))
+				System.out.println("Filter applied to chat room [" + name
+						+ "]");
+
+			else
+				System.out.println("Unable to filter chat room [" + name
+						+ "]");
+
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	private static Set<String> splitList(String line) {
+		Set<String> items = new HashSet<String>();
+		for (String item : line.split(",")) {
+			if (item.trim().length() > 0)
+				items.add(item.trim());
+		}
+		return items;
+	}
+
 	/**
 	 * Displays the CLI's commands.
 	 */
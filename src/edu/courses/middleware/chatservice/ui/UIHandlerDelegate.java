@@ -1,8 +1,14 @@
 package edu.courses.middleware.chatservice.ui;
 
+import java.util.List;
 import java.util.Map;
 
+import edu.courses.middleware.chatservice.RoomOrder;
+import edu.courses.middleware.chatservice.RoomPage;
+import edu.courses.middleware.chatservice.entities.DeliveryFilter;
 import edu.courses.middleware.chatservice.entities.IChatRoom;
+import edu.courses.middleware.chatservice.entities.TalkResult;
+import edu.courses.middleware.chatservice.search.SearchHit;
 
 /**
  * The UIHandler's delegate interface.
@@ -61,6 +67,23 @@ public interface UIHandlerDelegate {
 	 */
 	public Map<String, IChatRoom> getChatRooms();
 
+	/**
+	 * Called to retrieve a page of the chat service's registered chat rooms
+	 * matching a name prefix or pattern.
+	 * 
+	 * @param pattern
+	 *            a name prefix or glob pattern (empty matches every chat room).
+	 * @param order
+	 *            the order of the chat rooms.
+	 * @param cursor
+	 *            the previous page's cursor or null for the first page.
+	 * @param limit
+	 *            the most chat rooms on the page.
+	 * @return the page.
+	 */
+	public RoomPage findChatRooms(String pattern, RoomOrder order,
+			String cursor, int limit);
+
 	/**
 	 * Called to obtain the ChatProvider's locally hosted chat rooms.
 	 * 
@@ -92,9 +115,49 @@ public interface UIHandlerDelegate {
 	 *            the name of the chat room.
 	 * @param message
 	 *            the chat message's content.
+	 * @return DELIVERED if successful, otherwise the reason the message
+	 *         wasn't sent.
+	 */
+	public TalkResult talkChatRoom(String name, String message);
+
+	/**
+	 * Called to choose which of a joined chat room's messages are delivered.
+	 * 
+	 * @param name
+	 *            the name of the chat room.
+	 * @param filter
+	 *            selects the messages delivered to the chat client.
 	 * @return true if successful, false otherwise.
 	 */
-	public boolean talkChatRoom(String name, String message);
+	public boolean filterChatRoom(String name, DeliveryFilter filter);
+
+	/**
+	 * Called to search a joined chat room's message history.
+	 * 
+	 * @param name
+	 *            the name of the chat room.
+	 * @param query
+	 *            the words to find; a word of the form from:name matches the
+	 *            messages sent by name.
+	 * @param limit
+	 *            the largest number of messages to return.
+	 * @return the matching messages, most recent first, or null if the chat
+	 *         room couldn't be searched.
+	 */
+	public List<SearchHit> searchChatRoom(String name, String query,
+			int limit);
+
+	/**
+	 * Called to send a message directly to another chat client, without a
+	 * chat room.
+	 * 
+	 * @param name
+	 *            the recipient's screen name.
+	 * @param message
+	 *            the message's content.
+	 * @return true if the message was delivered, false otherwise.
+	 */
+	public boolean sendDirectMessage(String name, String message);
 
 	/**
 	 * Called to leave a chat room that has been joined.
@@ -0,0 +1,124 @@
+package edu.courses.middleware.chatservice.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A ConcurrentIntObjectMap maps positive int keys to objects without boxing
+ * the keys, for tables that are read far more often than they are written,
+ * e.g. caches of immutable facts. Entries can't be removed.
+ *
+ * Reads take no lock. Writes are serialized, and a write that fills the table
+ * builds a larger one and publishes it, so the table is copied only as often
+ * as it doubles.
+ *
+ * Key 0 is reserved to mark empty slots.
+ *
+ * @author Jonas Michel
+ *
+ * @param <V>
+ *            the type of the values.
+ */
+public class ConcurrentIntObjectMap<V> {
+	/** The largest fraction of slots in use before the table grows. */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/**
+	 * A Table holds the entries in two parallel arrays probed linearly. A
+	 * value is written before its key, so a reader that finds a key finds its
+	 * value.
+	 */
+	private static class Table<V> {
+		final AtomicIntegerArray keys;
+		final AtomicReferenceArray<V> values;
+
+		Table(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			values = new AtomicReferenceArray<V>(capacity);
+		}
+
+		int slot(int key) {
+			int mask = keys.length() - 1;
+			int i = hash(key) & mask;
+			int k;
+			while ((k = keys.get(i)) != 0 && k != key)
+				i = (i + 1) & mask;
+			return i;
+		}
+	}
+
+	/** The current table, replaced when it grows. */
+	private volatile Table<V> table = new Table<V>(16);
+
+	/** The number of entries (guarded by this). */
+	private int size;
+
+	/**
+	 * Spreads a key's bits so that sequential keys don't cluster.
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the value mapped to a key.
+	 *
+	 * @param key
+	 *            a positive key.
+	 * @return the value or null if the key isn't mapped.
+	 */
+	public V get(int key) {
+		if (key == 0)
+			return null;
+
+		Table<V> t = table;
+		int i = t.slot(key);
+		return t.keys.get(i) == 0 ? null : t.values.get(i);
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            a positive key.
+	 * @param value
+	 *            the value.
+	 */
+	public synchronized void put(int key, V value) {
+		if (key == 0)
+			throw new IllegalArgumentException("key 0 is reserved");
+
+		Table<V> t = table;
+		int i = t.slot(key);
+		if (t.keys.get(i) != 0) {
+			t.values.set(i, value);
+			return;
+		}
+
+		if (size + 1 > t.keys.length() * LOAD_FACTOR) {
+			// readers keep using the old table until the new one is complete
+			Table<V> grown = new Table<V>(t.keys.length() * 2);
+			for (int j = 0; j < t.keys.length(); j++) {
+				int k = t.keys.get(j);
+				if (k == 0)
+					continue;
+				int g = grown.slot(k);
+				grown.values.set(g, t.values.get(j));
+				grown.keys.set(g, k);
+			}
+			t = grown;
+			i = t.slot(key);
+		}
+
+		t.values.set(i, value);
+		t.keys.set(i, key);
+		size++;
+		table = t;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,174 @@
+package edu.courses.middleware.chatservice.util;
+
+/**
+ * An IntObjectMap maps positive int keys to objects without boxing the keys.
+ * Entries live in two parallel arrays probed linearly, so a lookup hashes a
+ * single int and compares ints rather than calling hashCode and equals.
+ *
+ * Key 0 is reserved to mark empty slots. An IntObjectMap isn't thread safe.
+ *
+ * @author Jonas Michel
+ *
+ * @param <V>
+ *            the type of the values.
+ */
+public class IntObjectMap<V> {
+	/** The largest fraction of slots in use before the table grows. */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/** The keys, 0 marks an empty slot. */
+	private int[] keys;
+
+	/** The values, parallel to the keys. */
+	private Object[] values;
+
+	/** The number of entries. */
+	private int size;
+
+	public IntObjectMap() {
+		this(16);
+	}
+
+	public IntObjectMap(int expected) {
+		int capacity = 4;
+		while (capacity * LOAD_FACTOR < expected)
+			capacity <<= 1;
+
+		keys = new int[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Spreads a key's bits so that sequential keys don't cluster.
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private int slot(int key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/**
+	 * Returns the value mapped to a key.
+	 *
+	 * @param key
+	 *            a positive key.
+	 * @return the value or null if the key isn't mapped.
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == 0)
+			return null;
+		return (V) values[slot(key)];
+	}
+
+	/**
+	 * Maps a key to a value.
+	 *
+	 * @param key
+	 *            a positive key.
+	 * @param value
+	 *            the value.
+	 * @return the value previously mapped to the key or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (key == 0)
+			throw new IllegalArgumentException("key 0 is reserved");
+
+		int i = slot(key);
+		V previous = (V) values[i];
+		if (keys[i] == 0) {
+			if (size + 1 > keys.length * LOAD_FACTOR) {
+				resize(keys.length * 2);
+				i = slot(key);
+			}
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+		return previous;
+	}
+
+	/**
+	 * Removes a key's mapping.
+	 *
+	 * @param key
+	 *            a positive key.
+	 * @return the value that was mapped to the key or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == 0)
+			return null;
+
+		int i = slot(key);
+		if (keys[i] == 0)
+			return null;
+
+		V previous = (V) values[i];
+		keys[i] = 0;
+		values[i] = null;
+		size--;
+
+		// shift later entries of the probe sequence back into the gap
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+			int home = hash(keys[j]) & mask;
+			if (((j - home) & mask) >= ((j - gap) & mask)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				keys[j] = 0;
+				values[j] = null;
+				gap = j;
+			}
+		}
+
+		return previous;
+	}
+
+	public boolean containsKey(int key) {
+		return key != 0 && keys[slot(key)] != 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a copy of the map.
+	 *
+	 * @return a new map holding the same entries.
+	 */
+	public IntObjectMap<V> copy() {
+		IntObjectMap<V> copy = new IntObjectMap<V>(0);
+		copy.keys = keys.clone();
+		copy.values = values.clone();
+		copy.size = size;
+		return copy;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		keys = new int[capacity];
+		values = new Object[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0)
+				continue;
+
+			int j = slot(oldKeys[i]);
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package edu.courses.middleware.chatservice.util;
+
+/**
+ * An IntSet holds positive ints without boxing them, in a single array probed
+ * linearly. Ints can't be removed.
+ *
+ * 0 is reserved to mark empty slots. An IntSet isn't thread safe.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class IntSet {
+	/** The largest fraction of slots in use before the table grows. */
+	private static final float LOAD_FACTOR = 0.5f;
+
+	/** The ints, 0 marks an empty slot. */
+	private int[] keys = new int[4];
+
+	/** The number of ints. */
+	private int size;
+
+	/**
+	 * Spreads a key's bits so that sequential keys don't cluster.
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int slot(int[] keys, int key) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	public boolean contains(int key) {
+		return key != 0 && keys[slot(keys, key)] != 0;
+	}
+
+	/**
+	 * Adds an int.
+	 *
+	 * @param key
+	 *            a positive int.
+	 * @return true if the int wasn't already in the set.
+	 */
+	public boolean add(int key) {
+		if (key == 0)
+			throw new IllegalArgumentException("key 0 is reserved");
+
+		int i = slot(keys, key);
+		if (keys[i] != 0)
+			return false;
+
+		if (size + 1 > keys.length * LOAD_FACTOR) {
+			int[] grown = new int[keys.length * 2];
+			for (int k : keys)
+				if (k != 0)
+					grown[slot(grown, k)] = k;
+			keys = grown;
+			i = slot(keys, key);
+		}
+		keys[i] = key;
+		size++;
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,131 @@
+package edu.courses.middleware.chatservice.util;
+
+/**
+ * A SequenceWindow remembers which of the most recent sequence numbers have
+ * been seen, one bit each, so that duplicates can be recognized in constant
+ * space. The window slides forward with the highest sequence number seen;
+ * numbers that have fallen out of it are treated as duplicates.
+ *
+ * Sequence numbers start at 1, 0 marks a message without one and is never
+ * considered a duplicate.
+ *
+ * A sender that delivers in order may name each message's predecessor, in
+ * which case the window also counts the gaps: predecessors newer than
+ * anything it has seen.
+ *
+ * @author Jonas Michel
+ *
+ */
+public class SequenceWindow {
+	/** One bit per sequence number in the window, used as a ring. */
+	private long[] words;
+
+	/** The highest sequence number seen (0 if none has been). */
+	private long highest;
+
+	/** The number of gaps detected. */
+	private long gaps;
+
+	/**
+	 * Creates a window.
+	 *
+	 * @param size
+	 *            the number of sequence numbers remembered, rounded up to a
+	 *            multiple of 64.
+	 */
+	public SequenceWindow(int size) {
+		words = new long[Math.max(1, (size + 63) / 64)];
+	}
+
+	/**
+	 * Returns the number of sequence numbers remembered.
+	 *
+	 * @return the window's size.
+	 */
+	public int size() {
+		return words.length * 64;
+	}
+
+	/**
+	 * Records a sequence number unless it has been seen.
+	 *
+	 * @param seq
+	 *            a sequence number.
+	 * @return true if the sequence number is new, false if it is a duplicate.
+	 */
+	public synchronized boolean accept(long seq) {
+		if (seq <= 0)
+			return true;
+
+		if (seq > highest) {
+			slide(seq);
+		} else if (seq <= highest - size() || isSet(seq)) {
+			return false;
+		}
+
+		words[word(seq)] |= 1L << seq;
+		return true;
+	}
+
+	/**
+	 * Records a sequence number unless it has been seen, counting a gap if
+	 * its predecessor is newer than anything seen.
+	 *
+	 * @param seq
+	 *            a sequence number.
+	 * @param previous
+	 *            the sequence number the sender sent before it.
+	 * @return true if the sequence number is new, false if it is a duplicate.
+	 */
+	public synchronized boolean accept(long seq, long previous) {
+		// the first sequence number seen has no predecessor to miss
+		if (highest > 0 && previous > highest)
+			gaps++;
+		return accept(seq);
+	}
+
+	/**
+	 * Returns whether or not a sequence number has been seen.
+	 *
+	 * @param seq
+	 *            a sequence number.
+	 * @return true if accepting the sequence number would reject it.
+	 */
+	public synchronized boolean contains(long seq) {
+		if (seq <= 0 || seq > highest)
+			return false;
+		return seq <= highest - size() || isSet(seq);
+	}
+
+	public synchronized long getHighest() {
+		return highest;
+	}
+
+	public synchronized long getGaps() {
+		return gaps;
+	}
+
+	private int word(long seq) {
+		return (int) ((seq >>> 6) % words.length);
+	}
+
+	private boolean isSet(long seq) {
+		return (words[word(seq)] & (1L << seq)) != 0;
+	}
+
+	/**
+	 * Moves the window up to a new highest sequence number, forgetting the
+	 * numbers that fall out of it.
+	 */
+	private void slide(long seq) {
+		if (seq - highest >= size()) {
+			for (int i = 0; i < words.length; i++)
+				words[i] = 0;
+		} else {
+			for (long s = highest + 1; s <= seq; s++)
+				words[word(s)] &= ~(1L << s);
+		}
+		highest = seq;
+	}
+
+}